@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import banc.Operation;
+import banc.Operations;
+
+/**
+ * OperationsProtocole construit les opérations mesurées par les bancs JMH (paquetage banc)
+ * sur les classes du protocole, qui sont dans le paquetage par défaut.
+ */
+public class OperationsProtocole implements Operations {
+
+    /** Premier port utilisé par les transferts */
+    private static final int PORT = 12400;
+
+    /** Prochain port libre : chaque transfert ouvre un nouveau Receiver */
+    private final AtomicInteger port = new AtomicInteger(PORT);
+
+    /** Motif des données */
+    enum Motif {
+        ZEROS,      //aucune insertion de bit stuffing
+        UNS,        //une insertion tous les 5 bits : le pire cas du bit stuffing
+        ALEATOIRE;  //cas typique
+
+        byte[] donnees(int taille) {
+            byte[] donne = new byte[taille];
+            if (this == UNS) Arrays.fill(donne, (byte) 0xFF);
+            else if (this == ALEATOIRE) new Random(3325).nextBytes(donne);
+            return donne;
+        }
+    }
+
+    @Override
+    public Operation codage(String banc, int taille, String motif) {
+        byte[] donne = Motif.valueOf(motif).donnees(taille);
+        switch (banc) {
+            case "crc": {
+                CRC16CCITT crc = new CRC16CCITT();
+                return () -> {
+                    crc.reset();
+                    crc.update(donne, 0, donne.length);
+                    return crc.getValue();
+                };
+            }
+            case "crc32c": {
+                Fcs crc32c = new Fcs(Fcs.CRC32C);
+                return () -> {
+                    crc32c.reset();
+                    crc32c.update(donne, 0, donne.length);
+                    return crc32c.getValue();
+                };
+            }
+            case "stuffing": {
+                byte[] stuffee = new byte[BitStuffing.tailleMaxStuffee(taille)];
+                return () -> BitStuffing.stuff(donne, 0, donne.length, stuffee, 0);
+            }
+            case "destuffing": {
+                byte[] stuffee = new byte[BitStuffing.tailleMaxStuffee(taille)];
+                int tailleStuffee = BitStuffing.stuff(donne, 0, donne.length, stuffee, 0);
+                byte[] destuffee = new byte[tailleStuffee];
+                return () -> BitStuffing.destuff(stuffee, 0, tailleStuffee, destuffee, 0);
+            }
+            case "encodage": {
+                Trame trame = new Trame(TrameType.I, (byte) 1, donne);
+                ByteBuffer encodee = ByteBuffer.allocate(Trame.tailleMaxEncodee(taille));
+                BitStuffing encodeur = new BitStuffing();
+                return () -> {
+                    encodee.clear();
+                    return trame.encode(encodee, encodeur);
+                };
+            }
+            case "decodage": {
+                Deframeur deframeur = new Deframeur(HDLC.TAILLE_DONNEES_MAX);
+                TrameVue vue = new TrameVue();
+                byte[] tab = new Trame(TrameType.I, (byte) 1, donne).trame_to_tab();
+                return () -> {
+                    deframeur.alimente(tab, 0, tab.length);
+                    long n = 0;
+                    while (deframeur.prochaine(vue)) {
+                        if (vue.crcValide()) n += vue.tailleDonnees();
+                    }
+                    return n;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Banc inconnu : " + banc);
+        }
+    }
+
+    @Override
+    public Operation transfert(Path fichier, int tailleTrame, boolean rejetSelectif) {
+        ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, rejetSelectif)
+                .avecTailleTrame(tailleTrame);
+        return () -> {
+            int p = port.getAndIncrement();
+            Thread recepteur = new Thread(() -> {
+                try {
+                    new Receiver(p, ParametresConnexion.maximaux(), PuitsDonnees.IGNORE).start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            recepteur.start();
+            Sender sender = connecte(p, parametres);
+            sender.createFrame(fichier.toString());
+            recepteur.join();
+            return p;
+        };
+    }
+
+    /**
+     * Se connecte au Receiver dès qu'il écoute
+     */
+    private static Sender connecte(int port, ParametresConnexion parametres) throws Exception {
+        for (int essai = 0; ; essai++) {
+            try {
+                return new Sender("localhost", port, parametres);
+            } catch (java.net.ConnectException e) {
+                if (essai == 100) throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+}
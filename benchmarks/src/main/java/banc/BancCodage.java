@@ -0,0 +1,86 @@
+package banc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BancCodage mesure le coût des étapes du protocole sur une trame : CRC (CRC-16 et CRC-32C),
+ * bit stuffing, destuffing, encodage et décodage d'une trame complète, sur plusieurs tailles
+ * de données et trois motifs (que des 0, que des 1, aléatoire).
+ * Le débit en octets par seconde est le nombre d'opérations par seconde multiplié par taille.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class BancCodage {
+
+    /** Taille des données : petite trame, trame par défaut de Sender, grandes trames */
+    @Param({"16", "250", "4096", "65536"})
+    public int taille;
+
+    /** Motif des données : ZEROS n'insère aucun bit, UNS est le pire cas du bit stuffing */
+    @Param({"ZEROS", "UNS", "ALEATOIRE"})
+    public String motif;
+
+    private Operation crc;
+    private Operation crc32c;
+    private Operation stuffing;
+    private Operation destuffing;
+    private Operation encodage;
+    private Operation decodage;
+
+    @Setup
+    public void prepare() throws ReflectiveOperationException {
+        Operations operations = Operations.charge();
+        crc = operations.codage("crc", taille, motif);
+        crc32c = operations.codage("crc32c", taille, motif);
+        stuffing = operations.codage("stuffing", taille, motif);
+        destuffing = operations.codage("destuffing", taille, motif);
+        encodage = operations.codage("encodage", taille, motif);
+        decodage = operations.codage("decodage", taille, motif);
+    }
+
+    @Benchmark
+    public long crc() throws Exception {
+        return crc.execute();
+    }
+
+    @Benchmark
+    public long crc32c() throws Exception {
+        return crc32c.execute();
+    }
+
+    @Benchmark
+    public long stuffing() throws Exception {
+        return stuffing.execute();
+    }
+
+    @Benchmark
+    public long destuffing() throws Exception {
+        return destuffing.execute();
+    }
+
+    @Benchmark
+    public long encodage() throws Exception {
+        return encodage.execute();
+    }
+
+    @Benchmark
+    public long decodage() throws Exception {
+        return decodage.execute();
+    }
+}
@@ -0,0 +1,72 @@
+package banc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BancTransfert mesure la durée d'un transfert complet d'un fichier de TAILLE_TRANSFERT octets
+ * entre un Sender et un Receiver en boucle locale, en Go-Back-N et en rejet sélectif
+ * (numérotation étendue), avec la taille de trame par défaut et de grandes trames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BancTransfert {
+
+    /** Taille du fichier envoyé */
+    public static final int TAILLE_TRANSFERT = 2 * 1024 * 1024;
+
+    /** Taille de trame négociée : par défaut et grandes trames */
+    @Param({"250", "16384"})
+    public int tailleTrame;
+
+    @Param({"false", "true"})
+    public boolean rejetSelectif;
+
+    private Path fichier;
+    private Operation transfert;
+    private PrintStream console;
+
+    @Setup
+    public void prepare() throws IOException, ReflectiveOperationException {
+        fichier = Files.createTempFile("banc", ".dat");
+        byte[] contenu = new byte[TAILLE_TRANSFERT];
+        new Random(3325).nextBytes(contenu);
+        Files.write(fichier, contenu);
+        transfert = Operations.charge().transfert(fichier, tailleTrame, rejetSelectif);
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); //Les traces fausseraient la mesure
+    }
+
+    @TearDown
+    public void termine() throws IOException {
+        System.setOut(console);
+        Files.deleteIfExists(fichier);
+    }
+
+    @Benchmark
+    public long transfert() throws Exception {
+        return transfert.execute();
+    }
+}
@@ -0,0 +1,23 @@
+package banc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Point d'entrée de benchmarks.jar : lance JMH avec ses options habituelles, en écrivant
+ * les résultats en JSON (jmh-result.json) si -rf n'est pas donné, pour être comparés
+ * automatiquement d'une version à l'autre.
+ * Utilisation : java -jar benchmarks/target/benchmarks.jar [options JMH] [bancs]
+ * Exemple : java -jar benchmarks/target/benchmarks.jar -rff codage.json BancCodage.crc
+ */
+public class Bancs {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")) arguments.addAll(0, List.of("-rf", "json"));
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,14 @@
+package banc;
+
+/**
+ * Une opération mesurée par les bancs
+ */
+@FunctionalInterface
+public interface Operation {
+
+    /**
+     * Exécute l'opération une fois
+     * @return une valeur dépendant du calcul, rendue à JMH pour qu'il ne l'élimine pas
+     */
+    long execute() throws Exception;
+}
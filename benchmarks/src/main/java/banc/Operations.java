@@ -0,0 +1,38 @@
+package banc;
+
+import java.nio.file.Path;
+
+/**
+ * Operations construit les opérations mesurées sur les classes du protocole.
+ * JMH refuse les bancs du paquetage par défaut, et une classe d'un paquetage nommé ne peut pas
+ * nommer celles du paquetage par défaut : les bancs passent donc par cette interface, implémentée
+ * dans le paquetage par défaut par OperationsProtocole et chargée une fois par son nom.
+ */
+public interface Operations {
+
+    /**
+     * Construit une opération de codage
+     * @param banc crc, crc32c, stuffing, destuffing, encodage ou decodage
+     * @param taille la taille des données
+     * @param motif ZEROS, UNS ou ALEATOIRE
+     * @return l'opération, qui traite taille octets à chaque exécution
+     */
+    Operation codage(String banc, int taille, String motif);
+
+    /**
+     * Construit une opération de transfert complet d'un fichier entre un Sender et un Receiver
+     * en boucle locale, sur un nouveau port à chaque exécution
+     * @param fichier le fichier envoyé
+     * @param tailleTrame la taille de trame négociée
+     * @param rejetSelectif rejet sélectif (sinon Go-Back-N), en numérotation étendue
+     * @return l'opération
+     */
+    Operation transfert(Path fichier, int tailleTrame, boolean rejetSelectif);
+
+    /**
+     * Charge l'implémentation du paquetage par défaut
+     */
+    static Operations charge() throws ReflectiveOperationException {
+        return (Operations) Class.forName("OperationsProtocole").getConstructor().newInstance();
+    }
+}
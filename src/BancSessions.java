@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+
+/**
+ * BancSessions mesure combien de sessions simultanées une JVM peut soutenir avec ServeurThreads
+ * et PoolEmetteurs, selon que chaque session a un thread de plateforme ou un thread virtuel.
+ * Le nombre de sessions double à chaque palier jusqu'au maximum demandé ou jusqu'au premier échec.
+ * Utilisation : java BancSessions [PLATEFORME|VIRTUEL] [sessionsMax] [fichier]
+ */
+public class BancSessions {
+
+    public static void main(String[] args) throws Exception {
+        ModeExecution mode = args.length > 0 ? ModeExecution.valueOf(args[0]) : ModeExecution.VIRTUEL;
+        int sessionsMax = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        String fichier = args.length > 2 ? args[2] : "test.txt";
+        int port = 12360;
+
+        if (mode == ModeExecution.VIRTUEL && !ModeExecution.virtuelDisponible()) {
+            System.out.println("Threads virtuels indisponibles sur cette JVM (Java 21 requis) : threads de plateforme utilisés");
+        }
+        System.out.println("mode;sessions;duree_ms;sessions_simultanees_max;threads_max;resultat");
+
+        PrintStream console = System.out;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (int sessions = 64; sessions <= sessionsMax; sessions *= 2) {
+            ServeurThreads serveur = new ServeurThreads(port, mode,
+                    new ParametresConnexion(ParametresConnexion.MODULO_ETENDU), numero -> PuitsDonnees.IGNORE);
+            Thread accepte = new Thread(() -> {
+                try {
+                    serveur.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            accepte.start();
+
+            //Surveille le nombre de sessions ouvertes en même temps
+            long[] simultaneesMax = {0};
+            Thread surveillance = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    simultaneesMax[0] = Math.max(simultaneesMax[0], serveur.getSessionsOuvertes());
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            surveillance.start();
+            threads.resetPeakThreadCount();
+
+            String resultat = "ok";
+            System.setOut(new PrintStream(OutputStream.nullOutputStream())); //Les traces des sessions fausseraient la mesure
+            long debut = System.nanoTime();
+            try (PoolEmetteurs pool = new PoolEmetteurs("localhost", port,
+                    new ParametresConnexion(ParametresConnexion.MODULO_ETENDU), mode)) {
+                pool.envoieTous(Collections.nCopies(sessions, fichier));
+            } catch (IOException | OutOfMemoryError e) {
+                resultat = "échec (" + e + ")";
+            }
+            long duree = (System.nanoTime() - debut) / 1_000_000;
+            while (serveur.getSessionsOuvertes() > 0 && resultat.equals("ok")) {
+                Thread.sleep(10); //Les dernières sessions traitent la trame F
+            }
+            System.setOut(console);
+
+            surveillance.interrupt();
+            surveillance.join();
+            serveur.ferme();
+            accepte.join();
+            System.out.println(mode + ";" + sessions + ";" + duree + ";" + simultaneesMax[0] + ";"
+                    + threads.getPeakThreadCount() + ";" + resultat);
+            if (!resultat.equals("ok")) break;
+            port++;
+        }
+    }
+}
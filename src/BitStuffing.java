@@ -0,0 +1,249 @@
+import java.nio.ByteBuffer;
+
+/**
+ * BitStuffing applique et retire le bit stuffing HDLC (un 0 inséré après cinq bits à 1 d'affilée)
+ * sans allouer de mémoire : les bits sont accumulés dans un entier et écrits directement
+ * dans le tableau ou le ByteBuffer fourni par l'appelant.
+ * Les bytes qui ne peuvent pas déclencher d'insertion sont traités d'un bloc grâce à des tables
+ * précalculées sur la longueur des suites de 1 ; les autres sont traités bit par bit.
+ * Une instance sert d'encodeur réutilisable pour enchaîner plusieurs champs d'une même trame.
+ */
+final class BitStuffing {
+
+    /** Nombre de bits à 1 d'affilée après lequel on insère un 0 */
+    private static final int SUITE_MAX = 5;
+
+    /** Nombre de bits à 1 au début (bits forts) de chaque byte */
+    private static final byte[] UNS_DEBUT = new byte[256];
+
+    /** Nombre de bits à 1 à la fin (bits faibles) de chaque byte */
+    private static final byte[] UNS_FIN = new byte[256];
+
+    /** Plus longue suite de bits à 1 contenue dans chaque byte */
+    private static final byte[] SUITE_LONGUE = new byte[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int debut = 0;
+            while (debut < 8 && (b & (0x80 >> debut)) != 0) debut++;
+            int fin = 0;
+            while (fin < 8 && (b & (1 << fin)) != 0) fin++;
+            int longue = 0, courante = 0;
+            for (int i = 7; i >= 0; i--) {
+                courante = (b & (1 << i)) != 0 ? courante + 1 : 0;
+                longue = Math.max(longue, courante);
+            }
+            UNS_DEBUT[b] = (byte) debut;
+            UNS_FIN[b] = (byte) fin;
+            SUITE_LONGUE[b] = (byte) longue;
+        }
+    }
+
+    /** Tableau de sortie de l'encodage en cours */
+    private byte[] dst;
+
+    /** ByteBuffer de sortie de l'encodage en cours, ou null si la sortie est un tableau */
+    private ByteBuffer tampon;
+
+    /** Vrai si tampon est un ByteBuffer direct, écrit avec put plutôt que par son tableau */
+    private boolean direct;
+
+    /** Indice du prochain byte à écrire dans dst */
+    private int pos;
+
+    /** Indice du premier byte écrit dans dst */
+    private int debut;
+
+    /** Accumulateur des bits en attente d'écriture */
+    private int acc;
+
+    /** Nombre de bits valides dans l'accumulateur (toujours moins de 8 entre deux appels) */
+    private int nbBits;
+
+    /** Nombre de bits à 1 d'affilée déjà écrits */
+    private int compteur1;
+
+    /**
+     * Taille maximale des données après bit stuffing, pour dimensionner le tableau de sortie
+     * @param len le nombre de bytes avant bit stuffing
+     * @return le nombre maximal de bytes après bit stuffing
+     */
+    static int tailleMaxStuffee(int len) {
+        long bits = 8L * len;
+        return (int) ((bits + bits / SUITE_MAX + 7) / 8);
+    }
+
+    /**
+     * Applique le bit stuffing à un tableau de bytes en une seule fois.
+     * Les bits restants du dernier byte sont complétés par des 0.
+     * @param src le tableau contenant les données
+     * @param off l'indice du premier byte des données
+     * @param len le nombre de bytes de données
+     * @param dst le tableau de sortie, d'au moins tailleMaxStuffee(len) bytes à partir de dstOff
+     * @param dstOff l'indice où écrire le premier byte de sortie
+     * @return le nombre de bytes écrits dans dst
+     */
+    static int stuff(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        BitStuffing encodeur = new BitStuffing();
+        encodeur.commence(dst, dstOff);
+        encodeur.stuff(src, off, len);
+        return encodeur.termine();
+    }
+
+    /**
+     * Commence un nouvel encodage. Permet de réutiliser le même encodeur pour plusieurs trames
+     * et d'enchaîner plusieurs champs (type, num, données, CRC) sans les copier.
+     * @param dst le tableau de sortie
+     * @param dstOff l'indice où écrire le premier byte de sortie
+     */
+    void commence(byte[] dst, int dstOff) {
+        this.dst = dst;
+        this.tampon = null;
+        this.direct = false;
+        this.pos = dstOff;
+        this.debut = dstOff;
+        this.acc = 0;
+        this.nbBits = 0;
+        this.compteur1 = 0;
+    }
+
+    /**
+     * Commence un nouvel encodage dans un ByteBuffer, à partir de sa position.
+     * Le ByteBuffer peut être direct ; sa position avance de la taille encodée à l'appel de termine.
+     * @param dst le ByteBuffer de sortie, avec au moins tailleMaxStuffee(len) bytes restants
+     */
+    void commence(ByteBuffer dst) {
+        if (dst.hasArray()) {
+            commence(dst.array(), dst.arrayOffset() + dst.position());
+        } else {
+            commence(null, dst.position());
+            this.direct = true;
+        }
+        this.tampon = dst;
+    }
+
+    /**
+     * Écrit un byte encodé dans la sortie
+     * @param b le byte à écrire
+     */
+    private void ecrit(byte b) {
+        if (direct) tampon.put(pos, b);
+        else dst[pos] = b;
+        pos++;
+    }
+
+    /**
+     * Si il y a 5 bits a 1 d'affilés on insere après un bit a 0 du bit stuffing
+     * @param b le byte à encoder
+     */
+    void stuff(byte b) {
+        int octet = b & 0xFF;
+        if (compteur1 + UNS_DEBUT[octet] < SUITE_MAX && SUITE_LONGUE[octet] < SUITE_MAX) {
+            //Aucune insertion possible dans ce byte : on l'écrit d'un bloc
+            acc = (acc << 8) | octet;
+            nbBits += 8;
+            compteur1 = UNS_FIN[octet];
+        } else {
+            for (int j = 7; j >= 0; j--) { //Itere bits
+                int bit = (octet >>> j) & 1;
+                acc = (acc << 1) | bit;
+                nbBits++;
+                if (bit == 1) {
+                    if (++compteur1 == SUITE_MAX) { //Si 5 bits a 1 d'affilé
+                        acc <<= 1; //Insere 0
+                        nbBits++;
+                        compteur1 = 0;
+                    }
+                } else {
+                    compteur1 = 0;
+                }
+            }
+        }
+        while (nbBits >= 8) {
+            nbBits -= 8;
+            ecrit((byte) (acc >>> nbBits));
+        }
+    }
+
+    /**
+     * Applique le bit stuffing à une portion d'un tableau de bytes
+     * @param src le tableau contenant les données
+     * @param off l'indice du premier byte des données
+     * @param len le nombre de bytes de données
+     */
+    void stuff(byte[] src, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            stuff(src[i]);
+        }
+    }
+
+    /**
+     * Termine l'encodage : les bits restants du dernier byte sont complétés par des 0.
+     * Si la sortie est un ByteBuffer, sa position est avancée après les bytes écrits.
+     * @return le nombre total de bytes écrits depuis commence
+     */
+    int termine() {
+        if (nbBits > 0) { //On complète le dernier byte avec des 0
+            ecrit((byte) (acc << (8 - nbBits)));
+            nbBits = 0;
+        }
+        int taille = pos - debut;
+        if (tampon != null) {
+            tampon.position(tampon.position() + taille);
+            tampon = null;
+        }
+        return taille;
+    }
+
+    /**
+     * Si il y a 5 bits a 1 d'affilés on enleve le 0 du bit stuffing.
+     * Les bits de remplissage du dernier byte (moins de 8) sont ignorés, mais ils doivent être à 0 :
+     * sinon la trame a absorbé des bits étrangers (flag de fin altéré par exemple) et elle est mal formée.
+     * Sans ce contrôle, une trame prolongée d'un byte à 0 passerait le CRC, qui part de 0x0000.
+     * @param src le tableau contenant les données avec bit stuffing
+     * @param off l'indice du premier byte
+     * @param len le nombre de bytes
+     * @param dst le tableau de sortie, d'au moins len bytes à partir de dstOff
+     * @param dstOff l'indice où écrire le premier byte de sortie
+     * @return le nombre de bytes écrits dans dst, ou -1 si les bits de remplissage ne sont pas à 0
+     */
+    static int destuff(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int acc = 0, nbBits = 0;
+        int pos = dstOff;
+        int compteur1 = 0;
+        boolean sauteBit = false; //vrai si le prochain bit est un 0 inséré par le bit stuffing
+
+        for (int i = off; i < off + len; i++) {
+            int b = src[i] & 0xFF;
+            if (!sauteBit && compteur1 + UNS_DEBUT[b] < SUITE_MAX && SUITE_LONGUE[b] < SUITE_MAX) {
+                acc = (acc << 8) | b;
+                nbBits += 8;
+                compteur1 = UNS_FIN[b];
+            } else {
+                for (int j = 7; j >= 0; j--) { //Itere bits
+                    int bit = (b >>> j) & 1;
+                    if (sauteBit) { //On skip le 0 du bit stuffing
+                        sauteBit = false;
+                        continue;
+                    }
+                    acc = (acc << 1) | bit;
+                    nbBits++;
+                    if (bit == 1) {
+                        if (++compteur1 == SUITE_MAX) {
+                            sauteBit = true;
+                            compteur1 = 0;
+                        }
+                    } else {
+                        compteur1 = 0;
+                    }
+                }
+            }
+            while (nbBits >= 8) {
+                nbBits -= 8;
+                dst[pos++] = (byte) (acc >>> nbBits);
+            }
+        }
+        if ((acc & ((1 << nbBits) - 1)) != 0) return -1;
+        return pos - dstOff;
+    }
+}
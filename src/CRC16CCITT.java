@@ -0,0 +1,133 @@
+/**
+ * CRC16CCITT calcule le CRC-CCITT (polynôme x16 + x12 + x5 + 1, valeur initiale 0x0000)
+ * à l'aide d'une table de 256 entrées, un byte à la fois.
+ * Le calcul est incrémental : on peut enchaîner plusieurs appels à update
+ * pour couvrir les champs Type, Num et Données sans les copier dans un tableau commun.
+ */
+class CRC16CCITT {
+    /**
+     * Le polynôme générateur CRC-CCITT (x16 + x12 + x5 + 1)
+     */
+    static final int POLYNOME = 0x1021;
+
+    /**
+     * Table précalculée : TABLE[i] est le reste de la division de (i << 8) par le polynôme
+     */
+    private static final short[] TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int reste = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((reste & 0x8000) != 0)
+                    reste = (reste << 1) ^ POLYNOME;
+                else
+                    reste <<= 1;
+            }
+            TABLE[i] = (short) reste;
+        }
+    }
+
+    /**
+     * Résultat des mesures de main, conservé pour que le JIT n'élimine pas les calculs
+     */
+    static volatile short puits;
+
+    /**
+     * Le CRC courant (16 bits faibles)
+     */
+    private int crc = 0x0000;
+
+    /**
+     * Ajoute un byte au calcul du CRC
+     * @param b le byte à ajouter
+     */
+    public void update(byte b) {
+        crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+    /**
+     * Ajoute une portion d'un tableau de bytes au calcul du CRC
+     * @param donne le tableau contenant les bytes à ajouter
+     * @param off l'indice du premier byte
+     * @param len le nombre de bytes à ajouter
+     */
+    public void update(byte[] donne, int off, int len) {
+        int c = crc;
+        for (int i = off; i < off + len; i++) {
+            c = ((c << 8) ^ TABLE[((c >>> 8) ^ donne[i]) & 0xFF]) & 0xFFFF;
+        }
+        crc = c;
+    }
+
+    /**
+     * Accesseur du CRC courant
+     * @return le CRC calculé sous forme de short
+     */
+    public short getValue() {
+        return (short) crc;
+    }
+
+    /** Remet le CRC à sa valeur initiale */
+    public void reset() {
+        crc = 0x0000;
+    }
+
+    /**
+     * Calcule le CRC-CCITT bit par bit, tel que le faisait Trame.calculerCRC à l'origine.
+     * Conservé comme référence pour valider et comparer l'implémentation par table.
+     * @param donne le tableau de bytes
+     * @param off l'indice du premier byte
+     * @param len le nombre de bytes
+     * @return le CRC calculé sous forme de short
+     */
+    static short calculerBitABit(byte[] donne, int off, int len) {
+        int checksum = 0x0000;
+        for (int i = off; i < off + len; i++) {
+            checksum ^= (donne[i] << 8);
+            for (int bit = 0; bit < 8; bit++) {
+                if ((checksum & 0x8000) != 0)
+                    checksum = (checksum << 1) ^ POLYNOME;
+                else
+                    checksum <<= 1;
+            }
+        }
+        return (short) (checksum & 0xFFFF);
+    }
+
+    /**
+     * Compare les deux implémentations (bit par bit et par table) sur des trames
+     * de 250 octets à 64 Ko : vérifie qu'elles donnent le même CRC et affiche le débit de chacune.
+     */
+    public static void main(String[] args) {
+        java.util.Random rand = new java.util.Random(3325);
+        int[] tailles = {250, 1024, 4096, 16384, 65536};
+        for (int taille : tailles) {
+            byte[] donne = new byte[taille];
+            rand.nextBytes(donne);
+            int iterations = Math.max(200, (64 * 1024 * 1024) / taille / 4);
+
+            CRC16CCITT crc = new CRC16CCITT();
+            crc.update(donne, 0, taille);
+            if (crc.getValue() != calculerBitABit(donne, 0, taille)) {
+                throw new IllegalStateException("CRC différent pour une trame de " + taille + " octets");
+            }
+
+            long debut = System.nanoTime();
+            for (int i = 0; i < iterations; i++) puits = calculerBitABit(donne, 0, taille);
+            long dureeBitABit = System.nanoTime() - debut;
+
+            debut = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                crc.reset();
+                crc.update(donne, 0, taille);
+                puits = crc.getValue();
+            }
+            long dureeTable = System.nanoTime() - debut;
+
+            double mo = (double) taille * iterations / (1024 * 1024);
+            System.out.printf("%6d octets : bit à bit %8.1f Mo/s, table %8.1f Mo/s%n",
+                    taille, mo / (dureeBitABit / 1e9), mo / (dureeTable / 1e9));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresseur compresse les données du fichier, trame par trame, quand la compression est négociée.
+ * Les trames forment un seul flux Deflate qui profite du dictionnaire des trames précédentes ;
+ * chaque trame se termine par un vidage synchrone (SYNC_FLUSH), ses données sont donc
+ * décompressables dès qu'elle est acceptée, sans attendre la suivante (voir Decompresseur).
+ * Le premier byte des données indique leur format : compressées, ou brutes quand la compression
+ * ne gagne rien (données déjà compressées ou aléatoires). Une trame brute recommence le flux.
+ * Le nombre d'octets du fichier lus pour une trame suit le taux de compression observé,
+ * pour que la trame compressée remplisse la taille négociée.
+ */
+class Compresseur {
+
+    /** Format des données d'une trame : brutes, le flux Deflate recommence à la trame compressée suivante */
+    static final byte BRUTES = 0;
+
+    /** Format des données d'une trame : suite du flux Deflate, terminée par un vidage synchrone */
+    static final byte COMPRESSEES = 1;
+
+    /** Niveau de compression Deflate, de 1 (rapide) à 9 */
+    private static final int NIVEAU = Integer.getInteger("hdlc.compression.niveau", 6);
+
+    /** Nombre maximal d'octets du fichier lus pour une trame, en multiple de sa taille */
+    private static final int FACTEUR_MAX = 16;
+
+    /** Nombre de trames envoyées brutes sans essayer de les compresser, après une trame qui n'a rien gagné */
+    private static final int TRAMES_SANS_ESSAI = 8;
+
+    /** Compresseur Deflate sans en-tête zlib, réutilisé pour tout le flux */
+    private final Deflater deflater = new Deflater(NIVEAU, true);
+
+    /** Nombre maximal de bytes de données d'une trame après le byte de format */
+    private final int place;
+
+    /** Octets du fichier lus pour la trame en cours */
+    private final byte[] entree;
+
+    /** Nombre d'octets du fichier à lire pour la prochaine trame */
+    private int entreeVisee;
+
+    /** Nombre de trames à envoyer brutes avant d'essayer de nouveau de compresser */
+    private int sansEssai = 0;
+
+    /**
+     * Constructeur de Compresseur.
+     * @param tailleTrame la taille négociée du champ Données d'une trame, au moins 2
+     */
+    Compresseur(int tailleTrame) {
+        this.place = tailleTrame - 1;
+        this.entree = new byte[place * FACTEUR_MAX];
+        this.entreeVisee = place;
+    }
+
+    /**
+     * Remplit les données d'une trame avec la suite de la source, compressées si elles y gagnent.
+     * La position de la source avance du nombre d'octets envoyés dans la trame.
+     * @param source la source des données, lue à partir de sa position
+     * @param dst le tableau des données de la trame
+     * @param off l'indice du byte de format dans dst, suivi d'au moins tailleTrame - 1 bytes libres
+     * @return le nombre de bytes écrits dans dst, byte de format compris
+     */
+    int remplit(ByteBuffer source, byte[] dst, int off) {
+        if (sansEssai > 0) {
+            sansEssai--;
+            int brutes = Math.min(place, source.remaining());
+            source.get(dst, off + 1, brutes);
+            dst[off] = BRUTES;
+            return 1 + brutes;
+        }
+        int debut = source.position();
+        int lus = Math.min(entreeVisee, source.remaining());
+        source.get(entree, 0, lus);
+        deflater.setInput(entree, 0, lus);
+        int produits = deflater.deflate(dst, off + 1, place, Deflater.SYNC_FLUSH);
+        if (produits < place && produits < lus) {
+            //Vidage complet dans la trame : on vise une trame pleine au taux observé, avec une marge
+            dst[off] = COMPRESSEES;
+            entreeVisee = (int) Math.min(entree.length, Math.max(place, (long) lus * place / produits * 7 / 8));
+            return 1 + produits;
+        }
+
+        //Le vidage ne tient pas dans la trame, ou ne gagne rien : on envoie le début des octets lus tels quels
+        deflater.reset();
+        int brutes = Math.min(place, lus);
+        System.arraycopy(entree, 0, dst, off + 1, brutes);
+        source.position(debut + brutes);
+        dst[off] = BRUTES;
+        if (produits < place) {
+            entreeVisee = place;
+            sansEssai = TRAMES_SANS_ESSAI;
+        } else {
+            entreeVisee = Math.max(place, entreeVisee / 2);
+        }
+        return 1 + brutes;
+    }
+
+    /**
+     * Libère la mémoire native du compresseur, à la fin du transfert
+     */
+    void ferme() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresseur décompresse les données des trames I acceptées, dans l'ordre, quand la compression
+ * est négociée, et les passe au puits (voir Compresseur pour le format). Chaque trame compressée
+ * se termine par un vidage synchrone : ses données sont entièrement décompressées à son acceptation.
+ */
+class Decompresseur {
+
+    /** Taille du tampon des données décompressées, passées au puits par morceaux */
+    private static final int TAILLE_SORTIE = 16 * 1024;
+
+    /** Décompresseur Deflate sans en-tête zlib, réutilisé pour tout le flux */
+    private final Inflater inflater = new Inflater(true);
+
+    /** Tampon des données décompressées, réutilisé pour chaque trame */
+    private final byte[] sortie = new byte[TAILLE_SORTIE];
+
+    /**
+     * Décompresse les données d'une trame acceptée et les passe au puits
+     * @param donne le tableau contenant les données de la trame
+     * @param off l'indice du byte de format
+     * @param len le nombre de bytes de données, byte de format compris
+     * @param puits la destination des données décompressées
+     * @return le nombre de bytes passés au puits
+     * @throws IOException si le format ou les données compressées sont invalides
+     */
+    int decompresse(byte[] donne, int off, int len, PuitsDonnees puits) throws IOException {
+        if (len < 1) throw new IOException("Trame sans byte de format");
+        if (donne[off] == Compresseur.BRUTES) {
+            inflater.reset(); //La prochaine trame compressée commence un nouveau flux
+            puits.ecrit(donne, off + 1, len - 1);
+            return len - 1;
+        }
+        if (donne[off] != Compresseur.COMPRESSEES) throw new IOException("Format de données inconnu : " + donne[off]);
+
+        inflater.setInput(donne, off + 1, len - 1);
+        int total = 0;
+        try {
+            int n;
+            while ((n = inflater.inflate(sortie)) > 0) {
+                puits.ecrit(sortie, 0, n);
+                total += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Données compressées invalides", e);
+        }
+        return total;
+    }
+
+    /**
+     * Libère la mémoire native du décompresseur, à la fin de la session
+     */
+    void ferme() {
+        inflater.end();
+    }
+}
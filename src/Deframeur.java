@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Deframeur découpe un flux de bytes en trames délimitées par le FLAG (01111110).
+ * Une lecture sur le socket peut contenir une partie de trame, une trame entière ou plusieurs trames :
+ * les bytes d'une trame incomplète sont conservés jusqu'à la lecture suivante.
+ * Le tampon est réutilisé d'une lecture à l'autre et sa taille est bornée ; une trame qui dépasse
+ * la borne est ignorée. Il commence petit et double au besoin jusqu'à la borne, pour qu'un serveur
+ * gérant beaucoup de sessions n'alloue pas la taille maximale pour chacune.
+ * Les trames complètes sont destuffées dans une zone elle aussi réutilisée, et lues au travers
+ * d'une TrameVue : en régime établi, le découpage et le décodage n'allouent rien.
+ */
+class Deframeur {
+
+    /** Taille initiale du tampon */
+    private static final int TAILLE_INITIALE = 1024;
+
+    /** Taille maximale du tampon : une trame complète de taille maximale, flags compris */
+    private final int tailleMax;
+
+    /** Tampon réutilisé pour toutes les lectures */
+    private byte[] tampon;
+
+    /** Nombre de bytes valides dans le tampon */
+    private int fin = 0;
+
+    /** Indice du flag de début de la trame en cours, ou -1 si on cherche un flag */
+    private int debut = -1;
+
+    /** Trames complètes destuffées, les unes à la suite des autres */
+    private byte[] decodees;
+
+    /** Nombre de bytes utilisés dans decodees */
+    private int finDecodees = 0;
+
+    /** Début et taille dans decodees de chaque trame complète, par paires */
+    private int[] bornes = new int[2 * 16];
+
+    /** Nombre de trames complètes dans bornes */
+    private int nbTrames = 0;
+
+    /** Indice dans bornes de la prochaine trame à retourner */
+    private int prochaineTrame = 0;
+
+    /** Temps de décodage de chaque trame, ou null s'il n'est pas mesuré */
+    private Histogramme tempsDecodage;
+
+    /** Vue utilisée par prochaine() pour les appelants qui veulent une Trame */
+    private final TrameVue vue = new TrameVue();
+
+    /** Nombre de trames ignorées car trop longues ou mal formées */
+    private long tramesIgnorees = 0;
+
+    /**
+     * Constructeur de Deframeur.
+     * @param tailleDonneesMax la taille maximale du champ Données d'une trame, avant bit stuffing
+     */
+    Deframeur(int tailleDonneesMax) {
+        this.tailleMax = Trame.tailleMaxEncodee(tailleDonneesMax);
+        this.tampon = new byte[Math.min(TAILLE_INITIALE, tailleMax)];
+        this.decodees = new byte[tampon.length];
+    }
+
+    /**
+     * Fait une lecture sur le flux et découpe les trames complètes qu'elle termine
+     * @param in le flux à lire
+     * @return le nombre de bytes lus, ou -1 si le flux est fermé
+     */
+    int lit(InputStream in) throws IOException {
+        int bytesLus = in.read(tampon, fin, tampon.length - fin);
+        if (bytesLus > 0) analyse(bytesLus);
+        return bytesLus;
+    }
+
+    /**
+     * Ajoute des bytes reçus et découpe les trames complètes qu'ils terminent
+     * @param src le tableau contenant les bytes reçus
+     * @param off l'indice du premier byte
+     * @param len le nombre de bytes
+     */
+    void alimente(byte[] src, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, tampon.length - fin);
+            System.arraycopy(src, off, tampon, fin, n);
+            analyse(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Mesure le temps de décodage (destuffing) de chaque trame
+     * @param tempsDecodage l'histogramme des temps de décodage, en nanosecondes
+     */
+    void mesureDecodage(Histogramme tempsDecodage) {
+        this.tempsDecodage = tempsDecodage;
+    }
+
+    /**
+     * Retire la prochaine trame complète, copiée dans une Trame
+     * @return la trame, ou null si aucune trame complète n'est disponible
+     */
+    Trame prochaine() {
+        return prochaine(vue) ? vue.versTrame() : null;
+    }
+
+    /**
+     * Retire la prochaine trame complète sans la copier : la vue est positionnée sur la trame
+     * destuffée et reste valide jusqu'au prochain appel à lit ou alimente.
+     * @param vue la vue à positionner
+     * @return false si aucune trame complète n'est disponible
+     */
+    boolean prochaine(TrameVue vue) {
+        if (prochaineTrame == nbTrames) return false;
+        int debutTrame = bornes[2 * prochaineTrame];
+        int tailleTrame = bornes[2 * prochaineTrame + 1];
+        prochaineTrame++;
+        vue.positionne(decodees, debutTrame, tailleTrame); //Format déjà vérifié par decode
+        return true;
+    }
+
+    /**
+     * Accesseur de tramesIgnorees
+     * @return le nombre de trames ignorées car trop longues ou mal formées
+     */
+    long getTramesIgnorees() {
+        return tramesIgnorees;
+    }
+
+    /**
+     * Cherche les flags dans les bytes ajoutés à la fin du tampon.
+     * Chaque flag ferme la trame en cours (s'il y en a une) et en ouvre une nouvelle :
+     * le flag de fin d'une trame peut donc servir de flag de début à la suivante.
+     * @param nouveaux le nombre de bytes ajoutés à la fin du tampon
+     */
+    private void analyse(int nouveaux) {
+        if (prochaineTrame == nbTrames) { //Toutes les trames décodées ont été lues : on réutilise la zone
+            nbTrames = 0;
+            prochaineTrame = 0;
+            finDecodees = 0;
+        }
+        int depuis = fin;
+        fin += nouveaux;
+
+        for (int i = depuis; i < fin; i++) {
+            if (tampon[i] != Trame.FLAG) continue;
+
+            if (debut >= 0 && i - debut > 1) { //Deux flags consécutifs ne forment pas une trame
+                decode(debut + 1, i - debut - 1);
+            }
+            debut = i;
+        }
+
+        if (debut < 0) {
+            fin = 0; //Aucun flag : les bytes lus ne font partie d'aucune trame
+        } else if (debut == 0 && fin == tampon.length) {
+            if (tampon.length < tailleMax) {
+                //Trame en cours plus grande que le tampon : on l'agrandit
+                tampon = Arrays.copyOf(tampon, Math.min(tailleMax, 2 * tampon.length));
+            } else {
+                //La trame en cours dépasse la taille maximale : on l'abandonne et on cherche le prochain flag
+                tramesIgnorees++;
+                debut = -1;
+                fin = 0;
+            }
+        } else if (debut > 0) {
+            //On ramène la trame incomplète au début du tampon pour la prochaine lecture
+            System.arraycopy(tampon, debut, tampon, 0, fin - debut);
+            fin -= debut;
+            debut = 0;
+        }
+    }
+
+    /**
+     * Destuffe une trame complète à la suite des trames déjà décodées et note ses bornes.
+     * Une trame mal formée (trop courte, mal terminée ou de type inconnu) est ignorée.
+     * @param off l'indice du premier byte après le flag de début
+     * @param len le nombre de bytes entre les deux flags
+     */
+    private void decode(int off, int len) {
+        if (decodees.length - finDecodees < len) {
+            decodees = Arrays.copyOf(decodees, Math.max(2 * decodees.length, finDecodees + len));
+        }
+        long debutDecodage = tempsDecodage != null ? System.nanoTime() : 0;
+        int taille = BitStuffing.destuff(tampon, off, len, decodees, finDecodees);
+        if (tempsDecodage != null) tempsDecodage.enregistre(System.nanoTime() - debutDecodage);
+        if (taille < Trame.TAILLE_MIN_CONTENU || TrameType.fromCode(decodees[finDecodees]) == null) {
+            tramesIgnorees++;
+            return;
+        }
+        if (bornes.length < 2 * (nbTrames + 1)) bornes = Arrays.copyOf(bornes, 2 * bornes.length);
+        bornes[2 * nbTrames] = finDecodees;
+        bornes[2 * nbTrames + 1] = taille;
+        nbTrames++;
+        finDecodees += taille;
+    }
+}
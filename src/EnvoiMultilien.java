@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * EnvoiMultilien répartit le transfert d'un fichier sur plusieurs connexions HDLC parallèles,
+ * à la manière de MLPPP : chaque lien a son propre Sender (numérotation, fenêtre, retransmissions,
+ * thread d'envoi) et ReceptionMultilien remet les données dans l'ordre à l'arrivée.
+ * Le fichier est découpé en blocs de TAILLE_BLOC octets, chacun précédé d'un en-tête
+ * (numéro du bloc sur 8 bytes, longueur sur 4 bytes, 1 si c'est le dernier bloc).
+ * Chaque lien prend le bloc suivant dès que sa fenêtre a de la place : un lien plus rapide
+ * en envoie davantage, sans répartition fixe. Quand un lien est perdu, ses blocs non acquittés
+ * sont redistribués aux liens restants. Un bloc n'est pas distribué s'il a trop d'avance sur
+ * le plus ancien bloc non acquitté, ce qui borne la mémoire de réassemblage à l'arrivée.
+ */
+class EnvoiMultilien {
+
+    /** Nombre d'octets du fichier par bloc */
+    static final int TAILLE_BLOC = 64 * 1024;
+
+    /** Taille de l'en-tête d'un bloc : numéro, longueur, dernier bloc */
+    static final int TAILLE_ENTETE = 8 + 4 + 1;
+
+    /** Nombre de blocs d'avance permis par lien sur le plus ancien bloc non acquitté */
+    private static final int AVANCE_PAR_LIEN = 4;
+
+    /** Liens dont la connexion est établie */
+    private final List<Voie> voies = new ArrayList<>();
+
+    /** Verrou de la distribution des blocs, partagé par les threads des liens */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /** Signalée quand un bloc est acquitté ou à redistribuer */
+    private final Condition distributionModifiee = verrou.newCondition();
+
+    /** Blocs d'un lien perdu, à renvoyer en priorité, du plus ancien au plus récent */
+    private final PriorityQueue<Bloc> aRedistribuer = new PriorityQueue<>((a, b) -> Long.compare(a.numero, b.numero));
+
+    /** Blocs envoyés et pas encore acquittés, tous liens confondus, par numéro */
+    private final TreeMap<Long, Bloc> enVol = new TreeMap<>();
+
+    /** Numéro du prochain bloc jamais distribué */
+    private long prochainBloc;
+
+    /** Taille du fichier envoyé */
+    private long tailleFichier;
+
+    /** Nombre de blocs du fichier (au moins 1 : un fichier vide est un dernier bloc vide) */
+    private long nbBlocs;
+
+    /** Nombre maximal de blocs d'avance sur le plus ancien bloc non acquitté */
+    private long avanceMax;
+
+    /**
+     * Constructeur de EnvoiMultilien.
+     * Ouvre nbLiens connexions vers le même port de la machine de destination, où ReceptionMultilien
+     * les accepte, et négocie les paramètres de chacune.
+     * @param machineName la machine de destination
+     * @param port le port de destination
+     * @param nbLiens le nombre de connexions parallèles
+     * @param propose les paramètres proposés pour chaque connexion
+     * @throws IOException si aucune connexion n'est établie
+     */
+    public EnvoiMultilien(String machineName, int port, int nbLiens, ParametresConnexion propose) throws IOException {
+        this(connecte(machineName, port, nbLiens), propose);
+    }
+
+    /**
+     * Constructeur de EnvoiMultilien sur des liens déjà établis (par exemple des LienEmule).
+     * @param liens les liens vers ReceptionMultilien
+     * @param propose les paramètres proposés pour chaque connexion
+     * @throws IOException si aucune connexion n'est établie
+     */
+    EnvoiMultilien(List<Lien> liens, ParametresConnexion propose) throws IOException {
+        for (Lien lien : liens) {
+            try {
+                voies.add(new Voie(voies.size(), new Sender(lien, propose)));
+            } catch (IOException e) {
+                System.out.println("Lien non établi : " + e.getMessage());
+                lien.close(); //Pour que l'autre extrémité n'attende pas ce lien
+            }
+        }
+        if (voies.isEmpty()) throw new IOException("Aucun lien établi");
+    }
+
+    /**
+     * Ouvre les sockets de tous les liens avant toute négociation : ReceptionMultilien
+     * ne commence à recevoir qu'une fois toutes les connexions acceptées.
+     * @param machineName la machine de destination
+     * @param port le port de destination
+     * @param nbLiens le nombre de connexions
+     * @return les liens ouverts
+     */
+    private static List<Lien> connecte(String machineName, int port, int nbLiens) throws IOException {
+        System.out.println("Connexion en cours avec le port " + port + " de " + machineName + " (" + nbLiens + " liens)...");
+        List<Lien> liens = new ArrayList<>();
+        for (int i = 0; i < nbLiens; i++) {
+            liens.add(Lien.de(new Socket(machineName, port)));
+        }
+        return liens;
+    }
+
+    /**
+     * Envoie le fichier sur tous les liens, puis termine chaque connexion.
+     * @param fileName le fichier à envoyer
+     * @throws IOException si tous les liens sont perdus avant la fin du transfert
+     */
+    public void envoie(String fileName) throws IOException {
+        try (FileChannel fichier = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            tailleFichier = fichier.size();
+            nbBlocs = Math.max(1, (tailleFichier + TAILLE_BLOC - 1) / TAILLE_BLOC);
+            avanceMax = (long) AVANCE_PAR_LIEN * voies.size();
+            prochainBloc = 0;
+
+            ThreadFactory fabrique = ModeExecution.duThreadCourant().fabrique("Multilien");
+            List<Thread> threads = new ArrayList<>();
+            for (Voie voie : voies) {
+                Thread thread = fabrique.newThread(() -> transmet(voie, fichier));
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Transfert multilien interrompu", e);
+                }
+            }
+        }
+        verrou.lock();
+        try {
+            if (prochainBloc < nbBlocs || !aRedistribuer.isEmpty() || !enVol.isEmpty()) {
+                throw new IOException("Tous les liens sont perdus avant la fin du transfert");
+            }
+        } finally {
+            verrou.unlock();
+        }
+        for (Voie voie : voies) {
+            System.out.println("Lien " + voie.indice + " : " + voie.blocsEnvoyes + " blocs envoyés"
+                    + (voie.perdu ? " (perdu)" : ""));
+        }
+    }
+
+    /**
+     * Boucle du thread d'un lien : envoie les blocs distribués, puis termine la connexion
+     * quand tous les blocs du fichier sont acquittés. Si le lien est perdu, ses blocs
+     * non acquittés sont redistribués.
+     * @param voie le lien
+     * @param fichier le fichier à envoyer
+     */
+    private void transmet(Voie voie, FileChannel fichier) {
+        ByteBuffer tampon = ByteBuffer.allocate(TAILLE_ENTETE + TAILLE_BLOC);
+        try {
+            while (true) {
+                Bloc bloc = prends(voie);
+                if (bloc == null) {
+                    //Plus rien à envoyer pour l'instant : on fait acquitter nos blocs pour débloquer la distribution
+                    voie.sender.attendAcquittements();
+                    if (!attendTravail(voie)) break;
+                    continue;
+                }
+                long debut = bloc.numero * TAILLE_BLOC;
+                tampon.clear();
+                tampon.putLong(bloc.numero).putInt(bloc.longueur).put((byte) (bloc.numero == nbBlocs - 1 ? 1 : 0));
+                tampon.limit(TAILLE_ENTETE + bloc.longueur);
+                while (tampon.hasRemaining()) {
+                    if (fichier.read(tampon, debut + tampon.position() - TAILLE_ENTETE) < 0) {
+                        throw new IOException("Fichier tronqué pendant l'envoi");
+                    }
+                }
+                tampon.flip();
+                voie.sender.envoie(tampon);
+                voie.blocsEnvoyes++;
+            }
+            voie.sender.termine();
+        } catch (IOException e) {
+            System.out.println("Lien " + voie.indice + " perdu : " + e.getMessage());
+            perte(voie);
+            voie.sender.abandonne();
+        }
+    }
+
+    /**
+     * Distribue un bloc à un lien : un bloc à redistribuer, sinon le prochain bloc du fichier
+     * s'il n'a pas trop d'avance.
+     * @param voie le lien qui demande un bloc
+     * @return le bloc à envoyer, ou null s'il n'y en a pas pour l'instant
+     */
+    private Bloc prends(Voie voie) {
+        verrou.lock();
+        try {
+            confirme(voie);
+            Bloc bloc = aRedistribuer.poll();
+            if (bloc == null && distribuable()) {
+                long numero = prochainBloc++;
+                bloc = new Bloc(numero, (int) Math.min(TAILLE_BLOC, tailleFichier - numero * TAILLE_BLOC));
+            }
+            if (bloc == null) return null;
+            //Le bloc est acquitté quand le Sender du lien a fait acquitter le flux jusqu'à sa fin
+            voie.octetsDistribues += TAILLE_ENTETE + bloc.longueur;
+            bloc.finFlux = voie.octetsDistribues;
+            voie.enVol.addLast(bloc);
+            enVol.put(bloc.numero, bloc);
+            return bloc;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Indique si le prochain bloc du fichier peut être distribué. Doit être appelée en tenant le verrou.
+     * @return vrai s'il reste des blocs et que le prochain n'a pas trop d'avance
+     */
+    private boolean distribuable() {
+        if (prochainBloc >= nbBlocs) return false;
+        long plusAncien = enVol.isEmpty() ? prochainBloc : enVol.firstKey();
+        if (!aRedistribuer.isEmpty()) plusAncien = Math.min(plusAncien, aRedistribuer.peek().numero);
+        return prochainBloc < plusAncien + avanceMax;
+    }
+
+    /**
+     * Attend qu'un bloc soit à envoyer, ou que tous les blocs soient acquittés.
+     * Tous les blocs envoyés par ce lien doivent être acquittés avant l'appel.
+     * @param voie le lien qui attend
+     * @return vrai si un bloc est à envoyer, faux si le transfert est terminé
+     */
+    private boolean attendTravail(Voie voie) throws IOException {
+        verrou.lock();
+        try {
+            confirme(voie);
+            while (aRedistribuer.isEmpty() && !distribuable()) {
+                if (enVol.isEmpty() && prochainBloc >= nbBlocs) return false;
+                distributionModifiee.await();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfert multilien interrompu", e);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Retire les blocs acquittés par la connexion d'un lien. Doit être appelée en tenant le verrou.
+     * @param voie le lien
+     */
+    private void confirme(Voie voie) {
+        long acquittes = voie.sender.getOctetsAcquittes();
+        boolean modifiee = false;
+        Bloc bloc;
+        while ((bloc = voie.enVol.peekFirst()) != null && bloc.finFlux <= acquittes) {
+            voie.enVol.removeFirst();
+            enVol.remove(bloc.numero);
+            modifiee = true;
+        }
+        if (modifiee) distributionModifiee.signalAll();
+    }
+
+    /**
+     * Redistribue les blocs non acquittés d'un lien perdu
+     * @param voie le lien perdu
+     */
+    private void perte(Voie voie) {
+        verrou.lock();
+        try {
+            confirme(voie);
+            for (Bloc bloc : voie.enVol) {
+                enVol.remove(bloc.numero);
+                aRedistribuer.add(bloc);
+            }
+            voie.enVol.clear();
+            voie.perdu = true;
+            distributionModifiee.signalAll();
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Bloc du fichier distribué à un lien
+     */
+    private static final class Bloc {
+        /** Numéro du bloc dans le fichier */
+        final long numero;
+
+        /** Nombre d'octets du fichier dans le bloc */
+        final int longueur;
+
+        /** Position de la fin du bloc dans le flux d'octets envoyés sur son lien */
+        long finFlux;
+
+        /**
+         * Constructeur de Bloc.
+         * @param numero le numéro du bloc dans le fichier
+         * @param longueur le nombre d'octets du fichier dans le bloc
+         */
+        Bloc(long numero, int longueur) {
+            this.numero = numero;
+            this.longueur = longueur;
+        }
+    }
+
+    /**
+     * Un lien du transfert et les blocs qu'il a envoyés sans qu'ils soient encore acquittés
+     */
+    private static final class Voie {
+        /** Indice du lien, pour les traces */
+        final int indice;
+
+        /** Le Sender de la connexion */
+        final Sender sender;
+
+        /** Blocs envoyés et pas encore acquittés, dans l'ordre d'envoi. On y accède en tenant le verrou */
+        final ArrayDeque<Bloc> enVol = new ArrayDeque<>();
+
+        /** Nombre d'octets distribués à ce lien, en-têtes compris */
+        long octetsDistribues = 0;
+
+        /** Nombre de blocs envoyés ; seul le thread du lien y accède */
+        int blocsEnvoyes = 0;
+
+        /** Vrai si la connexion a été perdue */
+        boolean perdu = false;
+
+        /**
+         * Constructeur de Voie.
+         * @param indice l'indice du lien
+         * @param sender le Sender de la connexion
+         */
+        Voie(int indice, Sender sender) {
+            this.indice = indice;
+            this.sender = sender;
+        }
+    }
+}
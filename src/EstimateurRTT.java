@@ -0,0 +1,103 @@
+/**
+ * EstimateurRTT estime le temps d'aller-retour (RTT) d'une connexion et en déduit le délai
+ * de retransmission (RTO), selon l'algorithme de Jacobson (RFC 6298) :
+ * SRTT est la moyenne lissée des mesures, RTTVAR leur écart moyen et RTO = SRTT + 4 RTTVAR.
+ * Chaque expiration du délai double le RTO (backoff exponentiel) jusqu'à la prochaine mesure,
+ * ou jusqu'au prochain acquittement de nouvelles données.
+ * Selon l'algorithme de Karn, c'est à l'appelant de ne pas mesurer les trames réémises,
+ * dont l'acquittement est ambigu.
+ */
+class EstimateurRTT {
+
+    /** RTO minimal en nanosecondes */
+    static final long RTO_MIN = 50_000_000L;
+
+    /** RTO maximal en nanosecondes */
+    static final long RTO_MAX = 60_000_000_000L;
+
+    /** RTT lissé en nanosecondes, ou -1 avant la première mesure */
+    private long srtt = -1;
+
+    /** Variation du RTT en nanosecondes */
+    private long rttvar;
+
+    /** Délai de retransmission courant en nanosecondes */
+    private long rto;
+
+    /** Dernier RTT mesuré en nanosecondes, ou -1 avant la première mesure */
+    private long dernierRtt = -1;
+
+    /**
+     * Constructeur de EstimateurRTT.
+     * @param rtoInitial le délai de retransmission avant la première mesure, en millisecondes
+     */
+    EstimateurRTT(long rtoInitial) {
+        this.rto = rtoInitial * 1_000_000L;
+    }
+
+    /**
+     * Ajoute une mesure de RTT et recalcule le RTO
+     * @param rtt le temps entre l'envoi d'une trame (non réémise) et son acquittement, en nanosecondes
+     */
+    synchronized void mesure(long rtt) {
+        dernierRtt = rtt;
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        rto = Math.min(RTO_MAX, Math.max(RTO_MIN, srtt + 4 * rttvar));
+    }
+
+    /** Double le RTO après l'expiration du délai de retransmission */
+    synchronized void backoff() {
+        rto = Math.min(RTO_MAX, rto * 2);
+    }
+
+    /**
+     * Annule le backoff quand de nouvelles données sont acquittées, même si aucune mesure n'est possible
+     * (trames toutes réémises) : la connexion fonctionne, le RTO redevient SRTT + 4 RTTVAR.
+     */
+    synchronized void annuleBackoff() {
+        if (srtt >= 0) rto = Math.min(RTO_MAX, Math.max(RTO_MIN, srtt + 4 * rttvar));
+    }
+
+    /**
+     * Accesseur de rto
+     * @return le délai de retransmission courant en nanosecondes
+     */
+    synchronized long getRto() {
+        return rto;
+    }
+
+    /**
+     * Accesseur de srtt
+     * @return le RTT lissé en nanosecondes, ou -1 avant la première mesure
+     */
+    synchronized long getSrtt() {
+        return srtt;
+    }
+
+    /**
+     * Accesseur de rttvar
+     * @return la variation du RTT en nanosecondes
+     */
+    synchronized long getRttvar() {
+        return rttvar;
+    }
+
+    /**
+     * Accesseur de dernierRtt
+     * @return le dernier RTT mesuré en nanosecondes, ou -1 avant la première mesure
+     */
+    synchronized long getDernierRtt() {
+        return dernierRtt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RTT %.3f ms (±%.3f), RTO %.1f ms", srtt / 1e6, rttvar / 1e6, rto / 1e6);
+    }
+}
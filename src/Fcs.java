@@ -0,0 +1,113 @@
+import java.util.zip.CRC32C;
+
+/**
+ * Fcs calcule la séquence de contrôle (FCS) placée à la fin d'une trame, sur les champs Type, Num et Données.
+ * Deux FCS sont supportés : le CRC-16/CCITT historique (2 bytes, voir CRC16CCITT) et le CRC-32C
+ * (Castagnoli, 4 bytes), calculé par java.util.zip.CRC32C avec les instructions CRC32 du processeur.
+ * Le CRC-32C détecte bien mieux les erreurs des longues trames ; il est négocié dans la trame C
+ * (voir ParametresConnexion) et ne protège que les trames I. Les trames de contrôle, de 4 bytes,
+ * et les trames C, échangées avant l'accord, gardent le CRC-16.
+ * Comme CRC16CCITT, le calcul est incrémental et le calculateur est réutilisable après reset.
+ * La valeur du FCS est rendue dans un int (les 16 bits faibles pour le CRC-16), écrite en big-endian.
+ */
+final class Fcs {
+
+    /** Taille en bytes du CRC-16/CCITT */
+    static final int CRC16 = 2;
+
+    /** Taille en bytes du CRC-32C */
+    static final int CRC32C = 4;
+
+    /** Taille maximale d'un FCS en bytes */
+    static final int TAILLE_MAX = CRC32C;
+
+    /** Nombre de bytes du FCS : CRC16 ou CRC32C */
+    private final int taille;
+
+    /** Calculateur du CRC-16, ou null */
+    private final CRC16CCITT crc16;
+
+    /** Calculateur du CRC-32C, ou null */
+    private final CRC32C crc32c;
+
+    /**
+     * Constructeur de Fcs.
+     * @param taille la taille du FCS en bytes : CRC16 ou CRC32C
+     */
+    Fcs(int taille) {
+        if (taille != CRC16 && taille != CRC32C) throw new IllegalArgumentException("FCS non supporté : " + taille);
+        this.taille = taille;
+        this.crc16 = taille == CRC16 ? new CRC16CCITT() : null;
+        this.crc32c = taille == CRC32C ? new CRC32C() : null;
+    }
+
+    /**
+     * Accesseur de taille
+     * @return le nombre de bytes du FCS
+     */
+    int taille() {
+        return taille;
+    }
+
+    /**
+     * Ajoute un byte au calcul du FCS
+     * @param b le byte à ajouter
+     */
+    void update(byte b) {
+        if (crc16 != null) crc16.update(b);
+        else crc32c.update(b);
+    }
+
+    /**
+     * Ajoute une portion d'un tableau de bytes au calcul du FCS
+     * @param donne le tableau contenant les bytes à ajouter
+     * @param off l'indice du premier byte
+     * @param len le nombre de bytes à ajouter
+     */
+    void update(byte[] donne, int off, int len) {
+        if (crc16 != null) crc16.update(donne, off, len);
+        else crc32c.update(donne, off, len);
+    }
+
+    /**
+     * Accesseur du FCS courant
+     * @return le FCS calculé, sur les taille bytes faibles
+     */
+    int getValue() {
+        return crc16 != null ? crc16.getValue() & 0xFFFF : (int) crc32c.getValue();
+    }
+
+    /** Remet le FCS à sa valeur initiale */
+    void reset() {
+        if (crc16 != null) crc16.reset();
+        else crc32c.reset();
+    }
+
+    /**
+     * Lit un FCS en big-endian
+     * @param tab le tableau contenant le FCS
+     * @param off l'indice du premier byte
+     * @param taille le nombre de bytes du FCS
+     * @return la valeur du FCS
+     */
+    static int lit(byte[] tab, int off, int taille) {
+        int valeur = 0;
+        for (int i = 0; i < taille; i++) {
+            valeur = (valeur << 8) | (tab[off + i] & 0xFF);
+        }
+        return valeur;
+    }
+
+    /**
+     * Écrit un FCS en big-endian
+     * @param valeur la valeur du FCS
+     * @param tab le tableau de sortie
+     * @param off l'indice du premier byte
+     * @param taille le nombre de bytes du FCS
+     */
+    static void ecrit(int valeur, byte[] tab, int off, int taille) {
+        for (int i = 0; i < taille; i++) {
+            tab[off + i] = (byte) (valeur >>> (8 * (taille - 1 - i)));
+        }
+    }
+}
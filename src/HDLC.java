@@ -1,19 +1,68 @@
 import java.io.*;
 import java.net.Socket;
-import java.util.Arrays;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 /**
  * HDLC représente une connexion utilisant le protocole HDLC pour l'envoi et la réception de trames.
+ * Les trames I et les ACK envoyés sont regroupés en lots écrits en un seul appel : un lot part quand
+ * il atteint LOT_TRAMES trames ou LOT_OCTETS octets, quand une trame de contrôle urgente (REJ, SREJ, P, C, F)
+ * y est ajoutée, ou quand l'émetteur appelle vide() avant d'attendre (un acquittement, ou la trame suivante
+ * si le même thread lit et écrit). Il n'y a pas de timer : l'âge du lot (LOT_AGE) n'est vérifié qu'à l'ajout
+ * d'une trame, et une trame seule ne part qu'au prochain vide().
  */
 public class HDLC {
-    /** Le socket pour la connexion */
-    private Socket socket;
+    /** Taille maximale du champ Données d'une trame reçue */
+    static final int TAILLE_DONNEES_MAX = 64 * 1024;
+
+    /** Nombre maximal de trames d'un lot (propriété hdlc.lot.trames) ; 1 : chaque trame est écrite seule */
+    static final int LOT_TRAMES = Math.max(1, Integer.getInteger("hdlc.lot.trames", 16));
+
+    /** Nombre d'octets encodés à partir duquel un lot est écrit (propriété hdlc.lot.octets) */
+    static final int LOT_OCTETS = Integer.getInteger("hdlc.lot.octets", 32 * 1024);
+
+    /**
+     * Âge du lot, en millisecondes depuis sa première trame, à partir duquel la trame ajoutée suivante
+     * fait écrire le lot (propriété hdlc.lot.age). Vérifié seulement à l'ajout d'une trame.
+     */
+    static final int LOT_AGE = Integer.getInteger("hdlc.lot.age", 1);
+
+    /** Le lien de la connexion : un socket ou un lien émulé */
+    private final Lien lien;
 
     /** Flux de données pour lire les données*/
     private DataInputStream inputStream;
 
-    /** Flux de données pour écrire les données */
-    private DataOutputStream outputStream;
+
+    /** Découpe les bytes lus sur l'input stream en trames */
+    private final Deframeur deframeur = new Deframeur(TAILLE_DONNEES_MAX);
+
+    /** Tampon d'envoi réutilisé : les trames du lot en cours y sont encodées à la suite, agrandi au besoin */
+    private ByteBuffer envoi = ByteBuffer.allocate(Math.max(LOT_OCTETS, Trame.tailleMaxEncodee(256)));
+
+    /** Indice de fin de chaque trame du lot en cours dans le tampon d'envoi */
+    private final int[] finsTrames = new int[LOT_TRAMES];
+
+    /** Nombre de trames du lot en cours */
+    private int tramesEnAttente = 0;
+
+    /** Instant d'ajout de la première trame du lot en cours (System.nanoTime) */
+    private long debutLot;
+
+    /** Vrai si le lot en cours est écrit avant chaque lecture bloquante (le même thread lit et écrit) */
+    private boolean videAvantLecture = false;
+
+    /** Encodeur de bit stuffing réutilisé pour chaque trame envoyée */
+    private final BitStuffing encodeur = new BitStuffing();
+
+    /** Métriques de la connexion */
+    private final Metriques metriques;
+
+    /** Numéro de la connexion dans la trace */
+    private final int session;
+
+    /** Délai de lecture fixé sur le lien, en millisecondes (0 : attente indéfinie) */
+    private int delaiLecture = 0;
 
     /**
      * Constructeur de la  HDLC.
@@ -21,9 +70,31 @@ public class HDLC {
      * @param socket le socket utilisé pour la connexion HDLC
      */
     public HDLC(Socket socket) throws IOException {
-        this.socket = socket;
-        this.inputStream = new DataInputStream(socket.getInputStream());
-        this.outputStream = new DataOutputStream(socket.getOutputStream());
+        this(socket, new Metriques("HDLC", Traceur.nouvelleSession()));
+    }
+
+    /**
+     * Constructeur de la  HDLC.
+     * Initialise les flux d'entrée et de sortie à partir du socket donné.
+     * @param socket le socket utilisé pour la connexion HDLC
+     * @param metriques les métriques de la connexion
+     */
+    HDLC(Socket socket, Metriques metriques) throws IOException {
+        this(Lien.de(socket), metriques);
+    }
+
+    /**
+     * Constructeur de la  HDLC.
+     * Initialise les flux d'entrée et de sortie à partir du lien donné.
+     * @param lien le lien utilisé pour la connexion HDLC (par exemple un LienEmule)
+     * @param metriques les métriques de la connexion
+     */
+    HDLC(Lien lien, Metriques metriques) throws IOException {
+        this.metriques = metriques;
+        this.session = metriques.getSession();
+        this.deframeur.mesureDecodage(metriques.decodage);
+        this.lien = lien;
+        this.inputStream = new DataInputStream(lien.getInputStream());
     }
 
     /**
@@ -31,41 +102,222 @@ public class HDLC {
      * @param trame la trame à envoyer
      */
     public void envoieTrame(Trame trame) throws IOException {
-        byte[] trameBytes = trame.trame_to_tab();
-        outputStream.write(trameBytes);
-        System.out.println("Envoie: " + trame);
+        byte[] donne = trame.getDonne();
+        envoieTrame(trame.getType(), trame.getNum(), donne, 0, donne.length, trame.getCrc(), trame.getTailleFcs());
+    }
+
+    /**
+     * Envoie une trame à partir de ses champs, sans créer d'objet Trame.
+     * La trame est encodée dans le tampon d'envoi, à la suite du lot en cours : un seul thread doit envoyer à la fois.
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne le tableau contenant les données.
+     * @param off   l'indice du premier byte des données.
+     * @param len   le nombre de bytes de données.
+     * @param crc   le CRC de la trame.
+     * @param tailleFcs le nombre de bytes du CRC.
+     */
+    void envoieTrame(TrameType type, byte num, byte[] donne, int off, int len, int crc, int tailleFcs) throws IOException {
+        reserve(Trame.tailleMaxEncodee(len));
+        long debutEncodage = System.nanoTime();
+        int taille = Trame.encode(envoi, encodeur, type, num, donne, off, len, crc, tailleFcs);
+        metriques.encodage.enregistre(System.nanoTime() - debutEncodage);
+        ajouteAuLot(type, num, taille, len, tailleFcs);
+    }
+
+    /**
+     * Envoie une trame déjà encodée (flags et bit stuffing compris), par exemple encodée d'avance
+     * par Sender ou réémise telle qu'elle a été encodée la première fois.
+     * @param type     le type de la trame.
+     * @param num      le numéro de la trame.
+     * @param encodee  le tableau contenant la trame encodée, à partir de l'indice 0.
+     * @param taille   le nombre de bytes de la trame encodée.
+     * @param len      le nombre de bytes de données de la trame avant encodage.
+     * @param tailleFcs le nombre de bytes du CRC de la trame.
+     */
+    void envoieEncodee(TrameType type, byte num, byte[] encodee, int taille, int len, int tailleFcs) throws IOException {
+        reserve(taille);
+        envoi.put(encodee, 0, taille);
+        ajouteAuLot(type, num, taille, len, tailleFcs);
+    }
+
+    /**
+     * Garantit la place d'une trame dans le tampon d'envoi, en écrivant le lot en cours s'il le faut
+     * @param taille le nombre maximal de bytes de la trame encodée
+     */
+    private void reserve(int taille) throws IOException {
+        if (envoi.remaining() >= taille) return;
+        vide();
+        if (envoi.capacity() < taille) envoi = ByteBuffer.allocate(taille);
+    }
+
+    /**
+     * Ajoute au lot en cours la trame qui vient d'être placée à la fin du tampon d'envoi,
+     * et écrit le lot si la politique d'écriture le demande
+     * @param type   le type de la trame.
+     * @param num    le numéro de la trame.
+     * @param taille le nombre de bytes de la trame encodée.
+     * @param len    le nombre de bytes de données de la trame avant encodage.
+     * @param tailleFcs le nombre de bytes du CRC de la trame.
+     */
+    private void ajouteAuLot(TrameType type, byte num, int taille, int len, int tailleFcs) throws IOException {
+        long maintenant = System.nanoTime();
+        if (tramesEnAttente == 0) debutLot = maintenant;
+        finsTrames[tramesEnAttente++] = envoi.position();
+        metriques.tramesEnvoyees.increment();
+        metriques.octetsEnvoyes.add(taille);
+        metriques.octetsBitStuffing.add(taille - len - 2 - (Trame.TAILLE_MIN_CONTENU - Fcs.CRC16 + tailleFcs));
+        Traceur.evenement(Traceur.Evenement.ENVOI, session, type, num, len);
+        //Un rejet, un poll ou une trame de connexion attend une réponse : il part sans attendre le lot
+        boolean urgente = type != TrameType.I && type != TrameType.A;
+        if (urgente || tramesEnAttente == LOT_TRAMES || envoi.position() >= LOT_OCTETS
+                || maintenant - debutLot >= LOT_AGE * 1_000_000L) {
+            vide();
+        }
+    }
+
+    /**
+     * Écrit le lot de trames en cours en un seul appel. À appeler avant d'attendre une réponse
+     * de l'autre extrémité, pour qu'aucune trame ne reste dans le tampon d'envoi.
+     */
+    void vide() throws IOException {
+        if (tramesEnAttente == 0) return;
+        lien.ecritTrames(envoi.array(), finsTrames, tramesEnAttente);
+        metriques.ecritures.increment();
+        envoi.clear();
+        tramesEnAttente = 0;
+    }
+
+    /**
+     * Indique si des trames attendent d'être écrites
+     * @return vrai si le lot en cours n'est pas vide
+     */
+    boolean aVider() {
+        return tramesEnAttente > 0;
+    }
+
+    /**
+     * Demande que le lot en cours soit écrit avant chaque lecture bloquante : pour une extrémité
+     * dont le même thread lit les trames et écrit les réponses (Receiver)
+     * @param vide vrai pour écrire le lot avant de lire
+     */
+    void videAvantLecture(boolean vide) {
+        this.videAvantLecture = vide;
     }
 
     /**
      * Reçoit une trame
-     * Lit les données sur l'input stream et les transforme en une trame.
-     * @return la trame reçue ou null si aucun byte n'est lu
+     * Lit les données sur l'input stream jusqu'à obtenir une trame complète.
+     * Une même lecture peut contenir plusieurs trames : les suivantes sont
+     * retournées par les appels suivants sans relire le socket.
+     * @return la trame reçue ou null si la connexion est fermée
      */
     public Trame recoitTrame() throws IOException {
-        byte[] buffer = new byte[1024];
-        int bytesLus = inputStream.read(buffer);
-        if (bytesLus == -1) return null; //Aucun byte lu on retourne null
-        return Trame.donne_to_Trame(Arrays.copyOf(buffer, bytesLus));
+        Trame trame = deframeur.prochaine();
+        while (trame == null) {
+            if (videAvantLecture) vide();
+            if (deframeur.lit(inputStream) == -1) return null; //Connexion fermée on retourne null
+            trame = deframeur.prochaine();
+        }
+        metriques.tramesRecues.increment();
+        Traceur.evenement(Traceur.Evenement.RECEPTION, session, trame.getType(), trame.getNum(), trame.getDonne().length);
+        return trame;
+    }
+
+    /**
+     * Reçoit une trame sans la copier : la vue est positionnée sur la trame dans le tampon
+     * de réception et reste valide jusqu'au prochain appel à recoitTrame.
+     * @param vue la vue à positionner sur la trame reçue
+     * @return false si la connexion est fermée
+     */
+    boolean recoitTrame(TrameVue vue) throws IOException {
+        while (!deframeur.prochaine(vue)) {
+            if (videAvantLecture) vide();
+            if (deframeur.lit(inputStream) == -1) return false; //Connexion fermée
+        }
+        metriques.tramesRecues.increment();
+        Traceur.evenement(Traceur.Evenement.RECEPTION, session, vue.getType(), vue.getNum(), vue.tailleDonnees());
+        return true;
     }
 
     /**
-     * Affiche un message pour l'ACK d'une trame
+     * Reçoit une trame en attendant au plus delai millisecondes
+     * @param delai le temps d'attente maximal en millisecondes
+     * @return la trame reçue ou null si le délai a expiré ou si la connexion est fermée
+     */
+    public Trame recoitTrame(int delai) throws IOException {
+        fixeDelaiLecture(delai);
+        try {
+            return recoitTrame();
+        } catch (SocketTimeoutException e) {
+            return null;
+        } finally {
+            fixeDelaiLecture(0);
+        }
+    }
+
+    /**
+     * Reçoit une trame sans la copier, en attendant au plus delai millisecondes.
+     * Une trame déjà lue et pas encore retournée est retournée sans attendre.
+     * @param vue la vue à positionner sur la trame reçue
+     * @param delai le temps d'attente maximal en millisecondes, 0 pour attendre indéfiniment
+     * @return false si la connexion est fermée
+     * @throws SocketTimeoutException si aucune trame n'est reçue pendant le délai
+     */
+    boolean recoitTrame(TrameVue vue, int delai) throws IOException {
+        fixeDelaiLecture(delai);
+        return recoitTrame(vue);
+    }
+
+    /**
+     * Fixe le délai de lecture du lien, seulement s'il change
+     * @param delai le délai en millisecondes, 0 pour attendre indéfiniment
+     */
+    private void fixeDelaiLecture(int delai) throws IOException {
+        if (delai == delaiLecture) return;
+        lien.setSoTimeout(delai);
+        delaiLecture = delai;
+    }
+
+    /**
+     * Trace la réception de l'ACK d'une trame
      * @param trame la trame pour laquelle l'ACK a été reçu
      */
-    public void str_ACK(Trame trame) {
-        System.out.println("Reçu ACK de la trame " + trame.getNum());
+    public void str_ACK(TrameVue trame) {
+        Traceur.evenement(Traceur.Evenement.ACK, session, trame.getType(), trame.getNum(), 0);
     }
 
     /**
-     * Affiche un message pour le REJ d'une trame
+     * Trace la réception du REJ d'une trame
      * @param trame la trame pour laquelle le REJ a été reçu
      */
-    public void str_REJ(Trame trame) {
-        System.out.println("Reçu REJ de la trame " + trame.getNum());
+    public void str_REJ(TrameVue trame) {
+        metriques.rejRecus.increment();
+        Traceur.evenement(Traceur.Evenement.REJ, session, trame.getType(), trame.getNum(), 0);
+    }
+
+    /**
+     * Accesseur de metriques
+     * @return les métriques de la connexion
+     */
+    Metriques getMetriques() {
+        return metriques;
+    }
+
+    /**
+     * Accesseur de session
+     * @return le numéro de la connexion dans la trace
+     */
+    int getSession() {
+        return session;
     }
 
-    /** Ferme la connexion */
+    /** Écrit les trames en attente et ferme la connexion */
     public void fermeConnection() throws IOException {
-        socket.close();
+        try {
+            vide();
+        } finally {
+            lien.close();
+        }
     }
 }
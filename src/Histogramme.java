@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme enregistre des durées (ou toute valeur positive) dans des seaux log-linéaires,
+ * à la manière de HdrHistogram : chaque puissance de 2 est divisée en SOUS_SEAUX seaux égaux,
+ * ce qui donne une précision relative d'environ 3 % de 1 ns à plusieurs années,
+ * avec un tableau de taille fixe. L'enregistrement est sans verrou et sans allocation.
+ */
+final class Histogramme {
+
+    /** Nombre de bits des sous-seaux : 2^5 = 32 seaux par puissance de 2 */
+    private static final int BITS_SOUS_SEAUX = 5;
+
+    /** Nombre de seaux par puissance de 2 */
+    private static final int SOUS_SEAUX = 1 << BITS_SOUS_SEAUX;
+
+    /** Nombre de valeurs enregistrées dans chaque seau */
+    private final AtomicLongArray comptes = new AtomicLongArray((64 - BITS_SOUS_SEAUX + 1) * SOUS_SEAUX);
+
+    /** Nombre de valeurs enregistrées */
+    private final LongAdder nombre = new LongAdder();
+
+    /** Somme des valeurs enregistrées */
+    private final LongAdder somme = new LongAdder();
+
+    /** Plus grande valeur enregistrée */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Enregistre une valeur
+     * @param valeur la valeur, ramenée à 0 si elle est négative
+     */
+    void enregistre(long valeur) {
+        if (valeur < 0) valeur = 0;
+        comptes.incrementAndGet(indice(valeur));
+        nombre.increment();
+        somme.add(valeur);
+        max.accumulate(valeur);
+    }
+
+    /**
+     * Seau d'une valeur : les valeurs inférieures à 2 * SOUS_SEAUX ont chacune leur seau,
+     * les autres sont regroupées par puissance de 2 puis par sous-seau.
+     */
+    private static int indice(long valeur) {
+        if (valeur < 2 * SOUS_SEAUX) return (int) valeur;
+        int decalage = (63 - Long.numberOfLeadingZeros(valeur)) - BITS_SOUS_SEAUX;
+        return ((decalage + 1) << BITS_SOUS_SEAUX) + (int) ((valeur >>> decalage) & (SOUS_SEAUX - 1));
+    }
+
+    /**
+     * Plus grande valeur d'un seau
+     */
+    private static long borneSuperieure(int indice) {
+        if (indice < 2 * SOUS_SEAUX) return indice;
+        int decalage = (indice >>> BITS_SOUS_SEAUX) - 1;
+        long sousSeau = SOUS_SEAUX + (indice & (SOUS_SEAUX - 1));
+        return ((sousSeau + 1) << decalage) - 1;
+    }
+
+    /**
+     * Valeur sous laquelle se trouve une proportion des valeurs enregistrées
+     * @param proportion la proportion, entre 0 et 1 (0.99 pour le 99e centile)
+     * @return la borne supérieure du seau atteint, ou 0 si aucune valeur n'est enregistrée
+     */
+    long centile(double proportion) {
+        long total = nombre.sum();
+        if (total == 0) return 0;
+        long rang = Math.max(1, (long) Math.ceil(proportion * total));
+        long cumul = 0;
+        for (int i = 0; i < comptes.length(); i++) {
+            cumul += comptes.get(i);
+            if (cumul >= rang) return Math.min(borneSuperieure(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Accesseur de nombre
+     * @return le nombre de valeurs enregistrées
+     */
+    long getNombre() {
+        return nombre.sum();
+    }
+
+    /**
+     * Moyenne des valeurs enregistrées
+     * @return la moyenne, ou 0 si aucune valeur n'est enregistrée
+     */
+    double getMoyenne() {
+        long total = nombre.sum();
+        return total == 0 ? 0 : (double) somme.sum() / total;
+    }
+
+    /**
+     * Accesseur de max
+     * @return la plus grande valeur enregistrée
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Accesseur de somme
+     * @return la somme des valeurs enregistrées
+     */
+    long getSomme() {
+        return somme.sum();
+    }
+}
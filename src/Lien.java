@@ -0,0 +1,68 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Lien est le support sur lequel HDLC lit et écrit ses trames : un socket TCP ou un lien émulé
+ * en mémoire (LienEmule). Les méthodes reprennent celles de Socket.
+ */
+interface Lien extends Closeable {
+
+    /**
+     * @return le flux des bytes reçus
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return le flux des bytes à envoyer
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Écrit un lot de trames encodées, placées les unes à la suite des autres. Par défaut, le lot
+     * est écrit en un seul appel à write : un seul appel système sur un socket.
+     * @param tampon les trames encodées, à partir de l'indice 0
+     * @param fins l'indice de fin de chaque trame dans tampon
+     * @param nbTrames le nombre de trames du lot, au moins 1
+     */
+    default void ecritTrames(byte[] tampon, int[] fins, int nbTrames) throws IOException {
+        getOutputStream().write(tampon, 0, fins[nbTrames - 1]);
+    }
+
+    /**
+     * Fixe le temps d'attente maximal d'une lecture, après lequel elle lève une SocketTimeoutException
+     * @param delai le délai en millisecondes, 0 pour attendre indéfiniment
+     */
+    void setSoTimeout(int delai) throws IOException;
+
+    /**
+     * Lien sur un socket TCP
+     * @param socket le socket connecté
+     * @return le lien correspondant
+     */
+    static Lien de(Socket socket) {
+        return new Lien() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public void setSoTimeout(int delai) throws IOException {
+                socket.setSoTimeout(delai);
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LienEmule relie deux HDLC en mémoire, sans socket, à travers un canal émulé dans chaque sens.
+ * Chaque canal a son débit, son délai de propagation, son taux d'erreur binaire et ses probabilités
+ * de perte, de duplication et de réordonnancement d'une trame. Chaque write sur le flux de sortie
+ * est une trame ; un lot de trames écrit par HDLC est émis trame par trame. Une trame occupe le canal pendant
+ * sa durée d'émission (taille / débit), puis arrive après le délai de propagation.
+ * Les tirages aléatoires viennent d'un générateur initialisé par une graine : un même scénario
+ * donne les mêmes erreurs et les mêmes pertes d'une exécution à l'autre (à l'ordonnancement
+ * des threads près).
+ */
+final class LienEmule {
+
+    /**
+     * Conditions d'un sens du lien. Par défaut : débit illimité, aucun délai et aucune erreur.
+     */
+    static final class Conditions {
+        /** Débit en bits par seconde, 0 pour un débit illimité */
+        long debit = 0;
+
+        /** Délai de propagation en nanosecondes */
+        long delai = 0;
+
+        /** Probabilité que chaque bit soit inversé */
+        double tauxErreurBit = 0;
+
+        /** Probabilité qu'une trame soit perdue */
+        double perte = 0;
+
+        /** Probabilité qu'une trame soit reçue deux fois */
+        double duplication = 0;
+
+        /** Probabilité qu'une trame soit retardée et arrive après les suivantes */
+        double reordonnancement = 0;
+
+        /**
+         * @param bitsParSeconde le débit en bits par seconde, 0 pour un débit illimité
+         * @return ces conditions
+         */
+        Conditions debit(long bitsParSeconde) {
+            this.debit = bitsParSeconde;
+            return this;
+        }
+
+        /**
+         * @param millisecondes le délai de propagation
+         * @return ces conditions
+         */
+        Conditions delai(double millisecondes) {
+            this.delai = (long) (millisecondes * 1_000_000);
+            return this;
+        }
+
+        /**
+         * @param probabilite la probabilité que chaque bit soit inversé
+         * @return ces conditions
+         */
+        Conditions tauxErreurBit(double probabilite) {
+            this.tauxErreurBit = probabilite;
+            return this;
+        }
+
+        /**
+         * @param probabilite la probabilité qu'une trame soit perdue
+         * @return ces conditions
+         */
+        Conditions perte(double probabilite) {
+            this.perte = probabilite;
+            return this;
+        }
+
+        /**
+         * @param probabilite la probabilité qu'une trame soit reçue deux fois
+         * @return ces conditions
+         */
+        Conditions duplication(double probabilite) {
+            this.duplication = probabilite;
+            return this;
+        }
+
+        /**
+         * @param probabilite la probabilité qu'une trame soit retardée et arrive après les suivantes
+         * @return ces conditions
+         */
+        Conditions reordonnancement(double probabilite) {
+            this.reordonnancement = probabilite;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, délai %.1f ms, BER %.0e, perte %.1f %%, duplication %.1f %%, réordonnancement %.1f %%",
+                    debit == 0 ? "débit illimité" : debit / 1e6 + " Mb/s", delai / 1e6, tauxErreurBit,
+                    perte * 100, duplication * 100, reordonnancement * 100);
+        }
+    }
+
+    /** Canal du sens A vers B */
+    private final Canal aller;
+
+    /** Canal du sens B vers A */
+    private final Canal retour;
+
+    /** Extrémité A : écrit dans le canal aller, lit le canal retour */
+    private final Extremite a;
+
+    /** Extrémité B : écrit dans le canal retour, lit le canal aller */
+    private final Extremite b;
+
+    /**
+     * Constructeur de LienEmule.
+     * @param aller les conditions du sens A vers B
+     * @param retour les conditions du sens B vers A
+     * @param graine la graine des tirages aléatoires
+     */
+    LienEmule(Conditions aller, Conditions retour, long graine) {
+        this.aller = new Canal(aller, new Random(graine));
+        this.retour = new Canal(retour, new Random(~graine));
+        this.a = new Extremite(this.retour, this.aller);
+        this.b = new Extremite(this.aller, this.retour);
+    }
+
+    /**
+     * Constructeur de LienEmule avec les mêmes conditions dans les deux sens.
+     * @param conditions les conditions de chaque sens
+     * @param graine la graine des tirages aléatoires
+     */
+    LienEmule(Conditions conditions, long graine) {
+        this(conditions, conditions, graine);
+    }
+
+    /**
+     * @return l'extrémité A du lien (par exemple pour Sender)
+     */
+    Lien getExtremiteA() {
+        return a;
+    }
+
+    /**
+     * @return l'extrémité B du lien (par exemple pour Receiver)
+     */
+    Lien getExtremiteB() {
+        return b;
+    }
+
+    /**
+     * Réinitialise la connexion, comme un RST TCP : les trames en transit sont perdues, et toute lecture
+     * ou écriture, en cours ou suivante, échoue aux deux extrémités avec une SocketException
+     * (au lieu de la fin du flux que donne close)
+     */
+    void reinitialise() {
+        aller.rompt();
+        retour.rompt();
+    }
+
+    /**
+     * @return le nombre de trames écrites par l'extrémité A, perdues comprises
+     */
+    long getTramesAller() {
+        return aller.getTrames();
+    }
+
+    /**
+     * @return le nombre de trames écrites par l'extrémité B, perdues comprises
+     */
+    long getTramesRetour() {
+        return retour.getTrames();
+    }
+
+    /**
+     * Une trame en transit, livrée à son instant d'arrivée
+     */
+    private static final class Paquet implements Comparable<Paquet> {
+        final byte[] donnees;
+        final long arrivee;
+        final long sequence;
+
+        Paquet(byte[] donnees, long arrivee, long sequence) {
+            this.donnees = donnees;
+            this.arrivee = arrivee;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Paquet autre) {
+            int c = Long.compare(arrivee, autre.arrivee);
+            return c != 0 ? c : Long.compare(sequence, autre.sequence);
+        }
+    }
+
+    /**
+     * Un sens du lien : les trames écrites d'un côté et lues de l'autre, après émission et propagation.
+     */
+    private static final class Canal {
+        private final Conditions conditions;
+        private final Random aleatoire;
+        private final ReentrantLock verrou = new ReentrantLock();
+        private final Condition arrivee = verrou.newCondition();
+
+        /** Trames en transit, par instant d'arrivée */
+        private final PriorityQueue<Paquet> enTransit = new PriorityQueue<>();
+
+        /** Instant où le canal aura fini d'émettre les trames déjà écrites */
+        private long finEmission = 0;
+
+        /** Numéro d'ordre des trames, pour départager les arrivées simultanées */
+        private long sequence = 0;
+
+        /** Nombre de trames écrites dans le canal */
+        private long trames = 0;
+
+        /** Trame en cours de lecture et position dans celle-ci */
+        private byte[] courant;
+        private int position;
+
+        /** Vrai quand l'émetteur a fermé son extrémité : le lecteur reçoit la fin de flux */
+        private boolean fermeEmetteur = false;
+
+        /** Vrai quand le lecteur a fermé son extrémité */
+        private boolean fermeLecteur = false;
+
+        /** Vrai quand la connexion est réinitialisée : lectures et écritures échouent */
+        private boolean rompu = false;
+
+        Canal(Conditions conditions, Random aleatoire) {
+            this.conditions = conditions;
+            this.aleatoire = aleatoire;
+        }
+
+        /**
+         * Émet une trame : elle occupe le canal pendant sa durée d'émission, puis subit
+         * les erreurs, pertes, duplications et réordonnancements tirés au hasard.
+         */
+        void emet(byte[] src, int off, int len) throws IOException {
+            verrou.lock();
+            try {
+                if (rompu) throw new SocketException("Connexion réinitialisée");
+                if (fermeEmetteur) throw new IOException("Lien fermé");
+                trames++;
+                long maintenant = System.nanoTime();
+                long emission = conditions.debit == 0 ? 0 : len * 8L * 1_000_000_000L / conditions.debit;
+                finEmission = Math.max(maintenant, finEmission) + emission;
+                if (fermeLecteur || aleatoire.nextDouble() < conditions.perte) return; //La trame est perdue
+
+                long instant = finEmission + conditions.delai;
+                if (aleatoire.nextDouble() < conditions.reordonnancement) {
+                    //Retard supplémentaire : la trame arrive après celles émises juste après elle
+                    instant += Math.max(1_000_000L, 2 * conditions.delai) * (1 + aleatoire.nextInt(4)) / 4
+                            + 4 * emission;
+                }
+                enTransit.add(new Paquet(altere(src, off, len), instant, sequence++));
+                if (aleatoire.nextDouble() < conditions.duplication) {
+                    enTransit.add(new Paquet(altere(src, off, len), instant + emission, sequence++));
+                }
+                arrivee.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }
+
+        /**
+         * Copie une trame en inversant chaque bit avec la probabilité tauxErreurBit.
+         * L'écart entre deux erreurs suit une loi géométrique : on ne tire qu'une fois par erreur.
+         */
+        private byte[] altere(byte[] src, int off, int len) {
+            byte[] copie = new byte[len];
+            System.arraycopy(src, off, copie, 0, len);
+            double p = conditions.tauxErreurBit;
+            if (p <= 0) return copie;
+            long bits = 8L * len;
+            long bit = -1;
+            while (true) {
+                bit += 1 + (p >= 1 ? 0 : (long) (Math.log(1 - aleatoire.nextDouble()) / Math.log(1 - p)));
+                if (bit >= bits) return copie;
+                copie[(int) (bit / 8)] ^= (byte) (0x80 >>> (bit % 8));
+            }
+        }
+
+        /**
+         * Lit les bytes des trames arrivées, en attendant au plus delai millisecondes
+         * @return le nombre de bytes lus, ou -1 à la fin du flux
+         */
+        int lit(byte[] dst, int off, int len, int delai) throws IOException {
+            verrou.lock();
+            try {
+                long limite = delai > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delai) : Long.MAX_VALUE;
+                while (courant == null) {
+                    if (rompu) throw new SocketException("Connexion réinitialisée");
+                    if (fermeLecteur) return -1;
+                    long maintenant = System.nanoTime();
+                    Paquet prochain = enTransit.peek();
+                    if (prochain != null && prochain.arrivee <= maintenant) {
+                        courant = enTransit.poll().donnees;
+                        position = 0;
+                        break;
+                    }
+                    if (prochain == null && fermeEmetteur) return -1;
+                    if (maintenant >= limite) throw new SocketTimeoutException("Délai de lecture dépassé");
+                    long attente = Math.min(limite, prochain == null ? Long.MAX_VALUE : prochain.arrivee) - maintenant;
+                    try {
+                        arrivee.awaitNanos(attente);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new java.io.InterruptedIOException("Lecture interrompue");
+                    }
+                }
+                int n = Math.min(len, courant.length - position);
+                System.arraycopy(courant, position, dst, off, n);
+                position += n;
+                if (position == courant.length) courant = null;
+                return n;
+            } finally {
+                verrou.unlock();
+            }
+        }
+
+        /** @return le nombre de trames écrites dans le canal */
+        long getTrames() {
+            verrou.lock();
+            try {
+                return trames;
+            } finally {
+                verrou.unlock();
+            }
+        }
+
+        /** Ferme le côté émetteur : le lecteur reçoit la fin du flux après les trames en transit */
+        void fermeEmetteur() {
+            verrou.lock();
+            try {
+                fermeEmetteur = true;
+                arrivee.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }
+
+        /** Réinitialise ce sens : une lecture en cours échoue, les trames en transit sont perdues */
+        void rompt() {
+            verrou.lock();
+            try {
+                rompu = true;
+                enTransit.clear();
+                courant = null;
+                arrivee.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }
+
+        /** Ferme le côté lecteur : une lecture en cours se termine, les trames suivantes sont perdues */
+        void fermeLecteur() {
+            verrou.lock();
+            try {
+                fermeLecteur = true;
+                enTransit.clear();
+                courant = null;
+                arrivee.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }
+    }
+
+    /**
+     * Une extrémité du lien, utilisée par HDLC comme un socket
+     */
+    private static final class Extremite implements Lien {
+        private final Canal entrant;
+        private final Canal sortant;
+        private volatile int delaiLecture = 0;
+
+        private final InputStream entree = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return entrant.lit(b, off, len, delaiLecture);
+            }
+        };
+
+        private final OutputStream sortie = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                sortant.emet(b, off, len);
+            }
+        };
+
+        Extremite(Canal entrant, Canal sortant) {
+            this.entrant = entrant;
+            this.sortant = sortant;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return entree;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return sortie;
+        }
+
+        @Override
+        public void ecritTrames(byte[] tampon, int[] fins, int nbTrames) throws IOException {
+            int debut = 0;
+            for (int i = 0; i < nbTrames; i++) {
+                sortant.emet(tampon, debut, fins[i] - debut);
+                debut = fins[i];
+            }
+        }
+
+        @Override
+        public void setSoTimeout(int delai) {
+            this.delaiLecture = delai;
+        }
+
+        @Override
+        public void close() {
+            sortant.fermeEmetteur();
+            entrant.fermeLecteur();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metriques compte ce qui se passe sur une session : trames envoyées et reçues, réémissions,
+ * REJ, expirations, erreurs de CRC, surcoût du bit stuffing et débit utile, avec des histogrammes
+ * du RTT des acquittements et des temps d'encodage et de décodage d'une trame.
+ * Les compteurs sont des LongAdder : un incrément ne coûte presque rien, même quand plusieurs
+ * threads (envoi, lecteur d'acquittements) comptent en même temps.
+ * Chaque session enregistrée est exposée comme MBean JMX (hdlc:type=Session,role=...,id=...)
+ * et, si la propriété système hdlc.metriques.periode (en ms) est donnée, un instantané de toutes
+ * les sessions ouvertes est écrit périodiquement sur la sortie d'erreur.
+ */
+public class Metriques implements MetriquesMBean {
+
+    /** Sessions enregistrées et pas encore fermées */
+    private static final Set<Metriques> OUVERTES = ConcurrentHashMap.newKeySet();
+
+    static {
+        long periode = Long.getLong("hdlc.metriques.periode", 0);
+        if (periode > 0) {
+            ScheduledExecutorService instantanes = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Metriques-instantanes");
+                thread.setDaemon(true);
+                return thread;
+            });
+            instantanes.scheduleAtFixedRate(() -> {
+                for (Metriques metriques : OUVERTES) System.err.println(metriques.instantane());
+            }, periode, periode, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Rôle de la session (Sender, Receiver, ServeurNIO) */
+    private final String role;
+
+    /** Numéro de la session, le même que dans la trace */
+    private final int session;
+
+    /** Instant d'ouverture de la session (System.nanoTime) */
+    private final long debut = System.nanoTime();
+
+    /** Nom du MBean, ou null si la session n'est pas enregistrée */
+    private ObjectName nom;
+
+    /** Trames écrites sur la connexion, réémissions comprises */
+    final LongAdder tramesEnvoyees = new LongAdder();
+
+    /** Écritures sur la connexion : chacune porte un lot de trames (un appel système sur un socket) */
+    final LongAdder ecritures = new LongAdder();
+
+    /** Trames reçues erronées et corrigées par leur parité Reed-Solomon, sans réémission */
+    final LongAdder corrections = new LongAdder();
+
+    /** Trames complètes reçues */
+    final LongAdder tramesRecues = new LongAdder();
+
+    /** Octets écrits sur la connexion, flags et bit stuffing compris */
+    final LongAdder octetsEnvoyes = new LongAdder();
+
+    /** Octets ajoutés par le bit stuffing aux trames envoyées */
+    final LongAdder octetsBitStuffing = new LongAdder();
+
+    /** Octets de données acquittés (Sender) ou acceptés dans l'ordre (Receiver) */
+    final LongAdder octetsUtiles = new LongAdder();
+
+    /** Trames réémises */
+    final LongAdder reemissions = new LongAdder();
+
+    /** REJ reçus */
+    final LongAdder rejRecus = new LongAdder();
+
+    /** SREJ reçus */
+    final LongAdder srejRecus = new LongAdder();
+
+    /** Expirations du délai de retransmission */
+    final LongAdder expirations = new LongAdder();
+
+    /** Trames reçues avec un CRC incorrect */
+    final LongAdder erreursCRC = new LongAdder();
+
+    /** Trames reçues hors séquence */
+    final LongAdder horsSequence = new LongAdder();
+
+    /** Temps passé à attendre une place dans la fenêtre, en nanosecondes */
+    final LongAdder attenteFenetre = new LongAdder();
+
+    /** RTT des acquittements (trames non réémises), en nanosecondes */
+    final Histogramme rtt = new Histogramme();
+
+    /** Temps d'encodage d'une trame (bit stuffing compris), en nanosecondes */
+    final Histogramme encodage = new Histogramme();
+
+    /** Temps de décodage d'une trame (destuffing compris), en nanosecondes */
+    final Histogramme decodage = new Histogramme();
+
+    /**
+     * Constructeur de Metriques.
+     * @param role le rôle de la session
+     * @param session le numéro de la session
+     */
+    Metriques(String role, int session) {
+        this.role = role;
+        this.session = session;
+    }
+
+    /**
+     * Expose la session comme MBean JMX et l'ajoute aux instantanés périodiques
+     */
+    void enregistre() {
+        OUVERTES.add(this);
+        try {
+            MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nom = new ObjectName("hdlc:type=Session,role=" + role + ",id=" + session);
+            serveur.registerMBean(this, nom);
+            this.nom = nom;
+        } catch (JMException e) {
+            System.err.println("Métriques de la session " + session + " non exposées en JMX : " + e);
+        }
+    }
+
+    /**
+     * Retire la session de JMX et des instantanés, à sa fermeture
+     */
+    void ferme() {
+        OUVERTES.remove(this);
+        if (nom == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(nom);
+        } catch (JMException e) {
+            //Déjà retiré
+        }
+        nom = null;
+    }
+
+    /**
+     * Instantané des métriques de la session, sur une ligne
+     * @return les métriques sous forme de texte
+     */
+    String instantane() {
+        return String.format("%s#%d envoyees=%d ecritures=%d recues=%d utiles=%d debit=%.0f o/s reemissions=%d rej=%d srej=%d "
+                        + "expirations=%d crc=%d corrections=%d hors_sequence=%d stuffing=%d attente_fenetre=%.1f ms "
+                        + "rtt_p50=%.3f ms rtt_p99=%.3f ms encodage_p50=%d ns decodage_p50=%d ns diagnostic=%s",
+                role, session, getTramesEnvoyees(), getEcritures(), getTramesRecues(), getOctetsUtiles(), getDebitUtile(),
+                getReemissions(), getRejRecus(), getSrejRecus(), getExpirations(), getErreursCRC(), getCorrections(), getHorsSequence(),
+                getOctetsBitStuffing(), getAttenteFenetreMs(), getRttP50Ms(), getRttP99Ms(),
+                getEncodageP50Ns(), getDecodageP50Ns(), getDiagnostic());
+    }
+
+    @Override
+    public String getRole() {
+        return role;
+    }
+
+    @Override
+    public int getSession() {
+        return session;
+    }
+
+    @Override
+    public long getTramesEnvoyees() {
+        return tramesEnvoyees.sum();
+    }
+
+    @Override
+    public long getEcritures() {
+        return ecritures.sum();
+    }
+
+    @Override
+    public long getCorrections() {
+        return corrections.sum();
+    }
+
+    @Override
+    public long getTramesRecues() {
+        return tramesRecues.sum();
+    }
+
+    @Override
+    public long getOctetsEnvoyes() {
+        return octetsEnvoyes.sum();
+    }
+
+    @Override
+    public long getOctetsBitStuffing() {
+        return octetsBitStuffing.sum();
+    }
+
+    @Override
+    public long getOctetsUtiles() {
+        return octetsUtiles.sum();
+    }
+
+    @Override
+    public long getReemissions() {
+        return reemissions.sum();
+    }
+
+    @Override
+    public long getRejRecus() {
+        return rejRecus.sum();
+    }
+
+    @Override
+    public long getSrejRecus() {
+        return srejRecus.sum();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public long getErreursCRC() {
+        return erreursCRC.sum();
+    }
+
+    @Override
+    public long getHorsSequence() {
+        return horsSequence.sum();
+    }
+
+    @Override
+    public double getAttenteFenetreMs() {
+        return attenteFenetre.sum() / 1e6;
+    }
+
+    @Override
+    public double getDebitUtile() {
+        long duree = System.nanoTime() - debut;
+        return duree <= 0 ? 0 : octetsUtiles.sum() * 1e9 / duree;
+    }
+
+    @Override
+    public double getRttP50Ms() {
+        return rtt.centile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getRttP99Ms() {
+        return rtt.centile(0.99) / 1e6;
+    }
+
+    @Override
+    public long getEncodageP50Ns() {
+        return encodage.centile(0.50);
+    }
+
+    @Override
+    public long getEncodageP99Ns() {
+        return encodage.centile(0.99);
+    }
+
+    @Override
+    public long getDecodageP50Ns() {
+        return decodage.centile(0.50);
+    }
+
+    @Override
+    public long getDecodageP99Ns() {
+        return decodage.centile(0.99);
+    }
+
+    /**
+     * Ce qui limite le débit de la session, d'après les compteurs :
+     * PERTES si plus de 1 % des trames sont réémises ou reçues erronées,
+     * FENETRE si l'envoi passe plus de la moitié du temps à attendre les acquittements
+     * (la fenêtre est trop petite pour le RTT), CPU si l'encodage et le décodage prennent plus
+     * de la moitié du temps ou si l'envoi n'attend presque jamais la fenêtre, INCONNU sinon.
+     */
+    @Override
+    public String getDiagnostic() {
+        long envoyees = tramesEnvoyees.sum();
+        long recues = tramesRecues.sum();
+        if ((envoyees > 0 && (reemissions.sum() + expirations.sum()) * 100 > envoyees)
+                || (recues > 0 && (erreursCRC.sum() + horsSequence.sum()) * 100 > recues)) {
+            return "PERTES";
+        }
+        long duree = System.nanoTime() - debut;
+        if (duree <= 0) return "INCONNU";
+        double attente = (double) attenteFenetre.sum() / duree;
+        if (attente > 0.5) return "FENETRE";
+        double calcul = (double) (encodage.getSomme() + decodage.getSomme()) / duree;
+        if (calcul > 0.5 || (role.equals("Sender") && octetsUtiles.sum() > 0 && attente < 0.1)) return "CPU";
+        return "INCONNU";
+    }
+
+    @Override
+    public String toString() {
+        return instantane();
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Interface JMX des métriques d'une session HDLC (un MBean standard par session,
+ * nommé hdlc:type=Session,role=...,id=...). Les durées sont en millisecondes ou en nanosecondes
+ * selon le suffixe de l'attribut.
+ */
+public interface MetriquesMBean {
+
+    /** @return le rôle de la session (Sender, Receiver, ServeurNIO) */
+    String getRole();
+
+    /** @return le numéro de la session */
+    int getSession();
+
+    /** @return le nombre de trames écrites sur la connexion, réémissions comprises */
+    long getTramesEnvoyees();
+
+    /** @return le nombre d'écritures sur la connexion, chacune portant un lot de trames */
+    long getEcritures();
+
+    /** @return le nombre de trames complètes reçues */
+    long getTramesRecues();
+
+    /** @return le nombre d'octets écrits sur la connexion, flags et bit stuffing compris */
+    long getOctetsEnvoyes();
+
+    /** @return le nombre d'octets ajoutés par le bit stuffing aux trames envoyées */
+    long getOctetsBitStuffing();
+
+    /** @return le nombre d'octets de données acquittés (Sender) ou acceptés dans l'ordre (Receiver) */
+    long getOctetsUtiles();
+
+    /** @return le nombre de trames réémises */
+    long getReemissions();
+
+    /** @return le nombre de REJ reçus */
+    long getRejRecus();
+
+    /** @return le nombre de SREJ reçus */
+    long getSrejRecus();
+
+    /** @return le nombre d'expirations du délai de retransmission */
+    long getExpirations();
+
+    /** @return le nombre de trames reçues avec un CRC incorrect */
+    long getErreursCRC();
+
+    /** @return le nombre de trames reçues erronées et corrigées par leur parité, sans réémission */
+    long getCorrections();
+
+    /** @return le nombre de trames reçues hors séquence */
+    long getHorsSequence();
+
+    /** @return le temps passé à attendre une place dans la fenêtre, en millisecondes */
+    double getAttenteFenetreMs();
+
+    /** @return le débit utile depuis l'ouverture de la session, en octets par seconde */
+    double getDebitUtile();
+
+    /** @return le RTT médian des acquittements, en millisecondes */
+    double getRttP50Ms();
+
+    /** @return le 99e centile du RTT des acquittements, en millisecondes */
+    double getRttP99Ms();
+
+    /** @return le temps médian d'encodage d'une trame, en nanosecondes */
+    long getEncodageP50Ns();
+
+    /** @return le 99e centile du temps d'encodage d'une trame, en nanosecondes */
+    long getEncodageP99Ns();
+
+    /** @return le temps médian de décodage d'une trame, en nanosecondes */
+    long getDecodageP50Ns();
+
+    /** @return le 99e centile du temps de décodage d'une trame, en nanosecondes */
+    long getDecodageP99Ns();
+
+    /** @return ce qui limite le débit de la session : PERTES, FENETRE, CPU ou INCONNU */
+    String getDiagnostic();
+}
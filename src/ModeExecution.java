@@ -0,0 +1,95 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ModeExecution choisit le type de thread qui exécute les boucles bloquantes d'envoi et de réception :
+ * un thread de plateforme par session, ou un thread virtuel par session.
+ * Les threads virtuels n'existent qu'à partir de Java 21 : ils sont obtenus par réflexion,
+ * et le mode VIRTUEL se replie sur des threads de plateforme sur une JVM plus ancienne.
+ */
+enum ModeExecution {
+    PLATEFORME,
+    VIRTUEL;
+
+    /** Thread.ofVirtual(), ou null si la JVM ne supporte pas les threads virtuels */
+    private static final Method OF_VIRTUAL = methode(Thread.class, "ofVirtual");
+
+    /** Thread.isVirtual(), ou null si la JVM ne supporte pas les threads virtuels */
+    private static final Method IS_VIRTUAL = methode(Thread.class, "isVirtual");
+
+    /** Thread.Builder.OfVirtual.name(String, long), ou null si la JVM ne supporte pas les threads virtuels */
+    private static final Method NOMME = methode("java.lang.Thread$Builder$OfVirtual", "name", String.class, long.class);
+
+    /** Thread.Builder.factory(), ou null si la JVM ne supporte pas les threads virtuels */
+    private static final Method FACTORY = methode("java.lang.Thread$Builder", "factory");
+
+    /**
+     * Indique si la JVM supporte les threads virtuels
+     * @return vrai si les threads virtuels sont disponibles
+     */
+    static boolean virtuelDisponible() {
+        return OF_VIRTUAL != null && NOMME != null && FACTORY != null;
+    }
+
+    /**
+     * Mode du thread courant, pour que les threads auxiliaires d'une session (lecteur d'acquittements)
+     * soient du même type que le thread qui la crée
+     * @return VIRTUEL si le thread courant est virtuel, PLATEFORME sinon
+     */
+    static ModeExecution duThreadCourant() {
+        try {
+            return IS_VIRTUAL != null && (Boolean) IS_VIRTUAL.invoke(Thread.currentThread()) ? VIRTUEL : PLATEFORME;
+        } catch (ReflectiveOperationException e) {
+            return PLATEFORME;
+        }
+    }
+
+    /**
+     * Crée une fabrique de threads pour ce mode
+     * @param nom le préfixe du nom des threads créés
+     * @return la fabrique de threads
+     */
+    ThreadFactory fabrique(String nom) {
+        if (this == VIRTUEL && virtuelDisponible()) {
+            try {
+                Object constructeur = NOMME.invoke(OF_VIRTUAL.invoke(null), nom + "-", 0L);
+                return (ThreadFactory) FACTORY.invoke(constructeur);
+            } catch (ReflectiveOperationException e) {
+                //On se replie sur les threads de plateforme
+            }
+        }
+        AtomicInteger compteur = new AtomicInteger();
+        return r -> new Thread(r, nom + "-" + compteur.getAndIncrement());
+    }
+
+    /**
+     * Cherche une méthode publique par réflexion
+     * @param classe la classe qui déclare la méthode
+     * @param nom le nom de la méthode
+     * @param parametres les types des paramètres
+     * @return la méthode, ou null si elle n'existe pas
+     */
+    private static Method methode(Class<?> classe, String nom, Class<?>... parametres) {
+        try {
+            return classe.getMethod(nom, parametres);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cherche une méthode publique d'une classe qui peut ne pas exister dans cette JVM
+     * @param classe le nom complet de la classe qui déclare la méthode
+     * @param nom le nom de la méthode
+     * @param parametres les types des paramètres
+     * @return la méthode, ou null si la classe ou la méthode n'existe pas
+     */
+    private static Method methode(String classe, String nom, Class<?>... parametres) {
+        try {
+            return methode(Class.forName(classe), nom, parametres);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
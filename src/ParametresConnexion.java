@@ -0,0 +1,538 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * ParametresConnexion regroupe les paramètres négociés à l'ouverture de la connexion.
+ * Sender les propose dans le champ Données d'une trame C, Receiver répond par une trame C
+ * contenant les paramètres retenus.
+ * Chaque paramètre est codé sous la forme Code (1 byte), Longueur (1 byte), Valeur :
+ * un code inconnu est ignoré, ce qui permet d'ajouter des paramètres sans casser les anciens pairs.
+ * Le point de reprise n'est pas une capacité mais un état : Sender propose de reprendre un transfert
+ * interrompu en identifiant le fichier envoyé (taille et date de modification), Receiver répond avec
+ * le nombre d'octets de ce fichier qu'il a déjà conservés.
+ */
+class ParametresConnexion {
+
+    /** Numérotation normale sur 3 bits */
+    static final int MODULO_NORMAL = 8;
+
+    /** Numérotation étendue sur 7 bits */
+    static final int MODULO_ETENDU = 128;
+
+    /** Code du paramètre modulo de la numérotation */
+    private static final byte CODE_MODULO = 1;
+
+    /** Code du paramètre rejet sélectif */
+    private static final byte CODE_REJET_SELECTIF = 2;
+
+    /** Code du paramètre acquittement porté par les trames I */
+    private static final byte CODE_ACQUITTEMENT_PORTE = 3;
+
+    /** Code du paramètre taille maximale des données d'une trame I */
+    private static final byte CODE_TAILLE_TRAME = 4;
+
+    /** Code du paramètre taille de la fenêtre d'émission */
+    private static final byte CODE_FENETRE = 5;
+
+    /** Code du paramètre compression des données des trames I */
+    private static final byte CODE_COMPRESSION = 6;
+
+    /** Code du paramètre correction d'erreurs des trames I : nombre de bytes de parité par bloc */
+    private static final byte CODE_FEC = 7;
+
+    /** Code du paramètre séquence de contrôle des trames I : nombre de bytes du FCS */
+    private static final byte CODE_FCS = 8;
+
+    /** Code du paramètre reprise du transfert : nombre d'octets du fichier déjà reçus */
+    private static final byte CODE_REPRISE = 9;
+
+    /** Code du paramètre identité du fichier envoyé, pour la reprise : taille et date de modification (2 x 8 bytes) */
+    private static final byte CODE_SOURCE = 10;
+
+    /**
+     * Taille des données d'une trame I quand elle n'est pas négociée :
+     * trames de 256 octets - 6 octets fixes (2 flags + type + num + CRC) = 250 octets
+     */
+    static final int TAILLE_TRAME_DEFAUT = 250;
+
+    /** Taille maximale des données d'une trame I (un byte reste pour N(R) dans le champ Données) */
+    static final int TAILLE_TRAME_MAX = HDLC.TAILLE_DONNEES_MAX - 1;
+
+    /** Nombre de numéros de trame différents (8 ou 128) */
+    private final int modulo;
+
+    /** Vrai si les trames erronées sont redemandées une à une (SREJ) plutôt qu'en Go-Back-N */
+    private final boolean rejetSelectif;
+
+    /**
+     * Vrai si le premier byte des données de chaque trame I porte l'acquittement N(R) du sens inverse
+     * (connexion full-duplex)
+     */
+    private final boolean acquittementPorte;
+
+    /** Nombre maximal d'octets de données (hors N(R)) dans une trame I */
+    private final int tailleTrame;
+
+    /** Nombre maximal de trames envoyées et pas encore acquittées */
+    private final int fenetre;
+
+    /** Vrai si les données des trames I sont compressées (Deflate, voir Compresseur) */
+    private final boolean compression;
+
+    /**
+     * Nombre de bytes de parité Reed-Solomon par bloc de 255 bytes des trames I (voir ReedSolomon),
+     * 0 sans correction d'erreurs
+     */
+    private final int fec;
+
+    /** Nombre de bytes du FCS des trames I : Fcs.CRC16 ou Fcs.CRC32C (voir Fcs) */
+    private final int tailleFcs;
+
+    /**
+     * Nombre d'octets du fichier déjà reçus, à partir duquel le transfert reprend (0 dans une proposition),
+     * ou -1 si le transfert ne peut pas être repris
+     */
+    private final long reprise;
+
+    /** Taille en octets du fichier envoyé, ou -1 si elle n'est pas annoncée */
+    private final long tailleSource;
+
+    /** Date de modification du fichier envoyé, en millisecondes depuis l'époque, si tailleSource est annoncée */
+    private final long dateSource;
+
+    /**
+     * Constructeur de ParametresConnexion, en Go-Back-N.
+     * @param modulo le nombre de numéros de trame différents (MODULO_NORMAL ou MODULO_ETENDU)
+     */
+    ParametresConnexion(int modulo) {
+        this(modulo, false);
+    }
+
+    /**
+     * Constructeur de ParametresConnexion.
+     * @param modulo le nombre de numéros de trame différents (MODULO_NORMAL ou MODULO_ETENDU)
+     * @param rejetSelectif vrai pour le rejet sélectif (SREJ), faux pour Go-Back-N
+     */
+    ParametresConnexion(int modulo, boolean rejetSelectif) {
+        this(modulo, rejetSelectif, false);
+    }
+
+    /**
+     * Constructeur de ParametresConnexion.
+     * @param modulo le nombre de numéros de trame différents (MODULO_NORMAL ou MODULO_ETENDU)
+     * @param rejetSelectif vrai pour le rejet sélectif (SREJ), faux pour Go-Back-N
+     * @param acquittementPorte vrai si les trames I portent l'acquittement N(R) du sens inverse
+     */
+    ParametresConnexion(int modulo, boolean rejetSelectif, boolean acquittementPorte) {
+        this(modulo, rejetSelectif, acquittementPorte, TAILLE_TRAME_DEFAUT, fenetreMax(modulo, rejetSelectif), false, 0,
+                Fcs.CRC16, -1, -1, 0);
+    }
+
+    /**
+     * Constructeur de ParametresConnexion.
+     * @param modulo le nombre de numéros de trame différents (MODULO_NORMAL ou MODULO_ETENDU)
+     * @param rejetSelectif vrai pour le rejet sélectif (SREJ), faux pour Go-Back-N
+     * @param acquittementPorte vrai si les trames I portent l'acquittement N(R) du sens inverse
+     * @param tailleTrame le nombre maximal d'octets de données d'une trame I, de 1 à TAILLE_TRAME_MAX
+     * @param fenetre le nombre maximal de trames non acquittées, de 1 à la fenêtre maximale du modulo
+     * @param compression vrai si les données des trames I sont compressées
+     * @param fec le nombre de bytes de parité par bloc, de 0 (sans correction) à ReedSolomon.PARITE_MAX
+     * @param tailleFcs le nombre de bytes du FCS des trames I : Fcs.CRC16 ou Fcs.CRC32C
+     * @param reprise le nombre d'octets du fichier déjà reçus, ou -1 sans reprise du transfert
+     * @param tailleSource la taille du fichier envoyé, ou -1 si elle n'est pas annoncée
+     * @param dateSource la date de modification du fichier envoyé, en millisecondes
+     */
+    private ParametresConnexion(int modulo, boolean rejetSelectif, boolean acquittementPorte, int tailleTrame,
+                                int fenetre, boolean compression, int fec, int tailleFcs, long reprise,
+                                long tailleSource, long dateSource) {
+        if (modulo != MODULO_NORMAL && modulo != MODULO_ETENDU) {
+            throw new IllegalArgumentException("Modulo non supporté : " + modulo);
+        }
+        if (tailleTrame < 1 || tailleTrame > TAILLE_TRAME_MAX) {
+            throw new IllegalArgumentException("Taille de trame non supportée : " + tailleTrame);
+        }
+        if (fenetre < 1 || fenetre > fenetreMax(modulo, rejetSelectif)) {
+            throw new IllegalArgumentException("Fenêtre non supportée pour le modulo " + modulo + " : " + fenetre);
+        }
+        if (fec < 0 || fec > ReedSolomon.PARITE_MAX || (fec > 0 && tailleTrame <= fec + 1)) {
+            throw new IllegalArgumentException("Parité non supportée pour des trames de " + tailleTrame + " octets : " + fec);
+        }
+        if (tailleFcs != Fcs.CRC16 && tailleFcs != Fcs.CRC32C) {
+            throw new IllegalArgumentException("FCS non supporté : " + tailleFcs + " bytes");
+        }
+        this.modulo = modulo;
+        this.rejetSelectif = rejetSelectif;
+        this.acquittementPorte = acquittementPorte;
+        this.tailleTrame = tailleTrame;
+        this.fenetre = fenetre;
+        this.compression = compression;
+        this.fec = fec;
+        this.tailleFcs = tailleFcs;
+        this.reprise = Math.max(-1, reprise);
+        this.tailleSource = Math.max(-1, tailleSource);
+        this.dateSource = dateSource;
+    }
+
+    /**
+     * Ces paramètres avec une autre taille de trame
+     * @param tailleTrame le nombre maximal d'octets de données d'une trame I, de 1 à TAILLE_TRAME_MAX
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecTailleTrame(int tailleTrame) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Ces paramètres avec une autre taille de fenêtre
+     * @param fenetre le nombre maximal de trames non acquittées, de 1 à la fenêtre maximale du modulo
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecFenetre(int fenetre) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Ces paramètres avec ou sans compression des données
+     * @param compression vrai pour compresser les données des trames I
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecCompression(boolean compression) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Ces paramètres avec ou sans correction d'erreurs des trames I
+     * @param fec le nombre de bytes de parité Reed-Solomon par bloc de 255 bytes (chaque bloc corrige
+     *            fec / 2 bytes erronés), 0 sans correction
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecFec(int fec) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Ces paramètres avec une autre séquence de contrôle des trames I
+     * @param tailleFcs Fcs.CRC16 pour le CRC-16/CCITT, Fcs.CRC32C pour le CRC-32C, plus sûr pour les grandes trames
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecFcs(int tailleFcs) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Ces paramètres avec reprise du transfert d'un fichier : il reprendra là où Receiver l'a conservé
+     * lors d'une connexion précédente, si Receiver a reçu le début de ce même fichier (même taille
+     * et même date de modification). Sinon le transfert repart du début.
+     * @param source le fichier qui sera envoyé
+     * @return les nouveaux paramètres
+     * @throws IOException si la taille ou la date du fichier ne peuvent pas être lues
+     */
+    ParametresConnexion avecReprise(Path source) throws IOException {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, 0, Files.size(source), Files.getLastModifiedTime(source).toMillis());
+    }
+
+    /**
+     * Ces paramètres avec un autre point de reprise, donné par Receiver dans sa réponse
+     * @param reprise le nombre d'octets du fichier déjà reçus, ou -1 sans reprise du transfert
+     * @return les nouveaux paramètres
+     */
+    ParametresConnexion avecPointReprise(long reprise) {
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, tailleTrame, fenetre, compression, fec,
+                tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Paramètres utilisés quand la connexion n'est pas négociée (pair qui n'envoie pas de trame C)
+     * @return les paramètres par défaut : numérotation sur 3 bits
+     */
+    static ParametresConnexion defaut() {
+        return new ParametresConnexion(MODULO_NORMAL);
+    }
+
+    /**
+     * Paramètres maximaux supportés en réception : numérotation étendue, rejet sélectif,
+     * acquittements portés, trames jusqu'à TAILLE_TRAME_MAX octets, compression, correction d'erreurs, CRC-32C
+     * et reprise du transfert
+     * @return les paramètres maximaux
+     */
+    static ParametresConnexion maximaux() {
+        return new ParametresConnexion(MODULO_ETENDU, true, true).avecTailleTrame(TAILLE_TRAME_MAX).avecCompression(true)
+                .avecFec(ReedSolomon.PARITE_MAX).avecFcs(Fcs.CRC32C).avecPointReprise(0);
+    }
+
+    /**
+     * Taille maximale de la fenêtre d'émission pour un modulo.
+     * Go-Back-N : modulo - 1. Rejet sélectif : modulo / 2, pour qu'une trame réémise
+     * ne puisse pas être confondue avec une nouvelle trame de même numéro.
+     * @param modulo le nombre de numéros de trame différents
+     * @param rejetSelectif vrai pour le rejet sélectif
+     * @return le nombre maximal de trames non acquittées
+     */
+    static int fenetreMax(int modulo, boolean rejetSelectif) {
+        return rejetSelectif ? modulo / 2 : modulo - 1;
+    }
+
+    /**
+     * Retient, pour chaque paramètre, la valeur compatible avec les deux extrémités.
+     * La reprise retenue part de 0 : c'est à Receiver d'y placer son point de reprise (avecPointReprise).
+     * @param supportes les paramètres maximaux supportés par cette extrémité
+     * @return les paramètres retenus pour la connexion
+     */
+    ParametresConnexion accepte(ParametresConnexion supportes) {
+        int moduloRetenu = Math.min(modulo, supportes.modulo);
+        boolean rejetSelectifRetenu = rejetSelectif && supportes.rejetSelectif;
+        int tailleTrameRetenue = Math.min(tailleTrame, supportes.tailleTrame);
+        //La parité doit laisser au moins un byte de données, et deux avec la compression (un byte indique leur format)
+        int fecRetenu = tailleTrameRetenue > fec + 1 ? Math.min(fec, supportes.fec) : 0;
+        boolean repriseRetenue = reprise >= 0 && supportes.reprise >= 0;
+        return new ParametresConnexion(moduloRetenu, rejetSelectifRetenu, acquittementPorte && supportes.acquittementPorte,
+                tailleTrameRetenue,
+                Math.min(Math.min(fenetre, supportes.fenetre), fenetreMax(moduloRetenu, rejetSelectifRetenu)),
+                compression && supportes.compression && tailleTrameRetenue - fecRetenu > 1, fecRetenu,
+                Math.min(tailleFcs, supportes.tailleFcs), repriseRetenue ? 0 : -1, repriseRetenue ? tailleSource : -1,
+                dateSource);
+    }
+
+    /**
+     * Encode les paramètres pour le champ Données d'une trame C
+     * @return les paramètres sous forme de tableau de bytes
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ecrit(out, CODE_MODULO, modulo == MODULO_ETENDU ? 7 : 3, 1); //nombre de bits de la numérotation
+        ecrit(out, CODE_REJET_SELECTIF, rejetSelectif ? 1 : 0, 1);
+        if (acquittementPorte) ecrit(out, CODE_ACQUITTEMENT_PORTE, 1, 1); //Absent pour les anciens pairs
+        ecrit(out, CODE_TAILLE_TRAME, tailleTrame, 4);
+        ecrit(out, CODE_FENETRE, fenetre, 1);
+        if (compression) ecrit(out, CODE_COMPRESSION, 1, 1);
+        if (fec > 0) ecrit(out, CODE_FEC, fec, 1);
+        if (tailleFcs != Fcs.CRC16) ecrit(out, CODE_FCS, tailleFcs, 1);
+        if (reprise >= 0) ecrit(out, CODE_REPRISE, reprise, 8);
+        if (tailleSource >= 0) {
+            out.write(CODE_SOURCE);
+            out.write(16);
+            ecritValeur(out, tailleSource, 8);
+            ecritValeur(out, dateSource, 8);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Décode les paramètres du champ Données d'une trame C.
+     * Les paramètres absents gardent leur valeur par défaut (la fenêtre : la plus grande du modulo).
+     * @param donne le champ Données de la trame C
+     * @return les paramètres décodés, ou null si le format est invalide
+     */
+    static ParametresConnexion fromBytes(byte[] donne) {
+        int modulo = MODULO_NORMAL;
+        boolean rejetSelectif = false;
+        boolean acquittementPorte = false;
+        long tailleTrame = TAILLE_TRAME_DEFAUT;
+        long fenetre = -1;
+        boolean compression = false;
+        long fec = 0;
+        long tailleFcs = Fcs.CRC16;
+        long reprise = -1;
+        long tailleSource = -1;
+        long dateSource = 0;
+        int i = 0;
+        while (i + 2 <= donne.length) {
+            byte code = donne[i];
+            int longueur = donne[i + 1] & 0xFF;
+            if (i + 2 + longueur > donne.length) return null;
+            long valeur = lit(donne, i + 2, Math.min(longueur, 8));
+            if (code == CODE_MODULO) {
+                if (valeur == 3) modulo = MODULO_NORMAL;
+                else if (valeur == 7) modulo = MODULO_ETENDU;
+                else return null;
+            } else if (code == CODE_REJET_SELECTIF) {
+                rejetSelectif = valeur != 0;
+            } else if (code == CODE_ACQUITTEMENT_PORTE) {
+                acquittementPorte = valeur != 0;
+            } else if (code == CODE_TAILLE_TRAME) {
+                tailleTrame = valeur;
+            } else if (code == CODE_FENETRE) {
+                fenetre = valeur;
+            } else if (code == CODE_COMPRESSION) {
+                compression = valeur != 0;
+            } else if (code == CODE_FEC) {
+                fec = valeur;
+            } else if (code == CODE_FCS) {
+                tailleFcs = valeur;
+            } else if (code == CODE_REPRISE) {
+                if (longueur > 8) return null;
+                reprise = valeur;
+            } else if (code == CODE_SOURCE) {
+                if (longueur != 16) return null;
+                tailleSource = lit(donne, i + 2, 8);
+                dateSource = lit(donne, i + 10, 8);
+            }
+            i += 2 + longueur;
+        }
+        if (i != donne.length) return null;
+        int max = fenetreMax(modulo, rejetSelectif);
+        if (fenetre == -1) fenetre = max;
+        if (tailleTrame < 1 || tailleTrame > TAILLE_TRAME_MAX || fenetre < 1 || fenetre > max) return null;
+        if (fec < 0 || fec > ReedSolomon.PARITE_MAX || (fec > 0 && tailleTrame <= fec + 1)) return null;
+        if (tailleFcs != Fcs.CRC16 && tailleFcs != Fcs.CRC32C) return null;
+        if (reprise < -1 || tailleSource < -1) return null;
+        return new ParametresConnexion(modulo, rejetSelectif, acquittementPorte, (int) tailleTrame, (int) fenetre,
+                compression, (int) fec, (int) tailleFcs, reprise, tailleSource, dateSource);
+    }
+
+    /**
+     * Écrit un paramètre (code, longueur, valeur en big-endian)
+     * @param out le flux de sortie
+     * @param code le code du paramètre
+     * @param valeur la valeur du paramètre
+     * @param longueur le nombre de bytes de la valeur
+     */
+    private static void ecrit(ByteArrayOutputStream out, byte code, long valeur, int longueur) {
+        out.write(code);
+        out.write(longueur);
+        ecritValeur(out, valeur, longueur);
+    }
+
+    /**
+     * Écrit une valeur en big-endian
+     * @param out le flux de sortie
+     * @param valeur la valeur
+     * @param longueur le nombre de bytes de la valeur
+     */
+    private static void ecritValeur(ByteArrayOutputStream out, long valeur, int longueur) {
+        for (int i = longueur - 1; i >= 0; i--) {
+            out.write((int) (valeur >>> (8 * i)));
+        }
+    }
+
+    /**
+     * Lit une valeur en big-endian
+     * @param donne le tableau contenant la valeur
+     * @param off l'indice du premier byte
+     * @param longueur le nombre de bytes
+     * @return la valeur lue
+     */
+    private static long lit(byte[] donne, int off, int longueur) {
+        long valeur = 0;
+        for (int i = 0; i < longueur; i++) {
+            valeur = (valeur << 8) | (donne[off + i] & 0xFF);
+        }
+        return valeur;
+    }
+
+    /**
+     * Accesseur de modulo
+     * @return le nombre de numéros de trame différents
+     */
+    int getModulo() {
+        return modulo;
+    }
+
+    /**
+     * Accesseur de rejetSelectif
+     * @return vrai si les trames erronées sont redemandées une à une (SREJ)
+     */
+    boolean isRejetSelectif() {
+        return rejetSelectif;
+    }
+
+    /**
+     * Accesseur de acquittementPorte
+     * @return vrai si le premier byte des données de chaque trame I porte l'acquittement N(R) du sens inverse
+     */
+    boolean isAcquittementPorte() {
+        return acquittementPorte;
+    }
+
+    /**
+     * Accesseur de tailleTrame
+     * @return le nombre maximal d'octets de données (hors N(R)) dans une trame I
+     */
+    int getTailleTrame() {
+        return tailleTrame;
+    }
+
+    /**
+     * Taille de la fenêtre d'émission, au plus fenetreMax(modulo, rejetSelectif)
+     * @return le nombre maximal de trames non acquittées
+     */
+    int getTailleFenetre() {
+        return fenetre;
+    }
+
+    /**
+     * Accesseur de compression
+     * @return vrai si les données des trames I sont compressées
+     */
+    boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Accesseur de fec
+     * @return le nombre de bytes de parité Reed-Solomon par bloc des trames I, 0 sans correction d'erreurs
+     */
+    int getFec() {
+        return fec;
+    }
+
+    /**
+     * Accesseur de tailleFcs
+     * @return le nombre de bytes du FCS des trames I : Fcs.CRC16 ou Fcs.CRC32C
+     */
+    int getTailleFcs() {
+        return tailleFcs;
+    }
+
+    /**
+     * Indique si le transfert peut être repris
+     * @return vrai si la reprise du transfert est proposée ou retenue
+     */
+    boolean isReprise() {
+        return reprise >= 0;
+    }
+
+    /**
+     * Accesseur de reprise
+     * @return le nombre d'octets du fichier déjà reçus, à partir duquel le transfert reprend,
+     *         ou -1 si le transfert ne peut pas être repris
+     */
+    long getReprise() {
+        return reprise;
+    }
+
+    /**
+     * Accesseur de tailleSource
+     * @return la taille en octets du fichier envoyé, ou -1 si elle n'est pas annoncée
+     */
+    long getTailleSource() {
+        return tailleSource;
+    }
+
+    /**
+     * Accesseur de dateSource
+     * @return la date de modification du fichier envoyé, en millisecondes depuis l'époque
+     */
+    long getDateSource() {
+        return dateSource;
+    }
+
+    @Override
+    public String toString() {
+        return "modulo " + modulo + ", fenêtre " + fenetre + ", trames de " + tailleTrame + " octets"
+                + (rejetSelectif ? ", SREJ" : ", Go-Back-N")
+                + (acquittementPorte ? ", acquittements portés" : "")
+                + (compression ? ", compression" : "")
+                + (fec > 0 ? ", FEC RS(255," + (ReedSolomon.TAILLE_BLOC - fec) + ")" : "")
+                + (tailleFcs == Fcs.CRC32C ? ", CRC-32C" : "")
+                + (reprise > 0 ? ", reprise à l'octet " + reprise : "");
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PoolEmetteurs envoie plusieurs fichiers en même temps, chacun avec son propre Sender
+ * (sa propre connexion) exécuté dans son propre thread, de plateforme ou virtuel.
+ */
+public class PoolEmetteurs implements AutoCloseable {
+
+    /** Exécute un Sender par tâche */
+    private final ExecutorService executeur;
+
+    /** Machine de destination */
+    private final String machineName;
+
+    /** Port de destination */
+    private final int port;
+
+    /** Paramètres proposés à chaque connexion */
+    private final ParametresConnexion propose;
+
+    /**
+     * Constructeur de PoolEmetteurs.
+     * @param machineName la machine de destination
+     * @param port le port de destination
+     * @param propose les paramètres proposés à chaque connexion
+     * @param mode le type de thread qui exécute chaque Sender
+     */
+    public PoolEmetteurs(String machineName, int port, ParametresConnexion propose, ModeExecution mode) {
+        this.machineName = machineName;
+        this.port = port;
+        this.propose = propose;
+        this.executeur = Executors.newCachedThreadPool(mode.fabrique("Sender"));
+    }
+
+    /**
+     * Lance l'envoi d'un fichier sur une nouvelle connexion
+     * @param fileName le fichier à envoyer
+     * @return le résultat de l'envoi, terminé quand le fichier est entièrement acquitté
+     */
+    public Future<Void> envoie(String fileName) {
+        return executeur.submit(() -> {
+            new Sender(machineName, port, propose).createFrame(fileName);
+            return null;
+        });
+    }
+
+    /**
+     * Envoie plusieurs fichiers en parallèle et attend la fin de tous les envois
+     * @param fileNames les fichiers à envoyer
+     * @throws IOException si un envoi a échoué
+     */
+    public void envoieTous(List<String> fileNames) throws IOException {
+        List<Future<Void>> envois = new ArrayList<>();
+        for (String fileName : fileNames) {
+            envois.add(envoie(fileName));
+        }
+        for (Future<Void> envoi : envois) {
+            try {
+                envoi.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Échec d'un envoi", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Envoi interrompu", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executeur.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.IOException;
+
+/**
+ * PuitsDonnees reçoit, dans l'ordre, les données des trames I acceptées par une session de réception.
+ * Un puits qui conserve les données reçues peut aussi conserver un point de reprise : un transfert
+ * interrompu reprend alors là où il s'est arrêté (voir reprend).
+ */
+interface PuitsDonnees {
+
+    /** Puits qui ignore les données reçues */
+    PuitsDonnees IGNORE = (donne, off, len) -> { };
+
+    /**
+     * Reçoit les données d'une trame acceptée. Le tableau appartient à l'appelant (tampon de réception) :
+     * le puits doit copier ce qu'il veut conserver avant de retourner.
+     * @param donne le tableau contenant les données de la trame
+     * @param off l'indice du premier byte des données
+     * @param len le nombre de bytes de données
+     */
+    void ecrit(byte[] donne, int off, int len) throws IOException;
+
+    /**
+     * Reçoit les données d'une trame acceptée
+     * @param donne les données de la trame
+     */
+    default void ecrit(byte[] donne) throws IOException {
+        ecrit(donne, 0, donne.length);
+    }
+
+    /**
+     * Fixe le début de la réception, à la négociation de la connexion (avant les premières données).
+     * Par défaut, le puits ne conserve rien d'une connexion à l'autre : la réception part du début.
+     * @param parametres les paramètres retenus : la reprise, et l'identité du fichier envoyé, si l'émetteur
+     *                   peut reprendre au point de reprise du puits
+     * @return le nombre d'octets déjà reçus, que l'émetteur n'enverra pas
+     */
+    default long reprend(ParametresConnexion parametres) throws IOException {
+        return 0;
+    }
+
+    /**
+     * Termine la réception : appelée une seule fois, à la fin de la session
+     */
+    default void ferme() throws IOException {
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * PuitsFichier reconstitue le fichier transféré à partir des données des trames acceptées.
+ * Les données sont regroupées par lots de plusieurs trames, écrits en une seule écriture
+ * groupée (gathering write) sur un FileChannel plutôt qu'une petite écriture par trame.
+ * Les données sont copiées dans des tampons réutilisés d'un lot à l'autre (un par trame du lot),
+ * puisque le tableau reçu appartient au tampon de réception.
+ * Chaque lot peut être forcé sur le disque (fsync). Un CRC-32 de tout le fichier est calculé
+ * au fil de la réception pour vérifier l'intégrité du transfert de bout en bout.
+ * Si le transfert peut être repris, le fichier n'est pas vidé à l'ouverture : le nombre d'octets écrits
+ * est enregistré dans un fichier voisin (suffixe SUFFIXE_REPRISE) après chaque lot, et à la fermeture,
+ * avec la taille et la date de modification du fichier envoyé. Une reprise n'est accordée que pour ce même
+ * fichier : le début d'un autre fichier ne peut pas être complété par la fin du nouveau.
+ * Après une coupure, la connexion suivante reprend à ce point de reprise. Avec la reprise, un lot ne dépasse pas
+ * la fenêtre négociée : si le récepteur s'arrête brutalement, le point de reprise est en retard d'au plus
+ * une fenêtre sur les données acquittées, seules ces données sont à renvoyer.
+ */
+class PuitsFichier implements PuitsDonnees {
+
+    /** Nombre de trames par lot par défaut */
+    static final int TRAMES_PAR_LOT = 64;
+
+    /** Suffixe du fichier qui contient le point de reprise, à côté du fichier de sortie */
+    static final String SUFFIXE_REPRISE = ".reprise";
+
+    /** Canal du fichier de sortie */
+    private final FileChannel canal;
+
+    /** Canal du fichier du point de reprise, ou null si le transfert ne peut pas être repris */
+    private final FileChannel canalReprise;
+
+    /** Taille de l'enregistrement du point de reprise : octets reçus, taille et date du fichier envoyé */
+    private static final int TAILLE_POINT = 3 * Long.BYTES;
+
+    /** Tampon du point de reprise, en big-endian */
+    private final ByteBuffer point = ByteBuffer.allocate(TAILLE_POINT);
+
+    /** Taille du fichier envoyé, enregistrée avec le point de reprise, ou -1 si elle est inconnue */
+    private long tailleSource = -1;
+
+    /** Date de modification du fichier envoyé, enregistrée avec le point de reprise */
+    private long dateSource = 0;
+
+    /** Dernier point de reprise enregistré, ou -1 tant que le début de la réception n'est pas fixé */
+    private long repriseEnregistree = -1;
+
+    /** Taille initiale du tampon de chaque trame du lot */
+    private static final int TAILLE_TAMPON = 256;
+
+    /** Tampons des trames du lot, réutilisés d'un lot à l'autre */
+    private final ByteBuffer[] lot;
+
+    /** Nombre de trames dans le lot en cours */
+    private int nbLot = 0;
+
+    /** Nombre de trames d'un lot : tramesParLot, ou la fenêtre négociée si elle est plus petite (reprise) */
+    private int tramesParLot;
+
+    /** Vrai si chaque lot est forcé sur le disque */
+    private final boolean fsync;
+
+    /** CRC-32 des données reçues depuis le début du fichier */
+    private final CRC32 checksum = new CRC32();
+
+    /** Nombre d'octets reçus */
+    private long taille = 0;
+
+    /**
+     * Constructeur de PuitsFichier. Le fichier est créé, ou vidé s'il existe.
+     * @param fichier le fichier de sortie
+     * @param tramesParLot le nombre de trames écrites en une seule écriture
+     * @param fsync vrai pour forcer chaque lot sur le disque
+     * @throws IOException
+     */
+    PuitsFichier(Path fichier, int tramesParLot, boolean fsync) throws IOException {
+        this(fichier, tramesParLot, fsync, false);
+    }
+
+    /**
+     * Constructeur de PuitsFichier.
+     * Sans reprise, le fichier est créé, ou vidé s'il existe. Avec reprise, le fichier et son point de reprise
+     * sont conservés jusqu'à la négociation de la connexion (voir reprend).
+     * @param fichier le fichier de sortie
+     * @param tramesParLot le nombre de trames écrites en une seule écriture
+     * @param fsync vrai pour forcer chaque lot, et chaque point de reprise, sur le disque
+     * @param reprise vrai pour conserver un point de reprise du transfert
+     * @throws IOException
+     */
+    PuitsFichier(Path fichier, int tramesParLot, boolean fsync, boolean reprise) throws IOException {
+        if (reprise) {
+            this.canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.canalReprise = FileChannel.open(fichierReprise(fichier), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            this.canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.canalReprise = null;
+        }
+        this.lot = new ByteBuffer[tramesParLot];
+        this.tramesParLot = tramesParLot;
+        for (int i = 0; i < tramesParLot; i++) {
+            lot[i] = ByteBuffer.allocate(TAILLE_TAMPON);
+        }
+        this.fsync = fsync;
+    }
+
+    /**
+     * Constructeur de PuitsFichier avec TRAMES_PAR_LOT trames par lot et sans fsync.
+     * @param fichier le fichier de sortie
+     * @throws IOException
+     */
+    PuitsFichier(Path fichier) throws IOException {
+        this(fichier, TRAMES_PAR_LOT, false);
+    }
+
+    /**
+     * Fichier du point de reprise d'un fichier de sortie
+     * @param fichier le fichier de sortie
+     * @return le fichier voisin qui contient son point de reprise
+     */
+    static Path fichierReprise(Path fichier) {
+        return fichier.resolveSibling(fichier.getFileName() + SUFFIXE_REPRISE);
+    }
+
+    /**
+     * Reprend au point de reprise enregistré si le fichier envoyé est celui du point de reprise (même taille
+     * et même date de modification), sinon au début du fichier. Les données écrites après le point de reprise
+     * ne sont pas couvertes par lui : elles sont retirées du fichier, l'émetteur les enverra de nouveau.
+     * Le CRC-32 des données déjà reçues est recalculé.
+     * Un lot ne dépasse plus la fenêtre négociée : le point de reprise, enregistré après chaque lot,
+     * couvre alors toutes les données acquittées, sauf au plus une fenêtre.
+     */
+    @Override
+    public long reprend(ParametresConnexion parametres) throws IOException {
+        if (canalReprise == null) return 0;
+        boolean reprise = parametres.isReprise() && parametres.getTailleSource() >= 0;
+        long debut = 0;
+        if (reprise && canalReprise.size() >= TAILLE_POINT) {
+            point.clear();
+            while (point.hasRemaining() && canalReprise.read(point, point.position()) >= 0) {
+            }
+            if (point.getLong(Long.BYTES) == parametres.getTailleSource()
+                    && point.getLong(2 * Long.BYTES) == parametres.getDateSource()) {
+                debut = Math.max(0, Math.min(point.getLong(0), Math.min(canal.size(), parametres.getTailleSource())));
+            }
+        }
+        tramesParLot = Math.max(1, Math.min(lot.length, parametres.getTailleFenetre()));
+        tailleSource = reprise ? parametres.getTailleSource() : -1;
+        dateSource = reprise ? parametres.getDateSource() : 0;
+        canal.truncate(debut);
+        canal.position(debut);
+        checksum.reset();
+        ajoute(checksum, canal, debut);
+        taille = debut;
+        repriseEnregistree = -1; //L'identité du fichier envoyé a pu changer : on réécrit le point de reprise
+        enregistre();
+        return debut;
+    }
+
+    @Override
+    public void ecrit(byte[] donne, int off, int len) throws IOException {
+        if (len == 0) return;
+        //Pair qui ne négocie pas la connexion : la réception part du début
+        if (canalReprise != null && repriseEnregistree < 0) reprend(ParametresConnexion.defaut());
+        checksum.update(donne, off, len);
+        taille += len;
+        if (lot[nbLot].capacity() < len) lot[nbLot] = ByteBuffer.allocate(len); //Trames plus grandes que prévu
+        lot[nbLot].put(donne, off, len).flip();
+        nbLot++;
+        if (nbLot == tramesParLot) vide();
+    }
+
+    /**
+     * Écrit le lot en cours sur le disque en une écriture groupée, puis le point de reprise qui le couvre
+     * @throws IOException
+     */
+    void vide() throws IOException {
+        if (nbLot == 0) return;
+        //Une écriture groupée peut être partielle : on recommence tant qu'il reste des données
+        int premier = 0;
+        while (premier < nbLot) {
+            canal.write(lot, premier, nbLot - premier);
+            while (premier < nbLot && !lot[premier].hasRemaining()) {
+                lot[premier++].clear();
+            }
+        }
+        nbLot = 0;
+        if (fsync) canal.force(false);
+        if (canalReprise != null && repriseEnregistree >= 0) enregistre(); //Le lot écrit est acquis
+    }
+
+    /**
+     * Écrit le nombre d'octets reçus, avec l'identité du fichier envoyé, dans le fichier du point de reprise,
+     * s'il a changé.
+     * Les données qu'il couvre doivent déjà être écrites (et forcées sur le disque avec fsync).
+     * @throws IOException
+     */
+    private void enregistre() throws IOException {
+        if (taille == repriseEnregistree) return;
+        point.clear();
+        point.putLong(0, taille).putLong(Long.BYTES, tailleSource).putLong(2 * Long.BYTES, dateSource);
+        while (point.hasRemaining()) {
+            canalReprise.write(point, point.position());
+        }
+        if (fsync) canalReprise.force(false);
+        repriseEnregistree = taille;
+    }
+
+    @Override
+    public void ferme() throws IOException {
+        vide();
+        if (fsync) canal.force(true);
+        if (canalReprise != null) {
+            //Toutes les données reçues sont écrites : une reprise ne les demandera pas.
+            //Sans négociation, le fichier et son point de reprise restent intacts
+            if (repriseEnregistree >= 0) enregistre();
+            canalReprise.close();
+        }
+        canal.close();
+        System.out.printf("Fichier reçu : %d octets, CRC-32 %08x%n", taille, checksum.getValue());
+    }
+
+    /**
+     * Accesseur du CRC-32 des données reçues
+     * @return le CRC-32 des données reçues depuis le début du fichier
+     */
+    long getChecksum() {
+        return checksum.getValue();
+    }
+
+    /**
+     * Accesseur de taille
+     * @return le nombre d'octets reçus, y compris ceux d'une connexion précédente en cas de reprise
+     */
+    long getTaille() {
+        return taille;
+    }
+
+    /**
+     * Calcule le CRC-32 d'un fichier, pour le comparer à celui du fichier reçu
+     * @param fichier le fichier
+     * @return le CRC-32 du contenu du fichier
+     * @throws IOException
+     */
+    static long checksum(Path fichier) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            ajoute(crc, canal, canal.size());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Ajoute au calcul d'un CRC-32 le début d'un fichier, projeté en mémoire
+     * @param crc le CRC-32 à compléter
+     * @param canal le canal du fichier, ouvert en lecture
+     * @param taille le nombre d'octets à lire depuis le début du fichier
+     * @throws IOException
+     */
+    private static void ajoute(CRC32 crc, FileChannel canal, long taille) throws IOException {
+        for (long debut = 0; debut < taille; debut += Integer.MAX_VALUE) {
+            MappedByteBuffer projection = canal.map(FileChannel.MapMode.READ_ONLY, debut,
+                    Math.min(Integer.MAX_VALUE, taille - debut));
+            crc.update(projection);
+        }
+    }
+}
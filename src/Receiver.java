@@ -1,5 +1,6 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 
 
 /**
@@ -10,65 +11,139 @@ public class Receiver {
     /** Instance de la classe HDLC pour gérer les communications. */
     private final HDLC hdlc;
 
+    /** État de réception de la connexion */
+    private final SessionReception session;
+
     /**
      * Constructeur de Receiver.
-     * Initialise une connexion avec un socket serveur.
+     * Initialise une connexion avec un socket serveur. Tous les paramètres supportés sont acceptés
+     * (ParametresConnexion.maximaux : numérotation étendue, rejet sélectif, grandes trames).
      * @param port le port d'écoute
      * @throws IOException
      */
     public Receiver(int port) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(port);
-        System.out.println("En attente de connexion...");
-        Socket socket = serverSocket.accept();
-        System.out.println("Connexion établie !");
-        this.hdlc = new HDLC(socket);
+        this(port, ParametresConnexion.maximaux());
     }
 
     /**
-     * Commence a recevoir et traiter les trames
-     * @throws IOException 
+     * Constructeur de Receiver.
+     * Initialise une connexion avec un socket serveur.
+     * @param port le port d'écoute
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @throws IOException
      */
-    public void start() throws IOException {
-        byte numTrameAttendu = 0; //On initialise a 0 le numero de la premiere trame attendu
-
-        while (true) {
-            Trame trame = hdlc.recoitTrame();
+    public Receiver(int port, ParametresConnexion supportes) throws IOException {
+        this(port, supportes, PuitsDonnees.IGNORE);
+    }
 
-            if (trame == null) continue;
+    /**
+     * Constructeur de Receiver.
+     * Initialise une connexion avec un socket serveur et reconstitue le fichier reçu dans fichierSortie.
+     * Tous les paramètres supportés sont acceptés (ParametresConnexion.maximaux).
+     * @param port le port d'écoute
+     * @param fichierSortie le fichier où écrire les données reçues
+     * @throws IOException
+     */
+    public Receiver(int port, String fichierSortie) throws IOException {
+        this(port, ParametresConnexion.maximaux(),
+                new PuitsFichier(Paths.get(fichierSortie)));
+    }
 
-            if (trame.getType() == TrameType.F) { //La communication est fini
-                System.out.println("Fin de communication reçue."); 
-                break;
-            }
+    /**
+     * Constructeur de Receiver.
+     * Initialise une connexion avec un socket serveur et reconstitue le fichier reçu dans fichierSortie.
+     * Avec reprise, un transfert interrompu reprend au point de reprise enregistré à côté du fichier
+     * (voir PuitsFichier), si Sender propose la reprise.
+     * @param port le port d'écoute
+     * @param fichierSortie le fichier où écrire les données reçues
+     * @param reprise vrai pour conserver les données reçues et un point de reprise d'une connexion à l'autre
+     * @throws IOException
+     */
+    public Receiver(int port, String fichierSortie, boolean reprise) throws IOException {
+        this(port, ParametresConnexion.maximaux(),
+                new PuitsFichier(Paths.get(fichierSortie), PuitsFichier.TRAMES_PAR_LOT, false, reprise));
+    }
 
-            if (checkTrame(trame, numTrameAttendu)) { //On vérifie que la trame est valide
+    /**
+     * Constructeur de Receiver.
+     * Initialise une connexion avec un socket serveur.
+     * @param port le port d'écoute
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param puits la destination des données reçues
+     * @throws IOException
+     */
+    public Receiver(int port, ParametresConnexion supportes, PuitsDonnees puits) throws IOException {
+        this(accepte(port), supportes, puits);
+    }
 
-                Trame ackTrame = new Trame(TrameType.A, trame.getNum(), new byte[0]);
-                hdlc.envoieTrame(ackTrame); //Envoie de l'ACK
-                System.out.println("ACK envoyé pour la trame : " + trame.getNum());
-                //On incremente le numero de trame attendu (modulo 8 pour limiter a 3 bits la numerotation)
-                numTrameAttendu = (byte) ((numTrameAttendu + 1) % 8);
-            } 
-            else {
-                System.out.println("Trame invalide, envoi de REJ : " + trame.getNum());
-                Trame rejTrame = new Trame(TrameType.R, trame.getNum(), new byte[0]); 
-                hdlc.envoieTrame(rejTrame); //Envoie de REJ
-            }
-        }
+    /**
+     * Constructeur de Receiver pour une connexion déjà acceptée (utilisé par ServeurThreads).
+     * @param socket le socket de la connexion
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param puits la destination des données reçues
+     * @throws IOException
+     */
+    Receiver(Socket socket, ParametresConnexion supportes, PuitsDonnees puits) throws IOException {
+        this(Lien.de(socket), supportes, puits);
+    }
 
-        hdlc.fermeConnection();
+    /**
+     * Constructeur de Receiver sur un lien déjà établi (par exemple un LienEmule).
+     * @param lien le lien de la connexion
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param puits la destination des données reçues
+     * @throws IOException
+     */
+    Receiver(Lien lien, ParametresConnexion supportes, PuitsDonnees puits) throws IOException {
+        this.hdlc = new HDLC(lien, new Metriques("Receiver", Traceur.nouvelleSession()));
+        this.hdlc.videAvantLecture(true); //Les ACK retardés d'une même lecture partent ensemble
+        this.session = new SessionReception(supportes, hdlc::envoieTrame, puits, hdlc.getMetriques());
     }
 
     /**
-     * Vérifie si le CRC est correct et si le numéro de trame correspond à celui attendu.
-     * @param trame la trame à valider.
-     * @param numTrameAttendu le numéro de trame attendu.
-     * @return true si la trame est valide, false sinon.
+     * Attend une connexion sur le port d'écoute
+     * @param port le port d'écoute
+     * @return le socket de la connexion acceptée
      */
-    private boolean checkTrame(Trame trame, byte numTrameAttendu) {
-        if(trame.getNum() != numTrameAttendu) System.out.println(trame.getNum() + " " + numTrameAttendu);
-        return trame.getCrc() == trame.calculerCRC() && trame.getNum() == numTrameAttendu;
+    private static Socket accepte(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        System.out.println("En attente de connexion...");
+        Socket socket = serverSocket.accept();
+        System.out.println("Connexion établie !");
+        return socket;
     }
 
-    
-}
\ No newline at end of file
+    /**
+     * Commence a recevoir et traiter les trames.
+     * Si la connexion est perdue (IOException), la session est quand même fermée : les données reçues
+     * sont écrites, le point de reprise enregistré, et les métriques retirées de JMX.
+     * @throws IOException 
+     */
+    public void start() throws IOException {
+        hdlc.getMetriques().enregistre();
+        TrameVue trame = new TrameVue(); //Repositionnée sur chaque trame reçue, sans copie
+        try {
+            while (true) {
+                try {
+                    //Si un ACK est retardé, on n'attend la trame suivante que jusqu'à son échéance
+                    if (!hdlc.recoitTrame(trame, session.delaiAcquittement())) break; //La connexion a été fermée
+                } catch (SocketTimeoutException e) {
+                    session.acquitte(); //Aucune trame avant l'échéance : l'ACK retardé part seul
+                    continue;
+                }
+
+                if (!session.traite(trame)) break; //La communication est fini
+            }
+        } finally {
+            try {
+                session.ferme();
+            } finally {
+                try {
+                    hdlc.fermeConnection();
+                } finally {
+                    hdlc.getMetriques().ferme();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReceptionMultilien reçoit un fichier envoyé par EnvoiMultilien sur plusieurs connexions HDLC
+ * parallèles. Chaque connexion a son propre Receiver, dans son propre thread ; les blocs reçus
+ * sur tous les liens sont remis au puits dans l'ordre des numéros de bloc.
+ * Un bloc arrivé en avance est conservé jusqu'à ce que les blocs précédents arrivent (l'émetteur
+ * borne cette avance). Un bloc reçu deux fois, parce que son lien a été perdu avant son acquittement
+ * et qu'il a été renvoyé sur un autre lien, est ignoré.
+ */
+class ReceptionMultilien {
+
+    /** Les Receiver des connexions */
+    private final List<Receiver> receivers = new ArrayList<>();
+
+    /** Destination des données du fichier, dans l'ordre */
+    private final PuitsDonnees puits;
+
+    /** Verrou du réassemblage, partagé par les threads des liens */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /** Blocs arrivés en avance, par numéro */
+    private final TreeMap<Long, byte[]> enAvance = new TreeMap<>();
+
+    /** Numéro du prochain bloc à remettre au puits */
+    private long prochainBloc = 0;
+
+    /** Numéro du dernier bloc du fichier, ou -1 tant qu'il n'est pas reçu */
+    private long dernierBloc = -1;
+
+    /** Vrai quand le dernier bloc du fichier a été remis au puits */
+    private boolean termine = false;
+
+    /**
+     * Constructeur de ReceptionMultilien.
+     * Accepte nbLiens connexions sur le port d'écoute.
+     * @param port le port d'écoute
+     * @param nbLiens le nombre de connexions parallèles
+     * @param supportes les paramètres maximaux acceptés lors de la négociation de chaque connexion
+     * @param puits la destination des données reçues
+     * @throws IOException
+     */
+    public ReceptionMultilien(int port, int nbLiens, ParametresConnexion supportes, PuitsDonnees puits)
+            throws IOException {
+        this.puits = puits;
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("En attente de " + nbLiens + " connexions...");
+            for (int i = 0; i < nbLiens; i++) {
+                receivers.add(new Receiver(serverSocket.accept(), supportes, new Desassemblage()));
+            }
+        }
+        System.out.println("Connexions établies !");
+    }
+
+    /**
+     * Constructeur de ReceptionMultilien sur des liens déjà établis (par exemple des LienEmule).
+     * @param liens les liens depuis EnvoiMultilien
+     * @param supportes les paramètres maximaux acceptés lors de la négociation de chaque connexion
+     * @param puits la destination des données reçues
+     * @throws IOException
+     */
+    ReceptionMultilien(List<Lien> liens, ParametresConnexion supportes, PuitsDonnees puits) throws IOException {
+        this.puits = puits;
+        for (Lien lien : liens) {
+            receivers.add(new Receiver(lien, supportes, new Desassemblage()));
+        }
+    }
+
+    /**
+     * Reçoit sur tous les liens jusqu'à la fin de chaque connexion, puis ferme le puits.
+     * @throws IOException si un bloc manque à la fin de toutes les connexions
+     */
+    public void start() throws IOException {
+        ThreadFactory fabrique = ModeExecution.duThreadCourant().fabrique("Multilien-reception");
+        List<Thread> threads = new ArrayList<>();
+        for (Receiver receiver : receivers) {
+            Thread thread = fabrique.newThread(() -> {
+                try {
+                    receiver.start();
+                } catch (IOException e) {
+                    //Lien perdu : ses blocs non acquittés arrivent par les autres liens
+                    System.out.println("Lien perdu : " + e.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Réception multilien interrompue", e);
+            }
+        }
+        puits.ferme();
+        if (!termine) throw new IOException("Transfert incomplet : bloc " + prochainBloc + " manquant");
+    }
+
+    /**
+     * Remet un bloc complet au puits s'il est le prochain, avec les blocs suivants déjà arrivés,
+     * ou le conserve s'il est en avance
+     * @param numero le numéro du bloc
+     * @param donne les données du bloc
+     * @param longueur le nombre d'octets du bloc
+     * @param dernier vrai si c'est le dernier bloc du fichier
+     * @return vrai si le tableau est conservé (l'appelant ne doit plus le réutiliser)
+     */
+    private boolean depose(long numero, byte[] donne, int longueur, boolean dernier) throws IOException {
+        verrou.lock();
+        try {
+            if (dernier) dernierBloc = numero;
+            if (numero < prochainBloc || enAvance.containsKey(numero)) return false; //Bloc renvoyé
+            if (numero > prochainBloc) {
+                //Conservé à sa longueur exacte : seul le dernier bloc est plus court
+                boolean conserve = longueur == donne.length;
+                enAvance.put(numero, conserve ? donne : Arrays.copyOf(donne, longueur));
+                return conserve;
+            }
+            puits.ecrit(donne, 0, longueur);
+            prochainBloc++;
+            byte[] suivant;
+            while ((suivant = enAvance.remove(prochainBloc)) != null) {
+                puits.ecrit(suivant);
+                prochainBloc++;
+            }
+            termine = dernierBloc >= 0 && prochainBloc > dernierBloc;
+            return false;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Découpe le flux des données acceptées sur un lien en blocs (en-tête puis données),
+     * et remet chaque bloc complet au réassemblage. Un bloc incomplet à la fin de la connexion
+     * est abandonné : il est renvoyé sur un autre lien.
+     */
+    private final class Desassemblage implements PuitsDonnees {
+
+        /** En-tête du bloc en cours */
+        private final ByteBuffer entete = ByteBuffer.allocate(EnvoiMultilien.TAILLE_ENTETE);
+
+        /** Données du bloc en cours, réutilisées si le bloc est remis tout de suite au puits */
+        private byte[] bloc = new byte[EnvoiMultilien.TAILLE_BLOC];
+
+        /** Nombre d'octets du bloc en cours déjà reçus */
+        private int recus = 0;
+
+        /** Longueur du bloc en cours, ou -1 tant que son en-tête n'est pas complet */
+        private int longueur = -1;
+
+        @Override
+        public void ecrit(byte[] donne, int off, int len) throws IOException {
+            while (len > 0) {
+                if (longueur < 0) {
+                    int n = Math.min(len, entete.remaining());
+                    entete.put(donne, off, n);
+                    off += n;
+                    len -= n;
+                    if (entete.hasRemaining()) return;
+                    longueur = entete.getInt(8);
+                    if (longueur < 0 || longueur > EnvoiMultilien.TAILLE_BLOC) {
+                        throw new IOException("En-tête de bloc invalide : longueur " + longueur);
+                    }
+                }
+                int n = Math.min(len, longueur - recus);
+                System.arraycopy(donne, off, bloc, recus, n);
+                recus += n;
+                off += n;
+                len -= n;
+                if (recus == longueur) {
+                    if (depose(entete.getLong(0), bloc, longueur, entete.get(12) != 0)) {
+                        bloc = new byte[EnvoiMultilien.TAILLE_BLOC];
+                    }
+                    entete.clear();
+                    recus = 0;
+                    longueur = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.util.Arrays;
+
+/**
+ * ReedSolomon est le code correcteur (FEC) des trames I, quand il est négocié : un code de Reed-Solomon
+ * systématique sur GF(256), par blocs de 255 symboles au plus.
+ * Le message protégé est le numéro de la trame suivi de son champ Données ; il est découpé en blocs de
+ * 255 - parite bytes, et les parite bytes de contrôle de chaque bloc sont ajoutés, bloc après bloc, à la
+ * fin du champ Données (le CRC couvre donc aussi la parité). Chaque bloc corrige jusqu'à parite / 2
+ * bytes erronés : une trame dont quelques bits sont inversés est corrigée par Receiver, sans REJ
+ * ni réémission. Le type de la trame n'est pas protégé : une trame dont le type est erroné reste perdue.
+ * L'encodage n'a pas d'état : une même instance sert à plusieurs threads.
+ */
+final class ReedSolomon {
+
+    /** Nombre maximal de symboles d'un bloc (mot de code) */
+    static final int TAILLE_BLOC = 255;
+
+    /** Nombre maximal de bytes de parité par bloc */
+    static final int PARITE_MAX = 32;
+
+    /** Polynôme primitif de GF(256) : x^8 + x^4 + x^3 + x^2 + 1 */
+    private static final int POLYNOME = 0x11D;
+
+    /** Puissances de alpha, doublées pour éviter le modulo 255 dans les produits */
+    private static final byte[] EXP = new byte[2 * TAILLE_BLOC];
+
+    /** Logarithmes en base alpha (LOG[0] n'est pas défini) */
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < TAILLE_BLOC; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + TAILLE_BLOC] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x > 0xFF) x ^= POLYNOME;
+        }
+    }
+
+    /** Nombre de bytes de parité par bloc */
+    private final int parite;
+
+    /** Nombre de bytes du message par bloc */
+    private final int message;
+
+    /**
+     * Produits de chaque symbole par les coefficients du polynôme générateur (x - alpha^0)...(x - alpha^(parite-1)),
+     * du degré parite - 1 au degré 0 : une ligne par symbole, pour l'encodage
+     */
+    private final byte[][] produits = new byte[256][];
+
+    /**
+     * Constructeur de ReedSolomon.
+     * @param parite le nombre de bytes de parité par bloc, de 1 à PARITE_MAX
+     */
+    ReedSolomon(int parite) {
+        if (parite < 1 || parite > PARITE_MAX) throw new IllegalArgumentException("Parité non supportée : " + parite);
+        this.parite = parite;
+        this.message = TAILLE_BLOC - parite;
+        //g(x) calculé du degré 0 au degré parite, puis rangé du degré parite - 1 au degré 0 (unitaire)
+        int[] g = new int[parite + 1];
+        g[0] = 1;
+        for (int j = 0; j < parite; j++) {
+            int racine = EXP[j] & 0xFF;
+            for (int i = j + 1; i > 0; i--) g[i] = g[i - 1] ^ mul(g[i], racine);
+            g[0] = mul(g[0], racine);
+        }
+        for (int symbole = 0; symbole < 256; symbole++) {
+            produits[symbole] = new byte[parite];
+            for (int i = 0; i < parite; i++) produits[symbole][i] = (byte) mul(symbole, g[parite - 1 - i]);
+        }
+    }
+
+    /**
+     * Nombre de bytes de parité ajoutés à un champ Données
+     * @param longueur le nombre de bytes du champ Données avant la parité
+     * @return le nombre de bytes de parité
+     */
+    int parite(int longueur) {
+        return (longueur + message) / message * parite; //Un bloc par message bytes du numéro et des données
+    }
+
+    /**
+     * Nombre maximal de bytes de données d'un champ de tailleChamp bytes, parité comprise
+     * @param tailleChamp la taille du champ Données
+     * @return le nombre de bytes de données, au moins 0
+     */
+    int capacite(int tailleChamp) {
+        int longueur = Math.max(0, tailleChamp - parite(tailleChamp));
+        while (longueur + 1 + parite(longueur + 1) <= tailleChamp) longueur++;
+        return longueur;
+    }
+
+    /**
+     * Nombre de bytes de données d'un champ Données reçu, parité retirée
+     * @param tailleChamp la taille du champ Données reçu, parité comprise
+     * @return le nombre de bytes de données, ou -1 si la taille ne correspond à aucun champ encodé
+     */
+    int longueur(int tailleChamp) {
+        int blocs = (tailleChamp + TAILLE_BLOC) / TAILLE_BLOC; //Le numéro compte dans le premier bloc
+        int longueur = tailleChamp - blocs * parite;
+        return longueur >= 0 && parite(longueur) == blocs * parite ? longueur : -1;
+    }
+
+    /**
+     * Calcule la parité du numéro et du champ Données d'une trame et l'écrit à la suite des données
+     * @param num le numéro de la trame
+     * @param donne le champ Données, avec la place de la parité après les données
+     * @param longueur le nombre de bytes de données
+     */
+    void encode(byte num, byte[] donne, int longueur) {
+        int total = longueur + 1; //Le message commence par le numéro
+        int sortie = longueur;
+        for (int debut = 0; debut < total; debut += message) {
+            int fin = Math.min(total, debut + message);
+            //Registre à décalage de la division par g(x), directement dans la place de la parité.
+            //Il est circulaire : son premier symbole est à sortie + tete, le décalage ne déplace rien
+            Arrays.fill(donne, sortie, sortie + parite, (byte) 0);
+            int tete = 0;
+            for (int i = debut; i < fin; i++) {
+                byte symbole = i == 0 ? num : donne[i - 1];
+                int retour = (symbole ^ donne[sortie + tete]) & 0xFF;
+                donne[sortie + tete] = 0; //Devient le dernier symbole du registre décalé
+                tete = tete + 1 == parite ? 0 : tete + 1;
+                if (retour == 0) continue;
+                byte[] produit = produits[retour];
+                int avantTour = parite - tete;
+                for (int j = 0; j < avantTour; j++) donne[sortie + tete + j] ^= produit[j];
+                for (int j = avantTour; j < parite; j++) donne[sortie + j - avantTour] ^= produit[j];
+            }
+            //Le registre est remis dans l'ordre, son premier symbole en sortie
+            inverse(donne, sortie, sortie + tete);
+            inverse(donne, sortie + tete, sortie + parite);
+            inverse(donne, sortie, sortie + parite);
+            sortie += parite;
+        }
+    }
+
+    /**
+     * Corrige sur place le numéro et le champ Données d'une trame reçue, bloc par bloc
+     * @param contenu le tableau contenant la trame reçue
+     * @param offNum l'indice du numéro de la trame, suivi du champ Données
+     * @param tailleChamp la taille du champ Données, parité comprise
+     * @return le nombre de bytes corrigés, ou -1 si un bloc a trop d'erreurs pour être corrigé
+     */
+    int corrige(byte[] contenu, int offNum, int tailleChamp) {
+        int longueur = longueur(tailleChamp);
+        if (longueur < 0) return -1;
+        int total = longueur + 1;
+        int offParite = offNum + total;
+        int corriges = 0;
+        byte[] bloc = new byte[TAILLE_BLOC];
+        for (int debut = 0; debut < total; debut += message) {
+            int tailleMessage = Math.min(total, debut + message) - debut;
+            int n = tailleMessage + parite;
+            System.arraycopy(contenu, offNum + debut, bloc, 0, tailleMessage);
+            System.arraycopy(contenu, offParite, bloc, tailleMessage, parite);
+            int resultat = corrigeBloc(bloc, n);
+            if (resultat < 0) return -1;
+            if (resultat > 0) {
+                System.arraycopy(bloc, 0, contenu, offNum + debut, tailleMessage);
+                System.arraycopy(bloc, tailleMessage, contenu, offParite, parite);
+                corriges += resultat;
+            }
+            offParite += parite;
+        }
+        return corriges;
+    }
+
+    /**
+     * Corrige un mot de code : syndromes, polynôme localisateur (Berlekamp-Massey),
+     * positions des erreurs (recherche de Chien) et valeurs des erreurs (Forney)
+     * @param bloc le mot de code, du symbole de plus haut degré au symbole de degré 0
+     * @param n le nombre de symboles du mot de code
+     * @return le nombre de symboles corrigés, ou -1 s'il y a trop d'erreurs
+     */
+    private int corrigeBloc(byte[] bloc, int n) {
+        int[] syndromes = new int[parite];
+        if (!calculeSyndromes(bloc, n, syndromes)) return 0;
+
+        //Berlekamp-Massey : localisateur lambda de degré minimal qui engendre les syndromes
+        int[] lambda = new int[parite + 1];
+        int[] precedent = new int[parite + 1];
+        lambda[0] = 1;
+        precedent[0] = 1;
+        int degre = 0;
+        int decalage = 1;
+        int ecartPrecedent = 1;
+        for (int k = 0; k < parite; k++) {
+            int ecart = syndromes[k];
+            for (int i = 1; i <= degre; i++) ecart ^= mul(lambda[i], syndromes[k - i]);
+            if (ecart == 0) {
+                decalage++;
+                continue;
+            }
+            int facteur = div(ecart, ecartPrecedent);
+            if (2 * degre <= k) {
+                int[] copie = lambda.clone();
+                for (int i = 0; i + decalage <= parite; i++) lambda[i + decalage] ^= mul(facteur, precedent[i]);
+                degre = k + 1 - degre;
+                precedent = copie;
+                ecartPrecedent = ecart;
+                decalage = 1;
+            } else {
+                for (int i = 0; i + decalage <= parite; i++) lambda[i + decalage] ^= mul(facteur, precedent[i]);
+                decalage++;
+            }
+        }
+        if (2 * degre > parite) return -1;
+
+        //Évaluateur omega = syndromes * lambda mod x^parite
+        int[] omega = new int[parite];
+        for (int i = 0; i < parite; i++) {
+            for (int j = 0; j <= i && j <= degre; j++) omega[i] ^= mul(syndromes[i - j], lambda[j]);
+        }
+
+        //Chien et Forney : le symbole i est de degré n - 1 - i, son localisateur est alpha^(n - 1 - i)
+        int trouvees = 0;
+        for (int i = 0; i < n; i++) {
+            int puissance = n - 1 - i;
+            int inverse = EXP[(TAILLE_BLOC - puissance) % TAILLE_BLOC] & 0xFF;
+            if (evalue(lambda, degre + 1, inverse) != 0) continue;
+            //Dérivée formelle de lambda : seuls les termes de degré impair restent
+            int derivee = 0;
+            for (int j = 1; j <= degre; j += 2) derivee ^= mul(lambda[j], puissanceDe(inverse, j - 1));
+            if (derivee == 0) return -1;
+            int valeur = mul(EXP[puissance] & 0xFF, div(evalue(omega, parite, inverse), derivee));
+            bloc[i] ^= (byte) valeur;
+            trouvees++;
+        }
+        if (trouvees != degre) return -1; //Localisateur sans toutes ses racines dans le bloc : trop d'erreurs
+        return calculeSyndromes(bloc, n, syndromes) ? -1 : trouvees;
+    }
+
+    /**
+     * Calcule les syndromes d'un mot de code : r(alpha^j) pour j de 0 à parite - 1
+     * @param bloc le mot de code
+     * @param n le nombre de symboles
+     * @param syndromes reçoit les syndromes
+     * @return vrai si au moins un syndrome est non nul (le mot contient des erreurs)
+     */
+    private boolean calculeSyndromes(byte[] bloc, int n, int[] syndromes) {
+        boolean erreur = false;
+        for (int j = 0; j < parite; j++) {
+            int racine = EXP[j] & 0xFF;
+            int s = 0;
+            for (int i = 0; i < n; i++) s = mul(s, racine) ^ (bloc[i] & 0xFF);
+            syndromes[j] = s;
+            erreur |= s != 0;
+        }
+        return erreur;
+    }
+
+    /**
+     * Inverse l'ordre des bytes de tableau entre debut (inclus) et fin (exclu)
+     */
+    private static void inverse(byte[] tableau, int debut, int fin) {
+        for (int i = debut, j = fin - 1; i < j; i++, j--) {
+            byte b = tableau[i];
+            tableau[i] = tableau[j];
+            tableau[j] = b;
+        }
+    }
+
+    /**
+     * Évalue un polynôme rangé du degré 0 au degré taille - 1
+     * @param poly les coefficients
+     * @param taille le nombre de coefficients
+     * @param x le point
+     * @return poly(x)
+     */
+    private static int evalue(int[] poly, int taille, int x) {
+        int resultat = 0;
+        for (int i = taille - 1; i >= 0; i--) resultat = mul(resultat, x) ^ poly[i];
+        return resultat;
+    }
+
+    /**
+     * @return x à la puissance e dans GF(256)
+     */
+    private static int puissanceDe(int x, int e) {
+        if (e == 0) return 1;
+        if (x == 0) return 0;
+        return EXP[(LOG[x] * e) % TAILLE_BLOC] & 0xFF;
+    }
+
+    /**
+     * @return le produit de a et b dans GF(256)
+     */
+    private static int mul(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a] + LOG[b]] & 0xFF;
+    }
+
+    /**
+     * @return le quotient de a par b (non nul) dans GF(256)
+     */
+    private static int div(int a, int b) {
+        if (a == 0) return 0;
+        return EXP[LOG[a] + TAILLE_BLOC - LOG[b]] & 0xFF;
+    }
+}
@@ -1,9 +1,36 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Sender lit le fichier source, crée des trames et envoie ces trames à Receiver sur le socket.
  * Sender reçoit les ACK et REJ de Receiver et ré-envoie les données au besoin.
+ * Les trames sont envoyées selon Go-Back-N : jusqu'à modulo - 1 trames peuvent être
+ * en attente d'acquittement, et un REJ ou un délai dépassé fait réémettre toute la fenêtre.
+ * En rejet sélectif (négocié), la fenêtre est de modulo / 2 et un SREJ ne fait réémettre que la trame demandée.
+ * En full-duplex, l'autre extrémité est aussi un Sender : chacun reçoit les trames I de l'autre
+ * dans une SessionReception, et l'acquittement N(R) de ces trames est porté par le premier byte
+ * des trames I envoyées (paramètre négocié), comme le champ N(R) d'HDLC. Un ACK seul n'est envoyé
+ * que si aucune trame I ne part avant son échéance.
+ * L'envoi est en deux étapes : les trames suivantes sont préparées d'avance (copiées ou compressées,
+ * puis encodées en parallèle par un pool de threads) pendant que la fenêtre se libère, et le thread
+ * d'envoi n'a plus qu'à écrire leurs bytes encodés. Une réémission écrit les mêmes bytes, sans réencoder.
  */
 public class Sender {
 
@@ -12,93 +39,1015 @@ public class Sender {
      */
     private final HDLC hdlc;
     
-    /** 
-     * Trames de 256 octets - 6 octets fixes (2 flags + type + num + CRC) = 250 octets. Pourrait changer de valeur.
+    /**
+     * Taille visée des fenêtres de projection du fichier en mémoire (64 Mo).
+     */
+    private static final long TAILLE_PROJECTION_VISEE = 64L * 1024 * 1024;
+
+    /**
+     * Nombre maximal d'octets du fichier par trame, négocié à l'ouverture de la connexion
+     * (250 par défaut : trames de 256 octets), moins la parité si la correction d'erreurs est négociée.
      */
-    private static final int FRAME_SIZE_MAX = 250;
+    private final int frameSizeMax;
+
+    /**
+     * Taille des fenêtres de projection du fichier en mémoire, multiple de frameSizeMax
+     * pour que seule la dernière trame du fichier soit incomplète.
+     */
+    private final long tailleProjection;
     
     /** 
-     * Temps d'attente de 3 secondes pour le retour de Receiver. 
+     * Temps d'attente de 3 secondes pour la réponse à la trame C, et délai de retransmission
+     * initial avant la première mesure du RTT. 
      */
     private static final int TIMEOUT = 3000;
     
+    /**
+     * Nombre d'envois de la trame C avant d'abandonner la connexion.
+     */
+    private static final int ESSAIS_CONNEXION = 3;
+
+    /**
+     * Paramètres retenus par Receiver à l'ouverture de la connexion.
+     */
+    private final ParametresConnexion parametres;
+
+    /**
+     * Nombre de numéros de trame différents : 8 (sur 3 bits) ou 128 en mode étendu (sur 7 bits).
+     */
+    private final int modulo;
+
+    /**
+     * Nombre maximal de trames envoyées et pas encore acquittées (Go-Back-N : modulo - 1).
+     */
+    private final int tailleFenetre;
+    
     /** 
-     * Numéro de la trame en cours pour le compteur de 0 à 7 (sur 3 bits).  
+     * Numéro de la prochaine trame à envoyer, de 0 à modulo - 1.  
      */    
     private byte frameNum = 0;
+
+    /**
+     * Numéro de la prochaine trame à préparer, en avance sur frameNum des trames préparées.
+     */
+    private byte numPrepare = 0;
+
+    /**
+     * Nombre de trames préparées d'avance, en attente d'une place dans la fenêtre.
+     * 0 : chaque trame est préparée et encodée par le thread d'envoi juste avant son envoi.
+     */
+    private static final int PROFONDEUR_PIPELINE = Integer.getInteger("hdlc.pipeline", 8);
+
+    /**
+     * Pool qui encode (CRC et bit stuffing) les trames préparées d'avance, partagé par tous les Sender.
+     */
+    private static final ForkJoinPool ENCODAGE = ForkJoinPool.commonPool();
+
+    /**
+     * Trames préparées d'avance, dans l'ordre d'envoi, dont l'encodage est peut-être en cours.
+     * Seul le thread d'envoi y accède.
+     */
+    private final ArrayDeque<TrameEnvoyee> preparees = new ArrayDeque<>();
+
+    /**
+     * Verrou de l'état de la fenêtre, partagé avec le lecteur d'acquittements et le timer.
+     * Un ReentrantLock plutôt que synchronized : un thread virtuel qui attend dessus
+     * libère son thread porteur.
+     */
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    /**
+     * Signalée à chaque acquittement, rejet ou expiration du timer.
+     */
+    private final Condition fenetreModifiee = verrou.newCondition();
+
+    /**
+     * Trames envoyées et pas encore acquittées, de la plus ancienne à la plus récente.
+     * On y accède en tenant le verrou.
+     */
+    private final ArrayDeque<TrameEnvoyee> nonAcquittees = new ArrayDeque<>();
+
+    /**
+     * Emplacements de trame acquittés, réutilisés pour les trames suivantes : en régime établi,
+     * l'envoi n'alloue ni tableau de données ni trame. On y accède en tenant le verrou.
+     */
+    private final ArrayDeque<TrameEnvoyee> libres = new ArrayDeque<>();
+
+    /**
+     * Trames à réémettre, collectées sous le verrou puis envoyées après l'avoir relâché.
+     * Réutilisée d'une attente à l'autre ; seul le thread d'envoi y accède.
+     */
+    private final List<TrameEnvoyee> aReemettre = new ArrayList<>();
+
+    /**
+     * Calculateur du FCS négocié des trames qui portent N(R), réutilisé pour chaque envoi ;
+     * seul le thread d'envoi y accède.
+     */
+    private final Fcs checksum;
+
+    /**
+     * Numéro de la trame à partir de laquelle il faut tout réémettre (REJ reçu), ou -1.
+     */
+    private int reprise = -1;
+
+    /**
+     * Numéros des trames demandées par un SREJ et pas encore réémises.
+     */
+    private final ArrayDeque<Byte> rejetsSelectifs = new ArrayDeque<>();
+
+    /**
+     * Estimation du RTT et délai de retransmission (RTO) de la connexion.
+     */
+    private final EstimateurRTT estimateur = new EstimateurRTT(TIMEOUT);
+
+    /**
+     * Métriques de la connexion, exposées en JMX pendant le transfert.
+     */
+    private final Metriques metriques = new Metriques("Sender", Traceur.nouvelleSession());
+
+    /**
+     * Timer de retransmission partagé par tous les Sender : déclenche une expiration quand
+     * la plus ancienne trame d'une connexion n'est pas acquittée après RTO.
+     * Un seul thread suffit, la tâche programmée ne fait que signaler le thread d'envoi.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Sender-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Expiration programmée pour la plus ancienne trame non acquittée, ou null.
+     */
+    private ScheduledFuture<?> expirationProgrammee;
+
+    /**
+     * Incrémenté à chaque réarmement du timer, pour ignorer une expiration annulée trop tard.
+     */
+    private long generationTimer = 0;
+
+    /**
+     * Vrai quand le délai de retransmission de la plus ancienne trame a expiré.
+     */
+    private boolean expire = false;
+
+    /**
+     * Vrai quand le lecteur d'acquittements s'est arrêté (connexion fermée ou perdue).
+     */
+    private boolean connexionPerdue = false;
+
+    /**
+     * Vrai quand la connexion est fermée volontairement, pour que le lecteur d'acquittements s'arrête sans erreur.
+     */
+    private volatile boolean ferme = false;
+
+    /**
+     * Réception des trames I de l'autre extrémité en full-duplex, ou null.
+     * On y accède en tenant le verrou.
+     */
+    private final SessionReception reception;
+
+    /**
+     * Métriques de la réception en full-duplex, ou null.
+     */
+    private final Metriques metriquesReception;
+
+    /**
+     * Réponses de la réception (ACK, REJ, SREJ, C) à envoyer par le thread d'envoi, le seul
+     * qui écrit sur le socket. On y accède en tenant le verrou.
+     */
+    private final ArrayDeque<Trame> reponses = new ArrayDeque<>();
+
+    /**
+     * Réponses collectées sous le verrou puis envoyées après l'avoir relâché ; seul le thread d'envoi y accède.
+     */
+    private final List<Trame> reponsesAEnvoyer = new ArrayList<>();
+
+    /**
+     * Vrai quand la fin de communication de l'autre extrémité est reçue, en full-duplex.
+     */
+    private boolean finReception = false;
+
+    /**
+     * Nombre de bytes en tête des données des trames I : 1 si elles portent N(R), 0 sinon.
+     */
+    private final int entete;
+
+    /**
+     * Compresseur des données du fichier si la compression est négociée, ou null.
+     * Seul le thread d'envoi y accède.
+     */
+    private final Compresseur compresseur;
+
+    /**
+     * Code correcteur qui ajoute la parité Reed-Solomon aux trames I si la correction d'erreurs
+     * est négociée, ou null. Sans état : partagé par les tâches d'encodage.
+     */
+    private final ReedSolomon fec;
     
     /**
      * Constructeur de Sender.
-     * Initialise une connexion avec Receiver avec un socket serveur.
+     * Initialise une connexion avec Receiver avec un socket serveur, en numérotation normale (sur 3 bits).
      * @param machineName la machine de destination   
      * @param port le port de destination
      * @throws IOException
      */
     public Sender(String machineName, int port) throws IOException {
-        System.out.println("Connexion en cours avec le port " + port + " de " + machineName + "...");
-        Socket socket = new Socket(machineName, port);
-        this.hdlc = new HDLC(socket);
-        System.out.println("Connexion établie avec le port " + port + " de " + machineName + " !");
+        this(machineName, port, ParametresConnexion.defaut());
+    }
+
+    /**
+     * Constructeur de Sender.
+     * Initialise une connexion avec Receiver avec un socket serveur et négocie les paramètres
+     * de la connexion avec une trame C.
+     * @param machineName la machine de destination   
+     * @param port le port de destination
+     * @param propose les paramètres proposés à Receiver
+     * @throws IOException
+     */
+    public Sender(String machineName, int port, ParametresConnexion propose) throws IOException {
+        this(connecte(machineName, port), propose, null, null, "le port " + port + " de " + machineName);
+    }
+
+    /**
+     * Constructeur de Sender.
+     * Utilise un lien déjà établi (par exemple un LienEmule) et négocie les paramètres
+     * de la connexion avec une trame C.
+     * @param lien le lien vers Receiver
+     * @param propose les paramètres proposés à Receiver
+     * @throws IOException
+     */
+    Sender(Lien lien, ParametresConnexion propose) throws IOException {
+        this(lien, propose, null, null, "le lien");
+    }
+
+    /**
+     * Constructeur de Sender en full-duplex.
+     * L'autre extrémité du lien est aussi un Sender en full-duplex : chacun négocie son sens d'envoi
+     * et reçoit les trames I de l'autre. Pour que les acquittements soient portés par les trames I,
+     * les deux extrémités doivent proposer et supporter l'acquittement porté.
+     * Les réponses de la réception sont envoyées par le thread de createFrame, à appeler sans attendre.
+     * @param lien le lien vers l'autre extrémité
+     * @param propose les paramètres proposés pour le sens d'envoi
+     * @param supportes les paramètres maximaux acceptés pour le sens de réception
+     * @param recus la destination des données reçues de l'autre extrémité
+     * @throws IOException
+     */
+    Sender(Lien lien, ParametresConnexion propose, ParametresConnexion supportes, PuitsDonnees recus)
+            throws IOException {
+        this(lien, propose, supportes, recus, "le lien");
+    }
+
+    private Sender(Lien lien, ParametresConnexion propose, ParametresConnexion supportes, PuitsDonnees recus,
+                   String destination) throws IOException {
+        this.hdlc = new HDLC(lien, metriques);
+        if (recus != null) {
+            this.metriquesReception = new Metriques("Sender-reception", metriques.getSession());
+            this.reception = new SessionReception(supportes, this::repond, recus, metriquesReception);
+        } else {
+            this.metriquesReception = null;
+            this.reception = null;
+        }
+        this.parametres = negocie(propose);
+        this.modulo = parametres.getModulo();
+        this.tailleFenetre = parametres.getTailleFenetre();
+        this.entete = parametres.isAcquittementPorte() ? 1 : 0;
+        this.fec = parametres.getFec() > 0 ? new ReedSolomon(parametres.getFec()) : null;
+        this.checksum = new Fcs(parametres.getTailleFcs());
+        //La parité prend place dans la taille de trame négociée
+        this.frameSizeMax = fec == null ? parametres.getTailleTrame()
+                : fec.capacite(entete + parametres.getTailleTrame()) - entete;
+        this.tailleProjection = frameSizeMax * Math.max(1, TAILLE_PROJECTION_VISEE / frameSizeMax);
+        this.compresseur = parametres.isCompression() ? new Compresseur(frameSizeMax) : null;
+        System.out.println("Connexion établie avec " + destination + " ! (" + parametres + ")");
+        metriques.enregistre();
+        if (metriquesReception != null) metriquesReception.enregistre();
+
+        //Les acquittements sont lus par un thread dédié : l'envoi ne bloque jamais sur leur réception
+        //Il est virtuel si le Sender est créé depuis un thread virtuel
+        Thread lecteur = ModeExecution.duThreadCourant().fabrique("Sender-acquittements").newThread(this::lisAcquittements);
+        lecteur.setDaemon(true);
+        lecteur.start();
     }
   
     
+    /**
+     * Ouvre le socket vers Receiver
+     * @param machineName la machine de destination
+     * @param port le port de destination
+     * @return le lien sur le socket
+     */
+    private static Lien connecte(String machineName, int port) throws IOException {
+        System.out.println("Connexion en cours avec le port " + port + " de " + machineName + "...");
+        return Lien.de(new Socket(machineName, port));
+    }
+
+    /**
+     * Envoie la trame C avec les paramètres proposés et attend la trame C de réponse de Receiver.
+     * @param propose les paramètres proposés
+     * @return les paramètres retenus par Receiver
+     * @throws IOException si Receiver ne répond pas
+     */
+    private ParametresConnexion negocie(ParametresConnexion propose) throws IOException {
+        Trame demande = new Trame(TrameType.C, (byte) 0, propose.toBytes());
+        TrameVue reponse = new TrameVue();
+        for (int essai = 0; essai < ESSAIS_CONNEXION; essai++) {
+            hdlc.envoieTrame(demande);
+            long envoi = System.nanoTime();
+            long debut = System.currentTimeMillis();
+            long attente;
+            while ((attente = TIMEOUT - (System.currentTimeMillis() - debut)) > 0) {
+                try {
+                    if (!hdlc.recoitTrame(reponse, (int) attente)) break;
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                if (reception != null && (reponse.getType() != TrameType.C || reponse.getNum() == 0)) {
+                    //Full-duplex : l'autre extrémité négocie aussi son sens d'envoi et peut déjà envoyer ses trames
+                    recoitDuPair(reponse);
+                    envoieReponses();
+                    hdlc.vide();
+                    continue;
+                }
+                if (reponse.getType() != TrameType.C || !reponse.crcValide()) continue;
+                ParametresConnexion retenus = ParametresConnexion.fromBytes(reponse.copieDonnees());
+                if (retenus == null) continue;
+                //Le premier échange donne une première mesure du RTT (pas en cas de réémission, selon Karn)
+                if (essai == 0) estimateur.mesure(System.nanoTime() - envoi);
+                return retenus;
+            }
+        }
+        throw new IOException("Aucune réponse de Receiver à la demande de connexion");
+    }
+
+    /**
+     * Envoie le contenu du fichier, octet pour octet, en trames de frameSizeMax octets
+     * (sauf la dernière, et moins si la compression est négociée), puis la trame de fin.
+     * Le fichier est projeté en mémoire par fenêtres de tailleProjection octets : un fichier
+     * de plusieurs Go n'est jamais chargé en entier dans le tas.
+     * Si la reprise est négociée, l'envoi commence au point de reprise donné par Receiver :
+     * les octets qu'il a déjà reçus lors d'une connexion précédente ne sont pas renvoyés.
+     * Le fichier doit alors être celui annoncé dans la proposition (ParametresConnexion.avecReprise).
+     * @param fileName le fichier à envoyer
+     * @throws IOException
+     */
     public void createFrame(String fileName) throws IOException {
         
         // Ouvrir le fichier pour lecture
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
-        
-        // Lire les données tant qu'il en reste dans le fichier
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sendFrame(line.getBytes());
+        try (FileChannel fichier = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long taille = fichier.size();
+            long depart = Math.max(0, parametres.getReprise());
+            if (parametres.getTailleSource() >= 0 && (taille != parametres.getTailleSource()
+                    || Files.getLastModifiedTime(Paths.get(fileName)).toMillis() != parametres.getDateSource())) {
+                //Le point de reprise de Receiver porte sur le fichier annoncé, pas sur celui-ci
+                throw new IOException("Le fichier " + fileName + " n'est pas celui annoncé pour la reprise");
+            }
+            if (depart > taille) {
+                throw new IOException("Point de reprise au-delà de la fin du fichier : " + depart + " > " + taille);
+            }
+            if (depart > 0) System.out.println("Reprise du transfert à l'octet " + depart + " sur " + taille);
+            
+            // Lire les données tant qu'il en reste dans le fichier, une fenêtre projetée à la fois
+            for (long debut = depart; debut < taille; debut += tailleProjection) {
+                MappedByteBuffer projection = fichier.map(FileChannel.MapMode.READ_ONLY, debut,
+                        Math.min(tailleProjection, taille - debut));
+                envoie(projection);
+            }
         }
-        
-        reader.close();
+        termine();
+    }
+
+    /**
+     * Envoie les données restantes d'une source en trames d'information, sans attendre
+     * l'acquittement des dernières (utilisé aussi par EnvoiMultilien, bloc par bloc).
+     * @param source la source des données, lue de sa position à sa limite
+     * @throws IOException si la connexion est perdue
+     */
+    void envoie(ByteBuffer source) throws IOException {
+        while (source.hasRemaining() || !preparees.isEmpty()) {
+            //Les trames suivantes sont préparées avant d'attendre la fenêtre : elles s'encodent pendant l'attente
+            while (preparees.size() < Math.max(1, PROFONDEUR_PIPELINE) && source.hasRemaining()) {
+                preparees.addLast(prepare(source));
+            }
+            sendFrame(preparees.poll());
+        }
+    }
+
+    /**
+     * Attend que toutes les trames envoyées soient acquittées
+     * @throws IOException si la connexion est perdue avant
+     */
+    void attendAcquittements() throws IOException {
+        attendFenetre(0);
+    }
+
+    /**
+     * Termine le transfert : attend l'acquittement de toutes les trames, envoie la trame de fin
+     * et ferme la connexion.
+     * @throws IOException si la connexion est perdue avant
+     */
+    void termine() throws IOException {
+        if (compresseur != null) compresseur.ferme(); //Les réémissions reprennent les données déjà compressées
+
+        // Attendre que toutes les trames soient acquittées
+        attendFenetre(0);
         
         // Ajout d'une trame pour la fin de communication
-        Trame endFrame = new Trame(TrameType.F, frameNum++, new byte[0]);
+        Trame endFrame = Trame.controle(TrameType.F, frameNum);
         hdlc.envoieTrame(endFrame);
+        if (reception != null) attendFinReception(endFrame);
 
         // Fermer la connexion après l'envoi de la trame de fin
+        ferme = true;
+        verrou.lock();
+        try {
+            armeTimer(); //Plus de trame en attente : annule l'expiration programmée
+        } finally {
+            verrou.unlock();
+        }
         hdlc.fermeConnection();
+        if (reception != null) {
+            verrou.lock();
+            try {
+                reception.ferme();
+            } finally {
+                verrou.unlock();
+            }
+            metriquesReception.ferme();
+        }
+        System.out.println("Transfert terminé : " + estimateur);
+        System.out.println(metriques.instantane());
+    }
+
+    /**
+     * Ferme la connexion sans trame de fin, après la perte du lien : les trames non acquittées
+     * sont abandonnées.
+     */
+    void abandonne() {
+        ferme = true;
+        preparees.clear();
+        verrou.lock();
+        try {
+            armeTimer(); //Annule l'expiration programmée
+        } finally {
+            verrou.unlock();
+        }
+        if (compresseur != null) compresseur.ferme();
+        try {
+            hdlc.fermeConnection();
+        } catch (IOException e) {
+            //Le lien est déjà perdu
+        }
+    }
+
+    /**
+     * Nombre d'octets de la source acquittés depuis le début de la connexion
+     * @return le nombre d'octets acquittés (avant compression)
+     */
+    long getOctetsAcquittes() {
+        return metriques.getOctetsUtiles();
+    }
+
+    /**
+     * Accesseur de metriques
+     * @return les métriques de la connexion
+     */
+    Metriques getMetriques() {
+        return metriques;
     }
     
-    private void sendFrame(byte[] data) throws IOException {
-        int dataLength = data.length;
-        int position = 0;
+    /**
+     * Prépare la prochaine trame d'information dans un emplacement réutilisé : ses données sont
+     * copiées (ou compressées) de la source, puis son encodage est confié au pool d'encodage.
+     * Si les trames portent N(R), elles sont encodées à chaque envoi (voir envoie(TrameEnvoyee)).
+     * @param source la source des données, lue à partir de sa position jusqu'à frameSizeMax octets
+     *               (davantage si elles sont compressées)
+     * @return l'emplacement de la trame
+     */
+    private TrameEnvoyee prepare(ByteBuffer source) {
+        TrameEnvoyee envoyee;
+        verrou.lock();
+        try {
+            envoyee = libres.isEmpty() ? new TrameEnvoyee(entete + parametres.getTailleTrame(), entete == 0, fec,
+                    parametres.getTailleFcs(), metriques) : libres.poll();
+        } finally {
+            verrou.unlock();
+        }
+        int debut = source.position();
+        int taille;
+        if (compresseur == null) {
+            taille = Math.min(frameSizeMax, source.remaining());
+            source.get(envoyee.donne, entete, taille);
+        } else {
+            taille = compresseur.remplit(source, envoyee.donne, entete);
+        }
+        envoyee.remplit(numPrepare, entete + taille, source.position() - debut);
+        numPrepare = (byte) ((numPrepare + 1) % modulo);
+        if (entete == 0) {
+            if (PROFONDEUR_PIPELINE == 0) envoyee.invoke();
+            else ENCODAGE.execute(envoyee);
+        }
+        return envoyee;
+    }
 
-        while (position < dataLength) {
-            if(frameNum == 8) frameNum = 0;
-            int chunkSize = Math.min(FRAME_SIZE_MAX, dataLength - position);
-            byte[] chunkData = new byte[chunkSize];
-            System.arraycopy(data, position, chunkData, 0, chunkSize);
-
-            // Crée une trame d'information et envoie la trame
-            Trame trame = new Trame(TrameType.I, frameNum++, chunkData);
-            hdlc.envoieTrame(trame);
-
-            // Attente de l'ACK ou REJ
-            long startTime = System.currentTimeMillis();
-            boolean ackReceived = false;
-            while (System.currentTimeMillis() - startTime < TIMEOUT) {
-                Trame ack = hdlc.recoitTrame();
-                if (ack != null && ack.getType() == TrameType.A && ack.getNum() == trame.getNum()) {
-                    ackReceived = true;
-                    break;
-                } else if (ack != null && ack.getType() == TrameType.R) {
-                    // Si REJ est reçu, envoyer la trame à nouveau
-                    System.out.println("REJ pour la trame " + trame.getNum() + ", renvoi...");
-                    hdlc.envoieTrame(trame);
+    /**
+     * Envoie une trame préparée, après avoir attendu une place dans la fenêtre et la fin de son encodage.
+     * @param envoyee l'emplacement de la trame
+     */
+    private void sendFrame(TrameEnvoyee envoyee) throws IOException {
+        // Attente d'une place dans la fenêtre
+        attendFenetre(tailleFenetre - 1);
+
+        if (entete == 0) envoyee.join();
+        envoyee.instantEnvoi = System.nanoTime();
+        verrou.lock();
+        try {
+            frameNum = (byte) ((envoyee.num + 1) % modulo);
+            nonAcquittees.addLast(envoyee);
+            if (nonAcquittees.size() == 1) armeTimer();
+        } finally {
+            verrou.unlock();
+        }
+        envoie(envoyee);
+    }
+
+    /**
+     * Envoie (ou réémet) la trame d'information d'un emplacement
+     * @param envoyee l'emplacement de la trame
+     */
+    private void envoie(TrameEnvoyee envoyee) throws IOException {
+        if (entete == 1) {
+            //La trame porte l'acquittement courant du sens inverse : les ACK seuls en attente deviennent inutiles
+            byte nr;
+            verrou.lock();
+            try {
+                nr = reception == null ? SessionReception.AUCUN_ACQUITTEMENT : reception.prendAcquittement();
+                reponses.removeIf(reponse -> reponse.getType() == TrameType.A);
+            } finally {
+                verrou.unlock();
+            }
+            envoyee.donne[0] = nr;
+            envoyee.ajouteParite();
+            int crc = Trame.calculerCRC(checksum, TrameType.I, envoyee.num, envoyee.donne, 0, envoyee.taille);
+            hdlc.envoieTrame(TrameType.I, envoyee.num, envoyee.donne, 0, envoyee.taille, crc, checksum.taille());
+        } else {
+            hdlc.envoieEncodee(TrameType.I, envoyee.num, envoyee.encodee, envoyee.tailleEncodee, envoyee.taille,
+                    checksum.taille());
+        }
+    }
+
+    /**
+     * Sortie de la réception en full-duplex : la réponse est confiée au thread d'envoi
+     * @param trame la trame de réponse
+     */
+    private void repond(Trame trame) {
+        verrou.lock();
+        try {
+            reponses.addLast(trame);
+            fenetreModifiee.signalAll();
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Envoie les réponses de la réception en attente, avec l'ACK retardé si son échéance est atteinte.
+     * Appelée par le thread d'envoi, sans tenir le verrou.
+     */
+    private void envoieReponses() throws IOException {
+        if (reception == null) return;
+        verrou.lock();
+        try {
+            if (reception.acquittementEnAttente() && System.nanoTime() - reception.getEcheanceAcquittement() >= 0) {
+                reception.acquitte(); //Aucune trame I n'est partie à temps pour le porter : l'ACK part seul
+            }
+            reponsesAEnvoyer.addAll(reponses);
+            reponses.clear();
+        } finally {
+            verrou.unlock();
+        }
+        for (Trame trame : reponsesAEnvoyer) hdlc.envoieTrame(trame);
+        reponsesAEnvoyer.clear();
+    }
+
+    /**
+     * Attend un signal du lecteur d'acquittements ou du timer, au plus delai nanosecondes
+     * et au plus jusqu'à l'échéance de l'ACK retardé de la réception. Doit être appelée en tenant le verrou.
+     * @param delai le temps d'attente maximal en nanosecondes, Long.MAX_VALUE pour attendre sans limite
+     */
+    private void attend(long delai) throws InterruptedIOException {
+        if (reception != null && reception.acquittementEnAttente()) {
+            delai = Math.min(delai, reception.getEcheanceAcquittement() - System.nanoTime());
+        }
+        try {
+            if (delai == Long.MAX_VALUE) fenetreModifiee.await();
+            else if (delai > 0) fenetreModifiee.awaitNanos(delai);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attente d'acquittement interrompue");
+        }
+    }
+
+    /**
+     * En full-duplex, après l'envoi de la trame de fin, attend la fin de communication de l'autre
+     * extrémité en continuant d'envoyer les réponses de la réception. La trame de fin n'est pas
+     * acquittée : elle est réémise à chaque délai de retransmission, pour que l'autre extrémité
+     * ne l'attende pas indéfiniment si elle est perdue.
+     * @param fin la trame de fin
+     */
+    private void attendFinReception(Trame fin) throws IOException {
+        long echeance = System.nanoTime() + estimateur.getRto();
+        while (true) {
+            boolean termine = false;
+            boolean reemetFin = false;
+            boolean vide = false;
+            verrou.lock();
+            try {
+                long maintenant = System.nanoTime();
+                if (finReception || connexionPerdue) {
+                    termine = true;
+                } else if (maintenant - echeance >= 0) {
+                    reemetFin = true;
+                    echeance = maintenant + estimateur.getRto();
+                } else if (hdlc.aVider()) {
+                    vide = true; //Les ACK du lot en cours partent avant l'attente
+                } else if (reponses.isEmpty()) {
+                    attend(echeance - maintenant);
                 }
+            } finally {
+                verrou.unlock();
             }
+            if (vide) hdlc.vide();
+            envoieReponses();
+            if (reemetFin) hdlc.envoieTrame(fin);
+            if (termine) return;
+        }
+    }
 
-            if (!ackReceived) {
-                System.out.println("Délai dépassé, nouvel envoi de la trame " + trame.getNum());
-                hdlc.envoieTrame(trame);  // Renvoi la trame si le délai a expiré
+    /**
+     * En full-duplex, passe à la réception les trames I, C et F de l'autre extrémité
+     * et retire de la fenêtre les trames acquittées par le N(R) porté par une trame I.
+     * @param trame la trame reçue
+     * @return vrai si la trame était destinée à la réception
+     */
+    private boolean recoitDuPair(TrameVue trame) throws IOException {
+        TrameType type = trame.getType();
+        if (type != TrameType.I && type != TrameType.C && type != TrameType.F) return false;
+        if (type == TrameType.C && trame.getNum() != 0) return true; //Réponse répétée à notre demande de connexion
+        verrou.lock();
+        try {
+            if (!reception.traite(trame)) finReception = true;
+            int nr = reception.getAcquittementRecu();
+            if (type == TrameType.I && nr >= 0) {
+                Traceur.evenement(Traceur.Evenement.ACK, hdlc.getSession(), TrameType.I, (byte) nr, 0);
+                acquitteJusqua((byte) nr, true);
+            }
+            fenetreModifiee.signalAll();
+        } finally {
+            verrou.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Attend que le nombre de trames non acquittées descende à tailleMax.
+     * Avant et pendant l'attente, réémet les trames demandées par un REJ ou un SREJ, ou dont le délai a expiré.
+     * L'attente est passive : le thread est réveillé par le lecteur d'acquittements ou par le timer.
+     * Seul ce thread écrit sur le socket : les trames à réémettre sont copiées sous le verrou
+     * puis envoyées après l'avoir relâché. Le lot de trames en cours est écrit avant d'attendre.
+     * @param tailleMax le nombre de trames non acquittées à atteindre
+     */
+    private void attendFenetre(int tailleMax) throws IOException {
+        while (true) {
+            aReemettre.clear();
+            boolean atteinte = false;
+            boolean vide = false;
+            verrou.lock();
+            try {
+                if (reprise != -1) {
+                    //Go-Back-N : on réémet toutes les trames non acquittées, à partir de la trame rejetée
+                    for (TrameEnvoyee envoyee : nonAcquittees) aReemettre.add(envoyee.marqueReemise());
+                    reprise = -1;
+                    armeTimer();
+                } else if (!rejetsSelectifs.isEmpty()) {
+                    //SREJ : on réémet seulement les trames demandées qui ne sont pas encore acquittées
+                    for (byte num : rejetsSelectifs) {
+                        for (TrameEnvoyee envoyee : nonAcquittees) {
+                            if (envoyee.num == num) aReemettre.add(envoyee.marqueReemise());
+                        }
+                    }
+                    rejetsSelectifs.clear();
+                } else if (expire) {
+                    metriques.expirations.increment();
+                    Traceur.evenement(Traceur.Evenement.EXPIRATION, hdlc.getSession(), TrameType.I,
+                            nonAcquittees.peekFirst().num, nonAcquittees.peekFirst().taille);
+                    //Délai dépassé : toute la fenêtre en Go-Back-N. En SREJ, la plus ancienne trame et les
+                    //trames déjà réémises depuis plus d'un RTO : leur SREJ n'est pas répété, la réémission est perdue
+                    if (parametres.isRejetSelectif()) {
+                        long limite = System.nanoTime() - estimateur.getRto();
+                        for (TrameEnvoyee envoyee : nonAcquittees) {
+                            if (envoyee == nonAcquittees.peekFirst() || (envoyee.reemise && envoyee.instantEnvoi - limite <= 0)) {
+                                aReemettre.add(envoyee.marqueReemise());
+                            }
+                        }
+                    }
+                    else for (TrameEnvoyee envoyee : nonAcquittees) aReemettre.add(envoyee.marqueReemise());
+                    expire = false;
+                    estimateur.backoff();
+                    armeTimer();
+                } else if (nonAcquittees.size() <= tailleMax) {
+                    atteinte = true;
+                } else if (connexionPerdue) {
+                    throw new IOException("Connexion fermée avant l'acquittement de toutes les trames");
+                } else if (hdlc.aVider()) {
+                    vide = true; //Le lot en cours part avant l'attente : les acquittements en dépendent
+                } else if (reponses.isEmpty()) {
+                    long debutAttente = System.nanoTime();
+                    try {
+                        attend(Long.MAX_VALUE);
+                    } finally {
+                        metriques.attenteFenetre.add(System.nanoTime() - debutAttente);
+                    }
+                }
+            } finally {
+                verrou.unlock();
+            }
+            if (vide) hdlc.vide();
+            envoieReponses();
+            for (TrameEnvoyee envoyee : aReemettre) {
+                metriques.reemissions.increment();
+                Traceur.evenement(Traceur.Evenement.REEMISSION, hdlc.getSession(), TrameType.I, envoyee.num, envoyee.taille);
+                envoie(envoyee); //Un emplacement acquitté entre-temps n'est réutilisé que par ce thread, plus tard
+            }
+            if (atteinte) return;
+        }
+    }
+
+    /**
+     * (Ré)arme le timer de retransmission pour la plus ancienne trame non acquittée,
+     * ou l'arrête s'il n'y a plus de trame en attente. Doit être appelée en tenant le verrou.
+     */
+    private void armeTimer() {
+        if (expirationProgrammee != null) expirationProgrammee.cancel(false);
+        expirationProgrammee = null;
+        expire = false;
+        long generation = ++generationTimer;
+        if (nonAcquittees.isEmpty() || ferme) return;
+        expirationProgrammee = TIMER.schedule(() -> {
+            verrou.lock();
+            try {
+                if (generation != generationTimer) return; //Timer réarmé entre-temps
+                expire = true;
+                fenetreModifiee.signalAll();
+            } finally {
+                verrou.unlock();
+            }
+        }, estimateur.getRto(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Accesseur du dernier RTT mesuré
+     * @return le dernier RTT mesuré en millisecondes, ou -1 avant la première mesure
+     */
+    public double getRtt() {
+        long rtt = estimateur.getDernierRtt();
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    /**
+     * Accesseur du RTT lissé
+     * @return le RTT lissé en millisecondes, ou -1 avant la première mesure
+     */
+    public double getRttLisse() {
+        long srtt = estimateur.getSrtt();
+        return srtt < 0 ? -1 : srtt / 1e6;
+    }
+
+    /**
+     * Accesseur du délai de retransmission courant
+     * @return le RTO en millisecondes
+     */
+    public double getRto() {
+        return estimateur.getRto() / 1e6;
+    }
+
+    /**
+     * Boucle du thread lecteur : reçoit les ACK et les REJ et met à jour la fenêtre.
+     */
+    private void lisAcquittements() {
+        try {
+            TrameVue trame = new TrameVue(); //Repositionnée sur chaque acquittement, sans copie
+            while (hdlc.recoitTrame(trame, 0)) { //0 : sans le délai de lecture de la négociation
+                if (reception != null && recoitDuPair(trame)) continue;
+
+                if (!trame.crcValide()) { //Acquittement corrompu, on l'ignore
+                    metriques.erreursCRC.increment();
+                    Traceur.evenement(Traceur.Evenement.CRC_INVALIDE, hdlc.getSession(), trame.getType(), trame.getNum(), 0);
+                    continue;
+                }
+
+                if (trame.getType() == TrameType.A) {
+                    hdlc.str_ACK(trame);
+                    verrou.lock();
+                    try {
+                        //ACK cumulatif : la trame Num et toutes celles envoyées avant sont acquittées
+                        if (acquitteJusqua(trame.getNum(), true)) fenetreModifiee.signalAll();
+                    } finally {
+                        verrou.unlock();
+                    }
+                } else if (trame.getType() == TrameType.R) {
+                    hdlc.str_REJ(trame);
+                    verrou.lock();
+                    try {
+                        //REJ : les trames envoyées avant Num sont acquittées, on réémet à partir de Num
+                        acquitteJusqua(trame.getNum(), false);
+                        if (!nonAcquittees.isEmpty() && nonAcquittees.peekFirst().num == trame.getNum()) {
+                            reprise = trame.getNum();
+                        }
+                        fenetreModifiee.signalAll();
+                    } finally {
+                        verrou.unlock();
+                    }
+                } else if (trame.getType() == TrameType.S) {
+                    metriques.srejRecus.increment();
+                    Traceur.evenement(Traceur.Evenement.SREJ, hdlc.getSession(), trame.getType(), trame.getNum(), 0);
+                    verrou.lock();
+                    try {
+                        rejetsSelectifs.add(trame.getNum());
+                        fenetreModifiee.signalAll();
+                    } finally {
+                        verrou.unlock();
+                    }
+                }
             }
+        } catch (IOException e) {
+            if (!ferme) e.printStackTrace();
+        }
+        metriques.ferme(); //La connexion est terminée : elle n'est plus exposée en JMX
+        //Plus aucun acquittement ne viendra : on réveille l'envoi pour qu'il ne reste pas bloqué
+        verrou.lock();
+        try {
+            connexionPerdue = true;
+            fenetreModifiee.signalAll();
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Retire de la fenêtre les trames acquittées. Doit être appelée en tenant le verrou.
+     * Un numéro qui ne correspond à aucune trame de la fenêtre (acquittement en double) est ignoré.
+     * @param num le numéro de trame reçu dans l'acquittement
+     * @param inclus vrai si la trame num est elle-même acquittée (ACK), faux sinon (REJ)
+     * @return vrai si au moins une trame a été acquittée
+     */
+    private boolean acquitteJusqua(byte num, boolean inclus) {
+        int position = 0;
+        for (TrameEnvoyee envoyee : nonAcquittees) {
+            if (envoyee.num == num) break;
+            position++;
+        }
+        if (position == nonAcquittees.size()) {
+            //num n'est pas dans la fenêtre : pour un REJ, num peut être la prochaine trame à envoyer
+            if (inclus || num != frameNum) return false;
+        } else if (inclus) {
+            position++;
+        }
+        TrameEnvoyee derniere = null;
+        boolean reemise = false;
+        for (int i = 0; i < position; i++) {
+            derniere = nonAcquittees.removeFirst();
+            reemise |= derniere.reemise;
+            libres.addLast(derniere);
+            metriques.octetsUtiles.add(derniere.octetsFichier);
+        }
+        if (derniere == null) return false;
+        //Karn : seule une trame envoyée une seule fois donne une mesure fiable du RTT. Si une trame précédente
+        //a été réémise, la dernière a pu attendre la réparation du trou chez le récepteur (SREJ) : pas de mesure
+        if (inclus && !reemise) {
+            long rtt = System.nanoTime() - derniere.instantEnvoi;
+            estimateur.mesure(rtt);
+            metriques.rtt.enregistre(rtt);
+        } else {
+            estimateur.annuleBackoff();
+        }
+        armeTimer();
+        return true;
+    }
+
+    /**
+     * Emplacement d'une trame préparée ou envoyée et pas encore acquittée, avec sa trame encodée et
+     * l'instant de son dernier envoi. L'emplacement est aussi la tâche qui encode la trame dans le pool
+     * d'encodage. Une fois la trame acquittée, l'emplacement et ses tableaux servent à une autre trame.
+     */
+    private static final class TrameEnvoyee extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Les données de la trame, à lire sur taille octets, précédées de N(R) si les acquittements sont portés
+         * et suivies de la parité si la correction d'erreurs est négociée
+         */
+        final byte[] donne;
+
+        /** La trame encodée (flags et bit stuffing compris), à lire sur tailleEncodee octets, ou null si elle porte N(R) */
+        final byte[] encodee;
+
+        /** Tampon d'écriture de la trame encodée, sur le tableau encodee */
+        private final ByteBuffer tamponEncodee;
+
+        /** Encodeur de bit stuffing de l'emplacement : les trames sont encodées en parallèle */
+        private final BitStuffing encodeur = new BitStuffing();
+
+        /** Calculateur du FCS de l'emplacement */
+        private final Fcs checksum;
+
+        /** Code correcteur de la connexion, ou null */
+        private final ReedSolomon fec;
+
+        /** Métriques de la connexion, pour le temps d'encodage */
+        private final Metriques metriques;
+
+        /** Nombre d'octets de données, parité comprise */
+        int taille;
+
+        /** Nombre d'octets de données avant la parité */
+        private int longueur;
+
+        /** Nombre d'octets de la trame encodée */
+        int tailleEncodee;
+
+        /** Nombre d'octets du fichier portés par la trame (plus que ses données si elles sont compressées) */
+        int octetsFichier;
+
+        /** Le numéro de la trame */
+        byte num;
+
+        /** Instant du dernier envoi (System.nanoTime) */
+        long instantEnvoi;
+
+        /** Vrai si la trame a été envoyée plus d'une fois */
+        boolean reemise;
+
+        /**
+         * Constructeur de TrameEnvoyee.
+         * @param capacite la taille du champ Données négociée pour la connexion
+         * @param encodeeAvance vrai si la trame est encodée d'avance, faux si elle porte N(R)
+         * @param fec le code correcteur de la connexion, ou null
+         * @param tailleFcs le nombre de bytes du FCS négocié
+         * @param metriques les métriques de la connexion
+         */
+        TrameEnvoyee(int capacite, boolean encodeeAvance, ReedSolomon fec, int tailleFcs, Metriques metriques) {
+            this.donne = new byte[capacite];
+            this.encodee = encodeeAvance ? new byte[Trame.tailleMaxEncodee(capacite)] : null;
+            this.tamponEncodee = encodeeAvance ? ByteBuffer.wrap(encodee) : null;
+            this.fec = fec;
+            this.checksum = new Fcs(tailleFcs);
+            this.metriques = metriques;
+        }
+
+        /**
+         * Prépare l'emplacement pour une nouvelle trame, dont les données sont déjà copiées dans donne
+         * @param num le numéro de la trame
+         * @param longueur le nombre d'octets de données, sans la parité
+         * @param octetsFichier le nombre d'octets du fichier portés par la trame
+         */
+        void remplit(byte num, int longueur, int octetsFichier) {
+            reinitialize(); //La tâche d'encodage de la trame précédente est terminée depuis son envoi
+            this.num = num;
+            this.longueur = longueur;
+            this.taille = fec == null ? longueur : longueur + fec.parite(longueur);
+            this.octetsFichier = octetsFichier;
+            this.reemise = false;
+        }
+
+        /**
+         * Calcule la parité de la trame et l'écrit après ses données, si la correction d'erreurs est négociée
+         */
+        void ajouteParite() {
+            if (fec != null) fec.encode(num, donne, longueur);
+        }
+
+        /**
+         * Encode la trame : calcule sa parité et son CRC et la convertit en bytes prêts à être envoyés
+         */
+        @Override
+        protected void compute() {
+            long debut = System.nanoTime();
+            ajouteParite();
+            int crc = Trame.calculerCRC(checksum, TrameType.I, num, donne, 0, taille);
+            tamponEncodee.clear();
+            tailleEncodee = Trame.encode(tamponEncodee, encodeur, TrameType.I, num, donne, 0, taille, crc, checksum.taille());
+            metriques.encodage.enregistre(System.nanoTime() - debut);
+        }
 
-            position += chunkSize;
+        /**
+         * Marque la trame comme réémise maintenant
+         * @return l'emplacement de la trame à réémettre
+         */
+        TrameEnvoyee marqueReemise() {
+            reemise = true;
+            instantEnvoi = System.nanoTime();
+            return this;
         }
     }
 }
-      
\ No newline at end of file
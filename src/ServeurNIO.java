@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * ServeurNIO reçoit des transferts HDLC de plusieurs émetteurs à la fois sur un seul port.
+ * Un thread accepte les connexions et les répartit à tour de rôle entre quelques boucles
+ * d'événements ; chaque boucle gère ses sessions avec un Selector et des canaux non bloquants.
+ * Chaque session a son propre Deframeur, sa propre SessionReception (numéro attendu,
+ * tampon de réordonnancement) et son propre puits de données.
+ */
+public class ServeurNIO {
+
+    /** Taille du tampon de lecture partagé par les sessions d'une boucle */
+    private static final int TAILLE_LECTURE = 64 * 1024;
+
+    /** Canal d'écoute du serveur */
+    private final ServerSocketChannel serveur;
+
+    /** Boucles d'événements qui gèrent les sessions */
+    private final Boucle[] boucles;
+
+    /** Paramètres maximaux acceptés lors de la négociation de chaque connexion */
+    private final ParametresConnexion supportes;
+
+    /** Crée le puits de données d'une session à partir de son numéro */
+    private final LongFunction<PuitsDonnees> fabriquePuits;
+
+    /** Numéro de la prochaine session acceptée */
+    private final AtomicLong prochaineSession = new AtomicLong();
+
+    /** Nombre de sessions ouvertes */
+    private final AtomicLong sessionsOuvertes = new AtomicLong();
+
+    /**
+     * Constructeur de ServeurNIO.
+     * @param port le port d'écoute
+     * @param nbBoucles le nombre de boucles d'événements (threads)
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param fabriquePuits crée le puits de données de chaque session à partir de son numéro
+     * @throws IOException
+     */
+    public ServeurNIO(int port, int nbBoucles, ParametresConnexion supportes,
+                      LongFunction<PuitsDonnees> fabriquePuits) throws IOException {
+        this.supportes = supportes;
+        this.fabriquePuits = fabriquePuits;
+        this.serveur = ServerSocketChannel.open();
+        this.serveur.bind(new InetSocketAddress(port), 1024);
+        this.boucles = new Boucle[nbBoucles];
+        for (int i = 0; i < nbBoucles; i++) {
+            boucles[i] = new Boucle(i);
+        }
+    }
+
+    /**
+     * Démarre les boucles d'événements puis accepte les connexions jusqu'à la fermeture du serveur.
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        for (Boucle boucle : boucles) {
+            boucle.thread.start();
+        }
+        System.out.println("Serveur NIO en attente de connexions sur " + serveur.getLocalAddress()
+                + " (" + boucles.length + " boucles)");
+        int suivante = 0;
+        try {
+            while (serveur.isOpen()) {
+                SocketChannel canal = serveur.accept(); //Le canal d'écoute reste bloquant
+                canal.configureBlocking(false);
+                canal.socket().setTcpNoDelay(true);
+                boucles[suivante].ajoute(canal);
+                suivante = (suivante + 1) % boucles.length;
+            }
+        } catch (ClosedChannelException e) {
+            //Serveur fermé par ferme()
+        }
+    }
+
+    /** Ferme le serveur et toutes les sessions */
+    public void ferme() throws IOException {
+        serveur.close();
+        for (Boucle boucle : boucles) {
+            boucle.selector.close();
+        }
+    }
+
+    /**
+     * Accesseur de sessionsOuvertes
+     * @return le nombre de sessions ouvertes
+     */
+    public long getSessionsOuvertes() {
+        return sessionsOuvertes.get();
+    }
+
+    /**
+     * Une boucle d'événements : un thread et un Selector pour un ensemble de sessions.
+     */
+    private final class Boucle implements Runnable {
+        /** Selector des canaux de cette boucle */
+        final Selector selector;
+
+        /** Thread de la boucle */
+        final Thread thread;
+
+        /** Canaux acceptés en attente d'enregistrement dans le Selector */
+        private final ConcurrentLinkedQueue<SocketChannel> nouveaux = new ConcurrentLinkedQueue<>();
+
+        /** Tampon de lecture partagé par toutes les sessions de la boucle */
+        private final ByteBuffer lecture = ByteBuffer.allocate(TAILLE_LECTURE);
+
+        /** Tampon direct dans lequel les réponses de la session en cours de lecture sont encodées à la suite */
+        private final ByteBuffer ecriture = ByteBuffer.allocateDirect(Trame.tailleMaxEncodee(HDLC.TAILLE_DONNEES_MAX));
+
+        /** Encodeur de bit stuffing partagé par les sessions de la boucle */
+        private final BitStuffing encodeur = new BitStuffing();
+
+        /** Vue repositionnée sur chaque trame reçue par les sessions de la boucle */
+        private final TrameVue vue = new TrameVue();
+
+        Boucle(int numero) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "ServeurNIO-boucle-" + numero);
+        }
+
+        /**
+         * Confie un canal accepté à cette boucle. Le canal est enregistré par le thread de la boucle.
+         * @param canal le canal accepté
+         */
+        void ajoute(SocketChannel canal) {
+            nouveaux.add(canal);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    SocketChannel canal;
+                    while ((canal = nouveaux.poll()) != null) {
+                        ouvre(canal);
+                    }
+                    Iterator<SelectionKey> cles = selector.selectedKeys().iterator();
+                    while (cles.hasNext()) {
+                        SelectionKey cle = cles.next();
+                        cles.remove();
+                        Session session = (Session) cle.attachment();
+                        try {
+                            if (cle.isValid() && cle.isWritable()) session.ecritEnAttente(cle);
+                            if (cle.isValid() && cle.isReadable()) session.lit(cle);
+                        } catch (IOException e) {
+                            session.ferme(cle);
+                        } catch (RuntimeException e) {
+                            //Erreur d'un puits ou d'un cas imprévu : seule cette session est perdue, pas la boucle
+                            System.out.println("Session " + session.numero + " interrompue : " + e);
+                            e.printStackTrace();
+                            session.ferme(cle);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                //Selector fermé par ferme()
+            }
+        }
+
+        /**
+         * Crée la session d'un canal accepté et l'enregistre dans le Selector.
+         * Si la session ne peut pas être créée (puits impossible à ouvrir, canal déjà fermé...),
+         * seul ce canal est fermé : la boucle continue pour les autres sessions.
+         * @param canal le canal accepté
+         */
+        private void ouvre(SocketChannel canal) {
+            long numero = prochaineSession.getAndIncrement();
+            Session session = null;
+            try {
+                session = new Session(this, canal, numero);
+                canal.register(selector, SelectionKey.OP_READ, session);
+                sessionsOuvertes.incrementAndGet();
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Session " + numero + " refusée : " + e.getMessage());
+                if (session != null) {
+                    session.libere();
+                } else {
+                    try {
+                        canal.close();
+                    } catch (IOException f) {
+                        //Canal déjà fermé
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Une session : l'état de réception d'une connexion et ses réponses en attente d'écriture.
+     */
+    private final class Session {
+        /** Boucle qui gère la session, dont les tampons sont partagés */
+        private final Boucle boucle;
+
+        /** Canal de la connexion */
+        private final SocketChannel canal;
+
+        /** Découpe les bytes reçus en trames */
+        private final Deframeur deframeur = new Deframeur(HDLC.TAILLE_DONNEES_MAX);
+
+        /** État de réception (numéro attendu, tampon de réordonnancement, puits) */
+        private final SessionReception reception;
+
+        /** Réponses encodées pas encore écrites sur le canal */
+        private final ArrayDeque<ByteBuffer> aEcrire = new ArrayDeque<>();
+
+        /** Clé du canal dans le Selector, connue après l'enregistrement */
+        private SelectionKey cle;
+
+        /** Métriques de la session, exposées en JMX tant qu'elle est ouverte */
+        private final Metriques metriques = new Metriques("ServeurNIO", Traceur.nouvelleSession());
+
+        /** Numéro de la session, donné au puits */
+        private final long numero;
+
+        /** Numéro de la session dans la trace */
+        private final int numeroTrace = metriques.getSession();
+
+        /** Vrai une fois la session fermée */
+        private boolean fermee = false;
+
+        Session(Boucle boucle, SocketChannel canal, long numero) {
+            this.boucle = boucle;
+            this.canal = canal;
+            this.numero = numero;
+            this.reception = new SessionReception(supportes, this::envoie, fabriquePuits.apply(numero), metriques);
+            this.deframeur.mesureDecodage(metriques.decodage);
+            metriques.enregistre();
+        }
+
+        /**
+         * Lit les bytes disponibles et traite les trames complètes
+         * @param cle la clé du canal
+         */
+        void lit(SelectionKey cle) throws IOException {
+            this.cle = cle;
+            ByteBuffer lecture = boucle.lecture;
+            lecture.clear();
+            boucle.ecriture.clear();
+            int bytesLus = canal.read(lecture);
+            if (bytesLus == -1) { //Connexion fermée par l'émetteur
+                ferme(cle);
+                return;
+            }
+            deframeur.alimente(lecture.array(), 0, bytesLus);
+            while (deframeur.prochaine(boucle.vue)) {
+                TrameVue trame = boucle.vue;
+                metriques.tramesRecues.increment();
+                Traceur.evenement(Traceur.Evenement.RECEPTION, numeroTrace, trame.getType(), trame.getNum(), trame.tailleDonnees());
+                if (!reception.traite(trame)) { //La communication est fini
+                    ecrit();
+                    ferme(cle);
+                    return;
+                }
+            }
+            //Un seul ACK cumulatif pour toutes les trames de cette lecture (la boucle n'a pas de timer par session)
+            reception.acquitte();
+            ecrit();
+        }
+
+        /**
+         * Envoie une trame de réponse : elle est encodée dans le tampon direct de la boucle, à la suite
+         * des autres réponses de la lecture en cours, qui sont toutes écrites en un seul appel à la fin
+         * de la lecture (voir ecrit).
+         * @param trame la trame à envoyer
+         */
+        void envoie(Trame trame) throws IOException {
+            ByteBuffer tampon = boucle.ecriture;
+            if (tampon.remaining() < Trame.tailleMaxEncodee(trame.getDonne().length)) ecrit();
+            long debutEncodage = System.nanoTime();
+            int taille = trame.encode(tampon, boucle.encodeur);
+            metriques.encodage.enregistre(System.nanoTime() - debutEncodage);
+            metriques.tramesEnvoyees.increment();
+            metriques.octetsEnvoyes.add(taille);
+            metriques.octetsBitStuffing.add(taille - trame.getDonne().length - 2 - Trame.TAILLE_MIN_CONTENU);
+            Traceur.evenement(Traceur.Evenement.ENVOI, numeroTrace, trame.getType(), trame.getNum(), trame.getDonne().length);
+        }
+
+        /**
+         * Écrit en un seul appel les réponses encodées dans le tampon de la boucle, si le canal
+         * les accepte ; sinon le reste est copié et attend que le canal soit prêt en écriture.
+         */
+        private void ecrit() throws IOException {
+            ByteBuffer tampon = boucle.ecriture;
+            tampon.flip();
+            if (tampon.hasRemaining()) {
+                metriques.ecritures.increment();
+                if (aEcrire.isEmpty()) canal.write(tampon);
+                if (tampon.hasRemaining()) {
+                    aEcrire.add(ByteBuffer.allocate(tampon.remaining()).put(tampon).flip());
+                    cle.interestOps(cle.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+            tampon.clear();
+        }
+
+        /**
+         * Écrit les réponses en attente en une écriture groupée (writev), puis arrête de surveiller
+         * l'écriture quand il n'y en a plus
+         * @param cle la clé du canal
+         */
+        void ecritEnAttente(SelectionKey cle) throws IOException {
+            canal.write(aEcrire.toArray(new ByteBuffer[0]));
+            metriques.ecritures.increment();
+            while (!aEcrire.isEmpty() && !aEcrire.peek().hasRemaining()) aEcrire.poll();
+            if (!aEcrire.isEmpty()) return;
+            cle.interestOps(cle.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Ferme la session et son canal
+         * @param cle la clé du canal
+         */
+        void ferme(SelectionKey cle) {
+            if (fermee) return;
+            cle.cancel();
+            sessionsOuvertes.decrementAndGet();
+            libere();
+        }
+
+        /**
+         * Libère la session sans toucher au Selector : métriques, puits et canal
+         */
+        void libere() {
+            if (fermee) return;
+            fermee = true;
+            metriques.ferme();
+            try {
+                reception.ferme();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            try {
+                canal.close();
+            } catch (IOException e) {
+                //Canal déjà fermé
+            }
+        }
+    }
+
+    /**
+     * Lance un serveur NIO. Sans répertoire de sortie, les données reçues sont ignorées ;
+     * sinon chaque session écrit son fichier session-N.dat dans ce répertoire.
+     * @param args port, nombre de boucles et répertoire de sortie
+     *             (par défaut 12345, le nombre de processeurs et aucun répertoire)
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 12345;
+        int nbBoucles = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        LongFunction<PuitsDonnees> fabriquePuits = numero -> PuitsDonnees.IGNORE;
+        if (args.length > 2) {
+            Path repertoire = Paths.get(args[2]);
+            fabriquePuits = numero -> {
+                try {
+                    return new PuitsFichier(repertoire.resolve("session-" + numero + ".dat"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+        new ServeurNIO(port, nbBoucles, ParametresConnexion.maximaux(),
+                fabriquePuits).start();
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * ServeurThreads accepte les connexions en continu et exécute chacune dans son propre thread
+ * avec la boucle bloquante de Receiver. Avec ModeExecution.VIRTUEL, chaque session a un thread
+ * virtuel : le code reste bloquant mais une attente sur le socket ne retient pas de thread du système.
+ * C'est l'alternative simple à ServeurNIO.
+ */
+public class ServeurThreads {
+
+    /** Socket d'écoute du serveur */
+    private final ServerSocket serveur;
+
+    /** Crée le thread de chaque session */
+    private final ThreadFactory fabrique;
+
+    /** Paramètres maximaux acceptés lors de la négociation de chaque connexion */
+    private final ParametresConnexion supportes;
+
+    /** Crée le puits de données d'une session à partir de son numéro */
+    private final LongFunction<PuitsDonnees> fabriquePuits;
+
+    /** Numéro de la prochaine session acceptée */
+    private final AtomicLong prochaineSession = new AtomicLong();
+
+    /** Nombre de sessions ouvertes */
+    private final AtomicLong sessionsOuvertes = new AtomicLong();
+
+    /**
+     * Constructeur de ServeurThreads.
+     * @param port le port d'écoute
+     * @param mode le type de thread qui exécute chaque session
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param fabriquePuits crée le puits de données de chaque session à partir de son numéro
+     * @throws IOException
+     */
+    public ServeurThreads(int port, ModeExecution mode, ParametresConnexion supportes,
+                          LongFunction<PuitsDonnees> fabriquePuits) throws IOException {
+        this.serveur = new ServerSocket(port, 1024);
+        this.fabrique = mode.fabrique("Receiver");
+        this.supportes = supportes;
+        this.fabriquePuits = fabriquePuits;
+    }
+
+    /**
+     * Accepte les connexions jusqu'à la fermeture du serveur
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        System.out.println("Serveur en attente de connexions sur le port " + serveur.getLocalPort());
+        try {
+            while (!serveur.isClosed()) {
+                Socket socket = serveur.accept();
+                socket.setTcpNoDelay(true);
+                long numero = prochaineSession.getAndIncrement();
+                sessionsOuvertes.incrementAndGet();
+                fabrique.newThread(() -> session(socket, numero)).start();
+            }
+        } catch (SocketException e) {
+            if (!serveur.isClosed()) throw e;
+        }
+    }
+
+    /**
+     * Exécute une session avec la boucle de réception de Receiver
+     * @param socket le socket de la session
+     * @param numero le numéro de la session
+     */
+    private void session(Socket socket, long numero) {
+        try {
+            new Receiver(socket, supportes, fabriquePuits.apply(numero)).start();
+        } catch (IOException e) {
+            System.out.println("Session " + numero + " interrompue : " + e.getMessage());
+        } finally {
+            sessionsOuvertes.decrementAndGet();
+        }
+    }
+
+    /** Ferme le serveur ; les sessions en cours se terminent normalement */
+    public void ferme() throws IOException {
+        serveur.close();
+    }
+
+    /**
+     * Accesseur de sessionsOuvertes
+     * @return le nombre de sessions ouvertes
+     */
+    public long getSessionsOuvertes() {
+        return sessionsOuvertes.get();
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.IOException;
+
+/**
+ * SessionReception contient l'état de réception d'une connexion : paramètres négociés,
+ * numéro de trame attendu, tampon de réordonnancement et puits des données reçues.
+ * Elle ne lit ni n'écrit sur le réseau : les trames lui sont passées par traite et ses réponses
+ * (ACK, REJ, SREJ, C) sont confiées à une Sortie. Elle peut donc servir aussi bien à Receiver
+ * (flux bloquants) qu'au serveur NIO.
+ * Les trames lui sont passées sous forme de TrameVue : seules les trames reçues en avance
+ * sont copiées, et les réponses sont des trames de contrôle partagées (Trame.controle).
+ * Les ACK sont retardés et cumulatifs : un ACK couvre toutes les trames acceptées depuis le précédent
+ * et part dès que seuilAcquittement trames attendent, ou quand son échéance est atteinte
+ * (c'est au propriétaire de la session d'appeler acquitte, voir getEcheanceAcquittement).
+ * Une trame hors séquence, dupliquée ou erronée est signalée tout de suite.
+ * Si la compression est négociée, les données acceptées sont décompressées avant d'aller au puits.
+ * Si la correction d'erreurs est négociée, une trame I erronée est d'abord corrigée avec sa parité
+ * Reed-Solomon (voir ReedSolomon) ; elle n'est rejetée que si la correction échoue.
+ * Les trames I sont vérifiées avec le FCS négocié (CRC-16 ou CRC-32C, voir Fcs).
+ * Si la reprise du transfert est négociée, la réponse à la trame C porte le point de reprise du puits
+ * (voir PuitsDonnees).
+ */
+class SessionReception {
+
+    /**
+     * Sortie des trames de réponse de la session
+     */
+    interface Sortie {
+        /**
+         * Envoie une trame de réponse à l'émetteur
+         * @param trame la trame à envoyer
+         */
+        void envoie(Trame trame) throws IOException;
+    }
+
+    /**
+     * Délai maximal d'un ACK retardé, en millisecondes (propriété hdlc.ack.delai).
+     * 0 : un ACK par trame acceptée, sans attente.
+     */
+    static final int DELAI_ACQUITTEMENT = Integer.getInteger("hdlc.ack.delai", 2);
+
+    /**
+     * Nombre maximal de trames acceptées couvertes par un même ACK (propriété hdlc.ack.trames),
+     * limité à la moitié de la fenêtre pour que l'émetteur ne soit jamais bloqué par un ACK retardé.
+     */
+    static final int TRAMES_PAR_ACQUITTEMENT = Integer.getInteger("hdlc.ack.trames", 8);
+
+    /** Valeur de N(R) quand aucune trame n'a encore été acceptée */
+    static final byte AUCUN_ACQUITTEMENT = (byte) 0xFF;
+
+    /** Destination des trames de réponse */
+    private final Sortie sortie;
+
+    /** Destination des données des trames acceptées, dans l'ordre */
+    private final PuitsDonnees puits;
+
+    /** Métriques de la session */
+    private final Metriques metriques;
+
+    /** Numéro de la session dans la trace */
+    private final int session;
+
+    /** Paramètres maximaux acceptés lors de la négociation de la connexion */
+    private final ParametresConnexion supportes;
+
+    /** Paramètres de la connexion en cours (par défaut tant qu'aucune trame C n'est reçue) */
+    private ParametresConnexion parametres = ParametresConnexion.defaut();
+
+    /** Vrai dès qu'une trame I a été acceptée : les paramètres ne peuvent plus être renégociés */
+    private boolean donneesRecues = false;
+
+    /** Numéro de la prochaine trame attendue */
+    private byte numTrameAttendu = 0;
+
+    /** Un seul REJ par trame attendue, les trames suivantes seront réémises de toute façon */
+    private boolean rejEnvoye = false;
+
+    /** Trames valides reçues en avance en rejet sélectif, indexées par numéro */
+    private final Trame[] tamponReordonnancement = new Trame[ParametresConnexion.MODULO_ETENDU];
+
+    /** Numéros pour lesquels un SREJ a été envoyé et dont la trame n'est pas encore reçue */
+    private final boolean[] srejEnvoye = new boolean[ParametresConnexion.MODULO_ETENDU];
+
+    /** Nombre de trames acceptées qui déclenche l'envoi de l'ACK sans attendre son échéance */
+    private int seuilAcquittement = seuil(parametres);
+
+    /** Trames acceptées depuis le dernier acquittement envoyé (ou porté par une trame I) */
+    private int nonAcquittees = 0;
+
+    /** Instant (System.nanoTime) avant lequel l'ACK en attente doit partir */
+    private long echeanceAcquittement;
+
+    /** N(R) porté par la dernière trame I valide traitée, ou -1 */
+    private int acquittementRecu = -1;
+
+    /** Décompresseur des données acceptées, ou null si la compression n'est pas négociée */
+    private Decompresseur decompresseur;
+
+    /** Code correcteur des trames I, ou null si la correction d'erreurs n'est pas négociée */
+    private ReedSolomon fec;
+
+    /** Calculateur du FCS négocié des trames I */
+    private Fcs fcs = new Fcs(Fcs.CRC16);
+
+    /**
+     * Constructeur de SessionReception.
+     * @param supportes les paramètres maximaux acceptés lors de la négociation
+     * @param sortie la destination des trames de réponse
+     * @param puits la destination des données reçues
+     * @param metriques les métriques de la session (son numéro sert aussi dans la trace)
+     */
+    SessionReception(ParametresConnexion supportes, Sortie sortie, PuitsDonnees puits, Metriques metriques) {
+        this.metriques = metriques;
+        this.session = metriques.getSession();
+        this.supportes = supportes;
+        this.sortie = sortie;
+        this.puits = puits;
+    }
+
+    /**
+     * Traite une trame reçue. La vue n'est pas conservée après l'appel.
+     * @param trame la trame reçue
+     * @return false si la trame termine la communication (F), true sinon
+     */
+    boolean traite(TrameVue trame) throws IOException {
+        if (trame.getType() == TrameType.F) { //La communication est fini
+            if (!trame.crcValide()) return true; //Trame altérée : la fermeture de la connexion suivra
+            System.out.println("Fin de communication reçue."); 
+            return false;
+        }
+
+        if (trame.getType() == TrameType.C) { //Demande de connexion
+            negocie(trame);
+        } else if (trame.getType() == TrameType.I) {
+            acquittementRecu = -1;
+            if (!trame.fcs(fcs)) return true; //Trame I trop courte pour son FCS : mal formée
+            if (fec != null) corrige(trame);
+            if (parametres.isRejetSelectif()) traiteSelectif(trame);
+            else traiteGoBackN(trame);
+        }
+        return true;
+    }
+
+    /**
+     * Indique si des trames acceptées attendent leur ACK
+     * @return vrai si un ACK retardé est en attente
+     */
+    boolean acquittementEnAttente() {
+        return nonAcquittees > 0;
+    }
+
+    /**
+     * Accesseur de echeanceAcquittement
+     * @return l'instant (System.nanoTime) avant lequel l'ACK en attente doit partir
+     */
+    long getEcheanceAcquittement() {
+        return echeanceAcquittement;
+    }
+
+    /**
+     * Temps restant avant l'échéance de l'ACK en attente, pour borner une lecture bloquante
+     * @return le délai en millisecondes (au moins 1), ou 0 si aucun ACK n'est en attente
+     */
+    int delaiAcquittement() {
+        if (nonAcquittees == 0) return 0;
+        long restant = echeanceAcquittement - System.nanoTime();
+        return (int) Math.max(1, (restant + 999_999) / 1_000_000);
+    }
+
+    /**
+     * Envoie tout de suite l'ACK en attente, s'il y en a un
+     */
+    void acquitte() throws IOException {
+        if (nonAcquittees > 0) envoieACK(dernierAccepte());
+    }
+
+    /**
+     * Donne le N(R) à porter dans une trame I du sens inverse : le numéro de la dernière trame acceptée.
+     * L'ACK en attente est alors considéré comme envoyé.
+     * @return le numéro de la dernière trame acceptée, ou AUCUN_ACQUITTEMENT
+     */
+    byte prendAcquittement() {
+        nonAcquittees = 0;
+        return donneesRecues ? dernierAccepte() : AUCUN_ACQUITTEMENT;
+    }
+
+    /**
+     * Accesseur de acquittementRecu
+     * @return le N(R) porté par la dernière trame I valide traitée, ou -1 (pas d'acquittement porté)
+     */
+    int getAcquittementRecu() {
+        return acquittementRecu;
+    }
+
+    /**
+     * Termine la session : ferme le puits des données reçues
+     */
+    void ferme() throws IOException {
+        if (decompresseur != null) decompresseur.ferme();
+        puits.ferme();
+    }
+
+    /**
+     * Traite une trame en Go-Back-N : seule la trame attendue est acceptée,
+     * toute autre trame provoque un REJ du numéro attendu.
+     * @param trame la trame reçue.
+     */
+    private void traiteGoBackN(TrameVue trame) throws IOException {
+        if (checkTrame(trame, numTrameAttendu)) { //On vérifie que la trame est valide
+            int entete = entete();
+            accepte(trame.getNum(), trame.tableau(), trame.debutDonnees() + entete, tailleUtile(trame.tailleDonnees()) - entete);
+            acquitteOuDiffere();
+        } 
+        else if (!rejEnvoye) {
+            //Le REJ porte le numero attendu : Sender réémet à partir de cette trame (Go-Back-N)
+            //Il acquitte aussi les trames d'avant : l'ACK en attente devient inutile
+            Trame rejTrame = Trame.controle(TrameType.R, numTrameAttendu);
+            sortie.envoie(rejTrame); //Envoie de REJ
+            rejEnvoye = true;
+            nonAcquittees = 0;
+        }
+    }
+
+    /**
+     * Traite une trame en rejet sélectif : une trame valide arrivée en avance est conservée
+     * dans le tampon de réordonnancement et seules les trames manquantes sont redemandées (SREJ).
+     * Les trames conservées sont acceptées dès que les trames manquantes arrivent.
+     * @param trame la trame reçue.
+     */
+    private void traiteSelectif(TrameVue trame) throws IOException {
+        if (!trame.crcValide()) {
+            metriques.erreursCRC.increment();
+            //Le numéro d'une trame erronée n'est pas fiable : on redemande la trame attendue
+            Traceur.evenement(Traceur.Evenement.CRC_INVALIDE, session, trame.getType(), trame.getNum(), trame.tailleDonnees());
+            acquitte();
+            demandeSelectif(numTrameAttendu);
+            return;
+        }
+        if (tailleUtile(trame.tailleDonnees()) < entete()) return; //Trame I sans N(R) : mal formée
+        noteAcquittementPorte(trame);
+
+        int modulo = parametres.getModulo();
+        if (trame.getNum() < 0 || trame.getNum() >= modulo) return; //Numéro hors de la numérotation négociée
+        int avance = Math.floorMod(trame.getNum() - numTrameAttendu, modulo);
+
+        if (avance >= parametres.getTailleFenetre()) {
+            //Trame déjà acceptée (son ACK a été perdu) : on confirme le dernier numéro accepté
+            envoieACK((byte) Math.floorMod(numTrameAttendu - 1, modulo));
+            return;
+        }
+
+        if (avance > 0) {
+            //Trame en avance : on la conserve et on redemande chaque trame manquante avant elle
+            metriques.horsSequence.increment();
+            Traceur.evenement(Traceur.Evenement.HORS_SEQUENCE, session, trame.getType(), trame.getNum(),
+                    numTrameAttendu, trame.tailleDonnees());
+            //Une trame déjà conservée est une réémission après expiration : les réémissions demandées
+            //avant elle et toujours manquantes sont perdues, on les redemande
+            boolean reemission = tamponReordonnancement[trame.getNum()] != null;
+            tamponReordonnancement[trame.getNum()] = trame.versTrame(); //La vue ne survit pas à l'appel
+            acquitte();
+            for (int i = 0; i < avance; i++) {
+                int num = (numTrameAttendu + i) % modulo;
+                if (tamponReordonnancement[num] != null) continue;
+                if (reemission) srejEnvoye[num] = false;
+                demandeSelectif((byte) num);
+            }
+            return;
+        }
+
+        //Trame attendue : on l'accepte avec toutes les trames consécutives déjà reçues
+        int entete = entete();
+        accepte(trame.getNum(), trame.tableau(), trame.debutDonnees() + entete, tailleUtile(trame.tailleDonnees()) - entete);
+        Trame suivante;
+        while ((suivante = tamponReordonnancement[numTrameAttendu]) != null) {
+            tamponReordonnancement[numTrameAttendu] = null;
+            accepte(suivante.getNum(), suivante.getDonne(), entete, tailleUtile(suivante.getDonne().length) - entete);
+        }
+        acquitteOuDiffere();
+    }
+
+    /**
+     * Corrige sur place, avec sa parité, une trame I dont le CRC est incorrect. Si la correction échoue,
+     * la trame reste erronée et elle est rejetée comme sans correction d'erreurs.
+     * La trame corrigée n'est acceptée que si son CRC est alors valide : il reste le seul contrôle
+     * indépendant de la parité. Si la parité ne trouve aucune erreur alors que le CRC est incorrect
+     * (CRC altéré, ou erreurs qui forment un autre mot de code valide), la trame est donc rejetée.
+     * @param trame la trame reçue
+     */
+    private void corrige(TrameVue trame) {
+        if (trame.crcValide()) return;
+        int corriges = fec.corrige(trame.tableau(), trame.debutDonnees() - 1, trame.tailleDonnees());
+        if (corriges <= 0 || !trame.crcValide()) return;
+        metriques.corrections.increment();
+        Traceur.evenement(Traceur.Evenement.CORRECTION, session, trame.getType(), trame.getNum(),
+                (byte) Math.min(corriges, Byte.MAX_VALUE), trame.tailleDonnees());
+    }
+
+    /**
+     * Nombre de bytes de données d'une trame I reçue, sans la parité de la correction d'erreurs
+     * @param tailleDonnees la taille du champ Données reçu
+     * @return le nombre de bytes de données, ou -1 si la taille ne correspond pas à la parité négociée
+     */
+    private int tailleUtile(int tailleDonnees) {
+        return fec == null ? tailleDonnees : fec.longueur(tailleDonnees);
+    }
+
+    /**
+     * Accepte une trame valide et passe au numéro de trame suivant
+     * @param num le numéro de la trame acceptée.
+     * @param donne le tableau contenant les données de la trame.
+     * @param off l'indice du premier byte des données.
+     * @param len le nombre de bytes de données.
+     */
+    private void accepte(byte num, byte[] donne, int off, int len) throws IOException {
+        if (decompresseur == null) puits.ecrit(donne, off, len);
+        else len = decompresseur.decompresse(donne, off, len, puits);
+        metriques.octetsUtiles.add(len);
+        srejEnvoye[num] = false;
+        nonAcquittees++;
+        //On incremente le numero de trame attendu (modulo 8 sur 3 bits, ou 128 sur 7 bits en mode étendu)
+        numTrameAttendu = (byte) ((numTrameAttendu + 1) % parametres.getModulo());
+        rejEnvoye = false;
+        donneesRecues = true;
+    }
+
+    /**
+     * Envoie l'ACK des trames acceptées si elles atteignent le seuil, sinon le retarde
+     * (au plus DELAI_ACQUITTEMENT millisecondes après la première trame non acquittée)
+     */
+    private void acquitteOuDiffere() throws IOException {
+        if (nonAcquittees >= seuilAcquittement) {
+            envoieACK(dernierAccepte());
+        } else if (nonAcquittees == 1) {
+            echeanceAcquittement = System.nanoTime() + DELAI_ACQUITTEMENT * 1_000_000L;
+        }
+    }
+
+    /**
+     * Envoie un ACK cumulatif : la trame num et toutes celles avant elle sont acceptées
+     * @param num le numéro de la dernière trame acceptée.
+     */
+    private void envoieACK(byte num) throws IOException {
+        Trame ackTrame = Trame.controle(TrameType.A, num);
+        sortie.envoie(ackTrame); //Envoie de l'ACK
+        nonAcquittees = 0;
+    }
+
+    /**
+     * @return le numéro de la dernière trame acceptée
+     */
+    private byte dernierAccepte() {
+        return (byte) Math.floorMod(numTrameAttendu - 1, parametres.getModulo());
+    }
+
+    /**
+     * @return le nombre de bytes en tête des données d'une trame I (1 si elles portent N(R), 0 sinon)
+     */
+    private int entete() {
+        return parametres.isAcquittementPorte() ? 1 : 0;
+    }
+
+    /**
+     * Note le N(R) porté par une trame I valide, si la connexion porte les acquittements
+     * @param trame la trame reçue, dont le CRC est valide
+     */
+    private void noteAcquittementPorte(TrameVue trame) {
+        if (!parametres.isAcquittementPorte() || tailleUtile(trame.tailleDonnees()) <= 0) return;
+        byte nr = trame.tableau()[trame.debutDonnees()];
+        if (nr != AUCUN_ACQUITTEMENT) acquittementRecu = nr;
+    }
+
+    /**
+     * Nombre de trames acceptées à partir duquel l'ACK part sans attendre
+     * @param parametres les paramètres de la connexion
+     * @return le seuil, au moins 1
+     */
+    private static int seuil(ParametresConnexion parametres) {
+        if (DELAI_ACQUITTEMENT <= 0) return 1;
+        return Math.max(1, Math.min(TRAMES_PAR_ACQUITTEMENT, parametres.getTailleFenetre() / 2));
+    }
+
+    /**
+     * Envoie un SREJ pour la trame num, une seule fois tant qu'elle n'est pas reçue
+     * @param num le numéro de la trame manquante.
+     */
+    private void demandeSelectif(byte num) throws IOException {
+        if (srejEnvoye[num]) return;
+        sortie.envoie(Trame.controle(TrameType.S, num));
+        srejEnvoye[num] = true;
+    }
+
+    /**
+     * Répond à une trame C par une trame C contenant les paramètres retenus.
+     * Une trame C répétée (réponse perdue) reçoit la même réponse ; une fois des
+     * trames I acceptées, les paramètres ne peuvent plus changer.
+     * Le puits fixe le début de la réception : son point de reprise si la reprise est retenue, le début sinon.
+     * @param trame la trame C reçue.
+     */
+    private void negocie(TrameVue trame) throws IOException {
+        if (!trame.crcValide()) return; //Sender renverra la demande
+        ParametresConnexion propose = ParametresConnexion.fromBytes(trame.copieDonnees());
+        if (propose == null) return;
+        if (!donneesRecues) {
+            parametres = propose.accepte(supportes);
+            seuilAcquittement = seuil(parametres);
+            if (decompresseur != null) decompresseur.ferme();
+            decompresseur = parametres.isCompression() ? new Decompresseur() : null;
+            fec = parametres.getFec() > 0 ? new ReedSolomon(parametres.getFec()) : null;
+            fcs = new Fcs(parametres.getTailleFcs());
+            long reprise = puits.reprend(parametres);
+            if (parametres.isReprise()) parametres = parametres.avecPointReprise(reprise);
+        }
+        //Le numéro 1 distingue la réponse d'une demande (num 0), en full-duplex les deux extrémités en envoient
+        sortie.envoie(new Trame(TrameType.C, (byte) 1, parametres.toBytes()));
+        System.out.println("Connexion négociée : " + parametres);
+    }
+
+    /**
+     * Vérifie si le CRC est correct et si le numéro de trame correspond à celui attendu.
+     * @param trame la trame à valider.
+     * @param numTrameAttendu le numéro de trame attendu.
+     * @return true si la trame est valide, false sinon.
+     */
+    private boolean checkTrame(TrameVue trame, byte numTrameAttendu) {
+        if (!trame.crcValide()) {
+            metriques.erreursCRC.increment();
+            Traceur.evenement(Traceur.Evenement.CRC_INVALIDE, session, trame.getType(), trame.getNum(), trame.tailleDonnees());
+            return false;
+        }
+        if (tailleUtile(trame.tailleDonnees()) < entete()) return false; //Trame I sans N(R) : mal formée
+        noteAcquittementPorte(trame);
+        if (trame.getNum() != numTrameAttendu) {
+            metriques.horsSequence.increment();
+            Traceur.evenement(Traceur.Evenement.HORS_SEQUENCE, session, trame.getType(), trame.getNum(),
+                    numTrameAttendu, trame.tailleDonnees());
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,125 +1,823 @@
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tests de Sender et Receiver sur un lien émulé en mémoire (LienEmule) : aucun socket, et les
+ * erreurs, pertes, duplications et réordonnancements sont tirés avec une graine fixe.
+ * Chaque test vérifie que Receiver a reçu exactement le contenu du fichier envoyé.
+ */
 public class Test {
 
-    private static final Random rand = new Random();
+    /** Graine des tirages du lien émulé */
+    private static final long GRAINE = 3325;
+
+    /** Fichier envoyé par les tests */
+    private static final String FICHIER_TEST = "test.txt";
+
+    /** Nombre de tests échoués */
+    private static int echecs = 0;
 
     /**
      * Main pour tester les classes Sender et Receiver.
      */
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws Exception {
         System.out.println("Démarrage des tests HDLC...");
 
         // 1. Test simple d'envoi et de réception sans erreur
-        //testEnvoiReception();
+        testEnvoiReception();
 
-        // 3. Test avec erreur d'un bit
+        // 2. Test avec erreurs de bits
         testErreurBit();
 
-        System.out.println("Tous les tests terminés.");
+        // 3. Test avec pertes de trames
+        testPerteTrame();
+
+        // 4. Test avec duplication et réordonnancement
+        testDuplicationReordonnancement();
+
+        // 5. Débit utile de Go-Back-N et du rejet sélectif sur un lien longue distance
+        testDebitUtile();
+
+        // 6. Taille de trame négociée
+        testTailleTrame();
+
+        // 7. Compression des données
+        testCompression();
+
+        // 8. Correction d'erreurs
+        testCorrectionErreurs();
+
+        // 9. Encodage d'avance des trames et réémission des trames encodées
+        testEncodageAnticipe();
+
+        // 10. ACK retardés et cumulatifs
+        testAcquittementsGroupes();
+
+        // 11. Écritures des trames par lots
+        testEcrituresGroupees();
+
+        // 12. Transfert dans les deux sens avec acquittements portés
+        testFullDuplex();
+
+        // 13. Transfert réparti sur plusieurs liens
+        testMultilien();
+
+        // 14. Séquence de contrôle CRC-32C des grandes trames
+        testFcs();
+
+        // 15. Reprise d'un transfert interrompu
+        testReprise();
+
+        System.out.println(echecs == 0 ? "Tous les tests terminés." : echecs + " test(s) échoué(s).");
+        if (echecs > 0) System.exit(1);
     }
 
     /**
      * Test simple : Envoi et réception sans erreur.
      */
-    public static void testEnvoiReception() throws IOException {
+    public static void testEnvoiReception() throws Exception {
         System.out.println("=== Test Envoi/Réception ===");
+        verifie("sans erreur", new LienEmule.Conditions(), ParametresConnexion.defaut());
+    }
 
-        String fichierTest = "../test.txt";
+    /**
+     * Test avec des bits inversés au hasard : les trames touchées ont un CRC incorrect et sont réémises.
+     */
+    public static void testErreurBit() throws Exception {
+        System.out.println("=== Test avec Erreur de Bit ===");
+        LienEmule.Conditions conditions = new LienEmule.Conditions().tauxErreurBit(1e-4);
+        verifie("erreurs de bits, Go-Back-N", conditions, ParametresConnexion.defaut());
+        verifie("erreurs de bits, rejet sélectif", conditions,
+                new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true));
+    }
 
-        int port = 12345; // Port local
-        new Thread(() -> {
-            try {
-                Receiver receiver = new Receiver(port);
-                receiver.start();
-            } 
-            catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Test avec des trames perdues dans les deux sens (trames I et acquittements).
+     */
+    public static void testPerteTrame() throws Exception {
+        System.out.println("=== Test avec Perte de Trame ===");
+        LienEmule.Conditions conditions = new LienEmule.Conditions().delai(1).perte(0.05);
+        verifie("pertes, Go-Back-N", conditions, ParametresConnexion.defaut());
+        verifie("pertes, rejet sélectif", conditions, new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true));
+    }
+
+    /**
+     * Test avec des trames reçues deux fois ou après les suivantes.
+     */
+    public static void testDuplicationReordonnancement() throws Exception {
+        System.out.println("=== Test avec Duplication et Réordonnancement ===");
+        LienEmule.Conditions conditions = new LienEmule.Conditions().delai(1).duplication(0.05).reordonnancement(0.05);
+        verifie("duplication et réordonnancement, Go-Back-N", conditions, ParametresConnexion.defaut());
+        verifie("duplication et réordonnancement, rejet sélectif", conditions,
+                new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true));
+    }
+
+    /**
+     * Compare le débit utile de Go-Back-N et du rejet sélectif sur un lien longue distance
+     * (10 Mb/s, 20 ms de propagation) pour plusieurs taux d'erreur binaire.
+     */
+    public static void testDebitUtile() throws Exception {
+        System.out.println("=== Débit utile sur un lien longue distance ===");
+        Path fichier = fichierAleatoire(256 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
+
+        System.out.println("ber;mode;duree_ms;debit_ko_s");
+        for (double ber : new double[] {0, 1e-6, 1e-5}) {
+            LienEmule.Conditions conditions = new LienEmule.Conditions().debit(10_000_000).delai(20).tauxErreurBit(ber);
+            for (boolean rejetSelectif : new boolean[] {false, true}) {
+                ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, rejetSelectif);
+                long debut = System.nanoTime();
+                ByteArrayOutputStream recu = new ByteArrayOutputStream();
+                transfere(fichier.toString(), new LienEmule(conditions, GRAINE), parametres, recu);
+                double duree = (System.nanoTime() - debut) / 1e9;
+                String mode = rejetSelectif ? "SREJ" : "GBN";
+                if (!Arrays.equals(contenu, recu.toByteArray())) echoue("débit utile " + mode + ", BER " + ber);
+                System.out.println(String.format(Locale.ROOT, "%.0e;%s;%.0f;%.1f",
+                        ber, mode, duree * 1000, contenu.length / 1024.0 / duree));
+            }
+        }
+    }
+
+    /**
+     * Compare le débit utile selon la taille de trame négociée, sur un lien propre et sur un lien
+     * bruité (10 Mb/s, 20 ms de propagation) : les grandes trames réduisent le surcoût par trame,
+     * mais chaque erreur fait réémettre plus de données.
+     */
+    public static void testTailleTrame() throws Exception {
+        System.out.println("=== Débit utile selon la taille de trame ===");
+        Path fichier = fichierAleatoire(1024 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
+
+        System.out.println("ber;taille_trame;trames;duree_ms;debit_ko_s");
+        for (double ber : new double[] {0, 1e-6, 1e-5}) {
+            LienEmule.Conditions conditions = new LienEmule.Conditions().debit(10_000_000).delai(20).tauxErreurBit(ber);
+            for (int tailleTrame : new int[] {ParametresConnexion.TAILLE_TRAME_DEFAUT, 4096, 16384}) {
+                //Au-delà d'une trame erronée sur deux, la plus ancienne trame bloque la fenêtre trop longtemps
+                if (Math.pow(1 - ber, 8.0 * tailleTrame) < 0.5) continue;
+                ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true)
+                        .avecTailleTrame(tailleTrame);
+                LienEmule lien = new LienEmule(conditions, GRAINE);
+                long debut = System.nanoTime();
+                ByteArrayOutputStream recu = new ByteArrayOutputStream();
+                transfere(fichier.toString(), lien, parametres, recu);
+                double duree = (System.nanoTime() - debut) / 1e9;
+                if (!Arrays.equals(contenu, recu.toByteArray())) echoue("taille de trame " + tailleTrame + ", BER " + ber);
+                System.out.println(String.format(Locale.ROOT, "%.0e;%d;%d;%.0f;%.1f",
+                        ber, tailleTrame, lien.getTramesAller(), duree * 1000, contenu.length / 1024.0 / duree));
             }
-        }).start();
+        }
+    }
 
-        Sender sender = new Sender("localhost", port);
-        sender.createFrame(fichierTest);
+    /**
+     * Compare un transfert avec et sans compression sur un lien à 10 Mb/s : un journal texte doit
+     * passer en beaucoup moins de trames, et des données aléatoires (incompressibles) à peine plus.
+     */
+    public static void testCompression() throws Exception {
+        System.out.println("=== Compression des données ===");
+        Random aleatoire = new Random(GRAINE);
+        StringBuilder journal = new StringBuilder();
+        for (int i = 0; journal.length() < 512 * 1024; i++) {
+            journal.append(String.format(Locale.ROOT, "2024-11-28 14:%02d:%02d.%03d INFO Sender - trame %d envoyée, RTT %.3f ms%n",
+                    i / 60000 % 60, i / 1000 % 60, i % 1000, i % 128, 20 + aleatoire.nextGaussian()));
+        }
+        byte[] bruit = new byte[256 * 1024];
+        aleatoire.nextBytes(bruit);
 
-        System.out.println("Test simple terminé.");
+        System.out.println("contenu;compression;trames;duree_ms;debit_ko_s");
+        for (byte[] contenu : new byte[][] {journal.toString().getBytes(StandardCharsets.UTF_8), bruit}) {
+            Path fichier = fichierTemporaire(contenu);
+            String nom = contenu == bruit ? "aleatoire" : "journal";
+            long[] trames = new long[2];
+            for (int i = 0; i < 2; i++) {
+                ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true)
+                        .avecCompression(i == 1);
+                LienEmule lien = new LienEmule(new LienEmule.Conditions().debit(10_000_000).delai(5), GRAINE);
+                long debut = System.nanoTime();
+                ByteArrayOutputStream recu = new ByteArrayOutputStream();
+                transfere(fichier.toString(), lien, parametres, recu);
+                double duree = (System.nanoTime() - debut) / 1e9;
+                if (!Arrays.equals(contenu, recu.toByteArray())) echoue("compression " + (i == 1) + ", " + nom);
+                trames[i] = lien.getTramesAller();
+                System.out.println(String.format(Locale.ROOT, "%s;%b;%d;%.0f;%.1f",
+                        nom, i == 1, trames[i], duree * 1000, contenu.length / 1024.0 / duree));
+            }
+            if (contenu == bruit ? trames[1] > trames[0] * 1.05 : trames[1] * 3 > trames[0]) {
+                echoue("nombre de trames avec compression, " + nom);
+            }
+        }
     }
 
     /**
-     * Test avec une erreur sur un bit d'une trame.
+     * Compare le débit utile avec et sans correction d'erreurs (Reed-Solomon, 8 bytes de parité par bloc)
+     * sur un lien longue distance (10 Mb/s, 20 ms de propagation) pour plusieurs taux d'erreur binaire.
+     * Une trame corrigée par Receiver n'est pas réémise : au plus fort taux d'erreur, il doit y avoir
+     * beaucoup moins de réémissions avec la correction.
      */
-    public static void testErreurBit() throws IOException {
-        System.out.println("=== Test avec Erreur de Bit ===");
+    public static void testCorrectionErreurs() throws Exception {
+        System.out.println("=== Correction d'erreurs ===");
+        Path fichier = fichierAleatoire(256 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
 
-        String fichierTest = "test.txt";
+        System.out.println("ber;mode;fec;trames;reemissions;duree_ms;debit_ko_s");
+        double[] taux = {0, 1e-5, 1e-4};
+        for (double ber : taux) {
+            LienEmule.Conditions conditions = new LienEmule.Conditions().debit(10_000_000).delai(20).tauxErreurBit(ber);
+            for (boolean rejetSelectif : new boolean[] {false, true}) {
+                long[] reemissions = new long[2];
+                for (int i = 0; i < 2; i++) {
+                    int parite = i == 1 ? 8 : 0;
+                    ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, rejetSelectif)
+                            .avecFec(parite);
+                    LienEmule lien = new LienEmule(conditions, GRAINE);
+                    ByteArrayOutputStream recu = new ByteArrayOutputStream();
+                    long debut = System.nanoTime();
+                    Sender sender = transfere(fichier.toString(), lien, parametres, recu);
+                    double duree = (System.nanoTime() - debut) / 1e9;
+                    String mode = rejetSelectif ? "SREJ" : "GBN";
+                    if (!Arrays.equals(contenu, recu.toByteArray())) echoue("correction d'erreurs " + mode + ", parité " + parite + ", BER " + ber);
+                    reemissions[i] = sender.getMetriques().reemissions.sum();
+                    System.out.println(String.format(Locale.ROOT, "%.0e;%s;%d;%d;%d;%.0f;%.1f", ber, mode, parite,
+                            lien.getTramesAller(), reemissions[i], duree * 1000, contenu.length / 1024.0 / duree));
+                }
+                if (ber == taux[taux.length - 1] && reemissions[1] * 2 > reemissions[0]) {
+                    echoue("réémissions avec correction d'erreurs, " + (rejetSelectif ? "SREJ" : "GBN") + ", BER " + ber);
+                }
+            }
+        }
+    }
 
-        int port = 12347; // Nouveau port pour ce test
-        new Thread(() -> {
+    /**
+     * Transfère un fichier sur un lien avec pertes : les trames sont encodées d'avance, une seule fois,
+     * et les réémissions reprennent les bytes déjà encodés. Chaque trame envoyée a donc été encodée,
+     * sauf les réémissions.
+     */
+    public static void testEncodageAnticipe() throws Exception {
+        System.out.println("=== Test Encodage d'avance ===");
+        Path fichier = fichierAleatoire(128 * 1024);
+        byte[] attendu = Files.readAllBytes(fichier);
+        for (boolean rejetSelectif : new boolean[] {false, true}) {
+            String nom = "encodage d'avance, " + (rejetSelectif ? "rejet sélectif" : "Go-Back-N");
+            LienEmule lien = new LienEmule(new LienEmule.Conditions().delai(1).perte(0.05), GRAINE);
+            ByteArrayOutputStream recu = new ByteArrayOutputStream();
+            Sender sender = transfere(fichier.toString(), lien,
+                    new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, rejetSelectif), recu);
+            Metriques metriques = sender.getMetriques();
+            long envoyees = metriques.tramesEnvoyees.sum();
+            long reemises = metriques.reemissions.sum();
+            long encodees = metriques.encodage.getNombre();
+            if (!Arrays.equals(attendu, recu.toByteArray())) echoue(nom + " : données reçues");
+            else if (reemises == 0 || encodees != envoyees - reemises) {
+                echoue(nom + " : " + encodees + " trames encodées pour " + envoyees + " envoyées dont " + reemises + " réémises");
+            } else {
+                System.out.println("OK : " + nom + " (" + encodees + " trames encodées, " + reemises + " réémises sans réencodage)");
+            }
+        }
+    }
+
+    /**
+     * Vérifie que Receiver envoie beaucoup moins d'ACK que Sender n'envoie de trames I :
+     * un ACK cumulatif couvre plusieurs trames.
+     */
+    public static void testAcquittementsGroupes() throws Exception {
+        System.out.println("=== Test ACK retardés et cumulatifs ===");
+        byte[] attendu = Files.readAllBytes(Paths.get(FICHIER_TEST));
+        LienEmule lien = new LienEmule(new LienEmule.Conditions().delai(5), GRAINE);
+        ByteArrayOutputStream recu = new ByteArrayOutputStream();
+        transfere(FICHIER_TEST, lien, new ParametresConnexion(ParametresConnexion.MODULO_ETENDU), recu);
+        System.out.println("Trames envoyées par Sender : " + lien.getTramesAller()
+                + ", par Receiver : " + lien.getTramesRetour());
+        if (!Arrays.equals(attendu, recu.toByteArray())) echoue("ACK groupés : données reçues");
+        else if (lien.getTramesRetour() * 2 > lien.getTramesAller()) echoue("ACK groupés : trop d'ACK");
+        else System.out.println("OK : ACK groupés");
+    }
+
+    /**
+     * Vérifie que Sender écrit ses trames par lots : beaucoup moins d'écritures sur le lien que de
+     * trames envoyées, avec et sans pertes (les REJ et SREJ font écrire les lots plus tôt).
+     */
+    public static void testEcrituresGroupees() throws Exception {
+        System.out.println("=== Test Écritures groupées ===");
+        Path fichier = fichierAleatoire(256 * 1024);
+        byte[] attendu = Files.readAllBytes(fichier);
+        for (LienEmule.Conditions conditions : new LienEmule.Conditions[] {
+                new LienEmule.Conditions().delai(5), new LienEmule.Conditions().delai(5).perte(0.02)}) {
+            String nom = "écritures groupées, " + conditions;
+            ByteArrayOutputStream recu = new ByteArrayOutputStream();
+            Sender sender = transfere(fichier.toString(), new LienEmule(conditions, GRAINE),
+                    new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true), recu);
+            Metriques metriques = sender.getMetriques();
+            long trames = metriques.tramesEnvoyees.sum();
+            long ecritures = metriques.ecritures.sum();
+            if (!Arrays.equals(attendu, recu.toByteArray())) echoue(nom + " : données reçues");
+            else if (ecritures * 4 > trames) echoue(nom + " : " + ecritures + " écritures pour " + trames + " trames");
+            else System.out.println("OK : " + nom + " (" + trames + " trames en " + ecritures + " écritures)");
+        }
+    }
+
+    /**
+     * Deux Sender en full-duplex s'envoient chacun un fichier sur le même lien ; les acquittements
+     * sont portés par les trames I du sens inverse.
+     */
+    public static void testFullDuplex() throws Exception {
+        System.out.println("=== Test Full-duplex ===");
+        byte[] attenduA = Files.readAllBytes(Paths.get(FICHIER_TEST));
+        Path fichierB = fichierAleatoire(64 * 1024);
+        byte[] attenduB = Files.readAllBytes(fichierB);
+
+        for (LienEmule.Conditions conditions : new LienEmule.Conditions[] {
+                new LienEmule.Conditions().delai(2), new LienEmule.Conditions().delai(2).tauxErreurBit(1e-5)}) {
+            LienEmule lien = new LienEmule(conditions, GRAINE);
+            ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true, true);
+            ByteArrayOutputStream recuParA = new ByteArrayOutputStream();
+            ByteArrayOutputStream recuParB = new ByteArrayOutputStream();
+            Exception[] erreur = new Exception[1];
+
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
             try {
-                Receiver receiver = new Receiver(port) {
-                    @Override
-                    public Trame recoitTrame() {
-                        Trame trame = hdlc.recoitTrame();
-                        // Introduce a single-bit error in the frame
-                        if (trame != null && rand.nextBoolean()) {
-                            System.out.println("Receiver: Introducing single-bit error.");
-                            return Test.InverseBitAleatoire(trame);
-                        }
-                        return trame;
+                Thread b = new Thread(() -> {
+                    try {
+                        new Sender(lien.getExtremiteB(), parametres, parametres, recuParB::write).createFrame(fichierB.toString());
+                    } catch (Exception e) {
+                        erreur[0] = e;
                     }
-                };
-                receiver.start();
-            } catch (IOException e) {
-                e.printStackTrace();
+                });
+                b.start();
+                new Sender(lien.getExtremiteA(), parametres, parametres, recuParA::write).createFrame(FICHIER_TEST);
+                b.join();
+            } finally {
+                System.setOut(console);
             }
-        }).start();
 
-        Sender sender = new Sender("localhost", port);
-        sender.createFrame(fichierTest);
+            String nom = "full-duplex, " + conditions;
+            if (erreur[0] != null) echoue(nom + " : " + erreur[0]);
+            else if (!Arrays.equals(attenduA, recuParB.toByteArray()) || !Arrays.equals(attenduB, recuParA.toByteArray())) {
+                echoue(nom);
+            } else {
+                System.out.println("OK : " + nom + " (trames A -> B : " + lien.getTramesAller()
+                        + ", B -> A : " + lien.getTramesRetour() + ")");
+            }
+        }
+    }
 
-        System.out.println("Test erreur de bit terminé.");
+    /**
+     * Envoie FICHIER_TEST sur un lien émulé et vérifie que Receiver a reçu exactement son contenu
+     * @param nom le nom du cas testé
+     * @param conditions les conditions du lien, dans chaque sens
+     * @param parametres les paramètres proposés par Sender
+     */
+    private static void verifie(String nom, LienEmule.Conditions conditions, ParametresConnexion parametres)
+            throws Exception {
+        byte[] attendu = Files.readAllBytes(Paths.get(FICHIER_TEST));
+        ByteArrayOutputStream recu = new ByteArrayOutputStream();
+        transfere(FICHIER_TEST, new LienEmule(conditions, GRAINE), parametres, recu);
+        if (Arrays.equals(attendu, recu.toByteArray())) System.out.println("OK : " + nom);
+        else echoue(nom + " (" + recu.size() + " octets reçus sur " + attendu.length + ")");
     }
 
+    /**
+     * Répartit un transfert sur trois liens à 10 Mb/s : il doit être plus rapide que sur un seul lien.
+     * Puis sur trois liens de débits différents, dont un est coupé pendant le transfert :
+     * ses blocs non acquittés doivent passer par les deux autres.
+     */
+    public static void testMultilien() throws Exception {
+        System.out.println("=== Transfert multilien ===");
+        Path fichier = fichierAleatoire(2 * 1024 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
+        ParametresConnexion parametres = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true)
+                .avecTailleTrame(4096);
 
+        System.out.println("liens;coupure;duree_ms;debit_ko_s");
+        double dureeUnLien = 0;
+        for (int nbLiens : new int[] {1, 3}) {
+            LienEmule.Conditions[] conditions = new LienEmule.Conditions[nbLiens];
+            Arrays.fill(conditions, new LienEmule.Conditions().debit(10_000_000).delai(5));
+            double duree = transfereMultilien(fichier, contenu, conditions, parametres, -1, "multilien " + nbLiens);
+            if (nbLiens == 1) dureeUnLien = duree;
+            else if (duree * 2 > dureeUnLien) echoue("multilien : " + nbLiens + " liens pas plus rapides qu'un seul");
+        }
+        LienEmule.Conditions[] inegaux = {
+                new LienEmule.Conditions().debit(10_000_000).delai(5),
+                new LienEmule.Conditions().debit(5_000_000).delai(10).tauxErreurBit(1e-6),
+                new LienEmule.Conditions().debit(2_000_000).delai(20)};
+        transfereMultilien(fichier, contenu, inegaux, parametres, 300, "multilien avec coupure");
+    }
 
     /**
-     * Inverse un bit aléatoire dans une trame
-     * @param trame La trame à modifier.
-     * @return La trame initiale avec une erreur introduite
+     * Transfère un fichier avec EnvoiMultilien et ReceptionMultilien sur des liens émulés
+     * @param fichier le fichier à envoyer
+     * @param contenu le contenu attendu à l'arrivée
+     * @param conditions les conditions de chaque lien
+     * @param parametres les paramètres proposés pour chaque connexion
+     * @param coupure le délai en millisecondes après lequel le premier lien est coupé, ou -1
+     * @param nom le nom du cas
+     * @return la durée du transfert en secondes
      */
-    public static Trame InverseBitAleatoire(Trame trame) {
-        byte[] donne = trame.getDonne();
-        if (donne.length == 0) return trame;
+    private static double transfereMultilien(Path fichier, byte[] contenu, LienEmule.Conditions[] conditions,
+                                             ParametresConnexion parametres, int coupure, String nom) throws Exception {
+        List<Lien> emetteurs = new ArrayList<>();
+        List<Lien> recepteurs = new ArrayList<>();
+        for (LienEmule.Conditions c : conditions) {
+            LienEmule lien = new LienEmule(c, GRAINE);
+            emetteurs.add(lien.getExtremiteA());
+            recepteurs.add(lien.getExtremiteB());
+        }
+        ByteArrayOutputStream recu = new ByteArrayOutputStream();
+        ReceptionMultilien reception = new ReceptionMultilien(recepteurs, ParametresConnexion.maximaux(), recu::write);
 
-        int byteIndex = rand.nextInt(donne.length); // Byte au hasard
-        donne[byteIndex] ^= (1 << rand.nextInt(8)); // Inversion du bit dans le byte choisi
-        return new Trame(trame.getType(), trame.getNum(), donne);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long debut = System.nanoTime();
+        try {
+            Thread recepteur = new Thread(() -> {
+                try {
+                    reception.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            recepteur.start();
+            EnvoiMultilien envoi = new EnvoiMultilien(emetteurs, parametres);
+            if (coupure >= 0) {
+                Thread coupe = new Thread(() -> {
+                    try {
+                        Thread.sleep(coupure);
+                        emetteurs.get(0).close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                coupe.start();
+            }
+            envoi.envoie(fichier.toString());
+            recepteur.join();
+        } finally {
+            System.setOut(console);
+        }
+        double duree = (System.nanoTime() - debut) / 1e9;
+        if (!Arrays.equals(contenu, recu.toByteArray())) echoue(nom);
+        System.out.println(String.format(Locale.ROOT, "%d;%b;%.0f;%.1f",
+                conditions.length, coupure >= 0, duree * 1000, contenu.length / 1024.0 / duree));
+        return duree;
     }
 
     /**
-     * Simule une perte de trame.
-     * @return null pour simuler une perte de trame.
+     * Transfère un fichier de Sender à Receiver sur un lien émulé. Les messages de Sender et Receiver
+     * sont masqués pendant le transfert.
+     * @param fichier le fichier à envoyer
+     * @param lien le lien émulé, pas encore utilisé
+     * @param parametres les paramètres proposés par Sender
+     * @param recu reçoit les données reçues par Receiver
+     * @return le Sender du transfert, pour lire ses métriques
      */
-    public static Trame PerteTrame() {
-        return null;
+    private static Sender transfere(String fichier, LienEmule lien, ParametresConnexion parametres,
+                                    ByteArrayOutputStream recu) throws Exception {
+        Receiver receiver = new Receiver(lien.getExtremiteB(), ParametresConnexion.maximaux(), recu::write);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Thread recepteur = new Thread(() -> {
+                try {
+                    receiver.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            recepteur.start();
+            Sender sender = new Sender(lien.getExtremiteA(), parametres);
+            sender.createFrame(fichier);
+            recepteur.join();
+            return sender;
+        } finally {
+            System.setOut(console);
+        }
     }
 
     /**
-     * Affiche 
-     * @param frame La trame à afficher.
-     * @param role  Le rôle (Émetteur ou Récepteur).
+     * Crée un fichier de données aléatoires (tirées avec GRAINE), supprimé à la fin des tests
+     * @param taille le nombre d'octets du fichier
+     * @return le chemin du fichier
      */
-    public static void afficheTrame(Trame trame, String role) {
-        if (trame == null) {
-            System.out.println(role + ": Trame perdue.");
+    private static Path fichierAleatoire(int taille) throws IOException {
+        return fichierAleatoire(taille, GRAINE);
+    }
+
+    /**
+     * Crée un fichier de données aléatoires, supprimé à la fin des tests
+     * @param taille le nombre d'octets du fichier
+     * @param graine la graine du tirage des données
+     * @return le chemin du fichier
+     */
+    private static Path fichierAleatoire(int taille, long graine) throws IOException {
+        byte[] contenu = new byte[taille];
+        new Random(graine).nextBytes(contenu);
+        return fichierTemporaire(contenu);
+    }
+
+    /**
+     * Crée un fichier temporaire, supprimé à la fin des tests
+     * @param contenu le contenu du fichier
+     * @return le chemin du fichier
+     */
+    private static Path fichierTemporaire(byte[] contenu) throws IOException {
+        Path fichier = Files.createTempFile("hdlc-test", ".dat");
+        fichier.toFile().deleteOnExit();
+        return Files.write(fichier, contenu);
+    }
+
+    /**
+     * Séquence de contrôle CRC-32C : elle n'est retenue que si les deux extrémités la supportent.
+     * Sur une trame de 4 Ko, deux bits inversés à 32767 bits l'un de l'autre (la période du polynôme CCITT)
+     * ne changent pas le CRC-16, mais changent le CRC-32C.
+     * Puis transferts de trames de 4 Ko sur un lien bruité, avec le CRC-32C.
+     */
+    public static void testFcs() throws Exception {
+        System.out.println("=== FCS CRC-32C ===");
+        ParametresConnexion propose = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true)
+                .avecTailleTrame(4096).avecFcs(Fcs.CRC32C);
+        if (propose.accepte(ParametresConnexion.maximaux()).getTailleFcs() != Fcs.CRC32C) echoue("CRC-32C non retenu");
+        if (propose.accepte(ParametresConnexion.defaut()).getTailleFcs() != Fcs.CRC16) {
+            echoue("CRC-32C retenu avec un pair qui ne le supporte pas");
         }
-        else{
-            System.out.println(role + ": ");
-            System.out.println(trame);
+        if (ParametresConnexion.fromBytes(propose.toBytes()).getTailleFcs() != Fcs.CRC32C) echoue("CRC-32C mal encodé");
+
+        byte[] donne = new byte[4096];
+        new Random(GRAINE).nextBytes(donne);
+        int crc16 = Trame.calculerCRC(new Fcs(Fcs.CRC16), TrameType.I, (byte) 0, donne, 0, donne.length);
+        int crc32c = Trame.calculerCRC(new Fcs(Fcs.CRC32C), TrameType.I, (byte) 0, donne, 0, donne.length);
+        donne[0] ^= (byte) 0x80; //Premier et dernier bits des données : 32767 bits d'écart
+        donne[donne.length - 1] ^= 1;
+        boolean detecte16 = Trame.calculerCRC(new Fcs(Fcs.CRC16), TrameType.I, (byte) 0, donne, 0, donne.length) != crc16;
+        boolean detecte32 = Trame.calculerCRC(new Fcs(Fcs.CRC32C), TrameType.I, (byte) 0, donne, 0, donne.length) != crc32c;
+        System.out.println("deux bits inversés à 32767 bits d'écart : CRC-16 " + (detecte16 ? "détecte" : "ne détecte pas")
+                + ", CRC-32C " + (detecte32 ? "détecte" : "ne détecte pas"));
+        if (!detecte32) echoue("erreur non détectée par le CRC-32C");
+
+        Path fichier = fichierAleatoire(256 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
+        LienEmule.Conditions conditions = new LienEmule.Conditions().debit(10_000_000).delai(5).tauxErreurBit(1e-5);
+        ParametresConnexion goBackN = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU)
+                .avecTailleTrame(4096).avecFcs(Fcs.CRC32C);
+        ParametresConnexion[] cas = {goBackN, propose, propose.avecFec(8)};
+        String[] noms = {"Go-Back-N", "rejet sélectif", "rejet sélectif et correction d'erreurs"};
+        for (int i = 0; i < cas.length; i++) {
+            ByteArrayOutputStream recu = new ByteArrayOutputStream();
+            transfere(fichier.toString(), new LienEmule(conditions, GRAINE), cas[i], recu);
+            if (Arrays.equals(contenu, recu.toByteArray())) System.out.println("OK : CRC-32C, " + noms[i]);
+            else echoue("CRC-32C, " + noms[i] + " (" + recu.size() + " octets reçus sur " + contenu.length + ")");
         }
     }
 
+    /**
+     * Reprise d'un transfert : le lien est coupé pendant le transfert, puis une nouvelle connexion
+     * reprend au point de reprise enregistré par Receiver. Receiver voit la fin du lien et ferme son fichier :
+     * toutes les données acquittées avant la coupure doivent être couvertes par le point de reprise
+     * (au plus une fenêtre est renvoyée), et la nouvelle connexion ne doit envoyer que la fin du fichier.
+     * Enfin un autre fichier, plus grand, est envoyé vers la même sortie : le point de reprise ne porte
+     * pas sur lui, il doit être envoyé en entier. Si le lien est réinitialisé plutôt que fermé, Receiver
+     * voit une erreur de lecture et doit quand même fermer sa session. Le point de reprise enregistré pendant un transfert
+     * en modulo 8 ne doit pas être en retard de plus d'une fenêtre sur les données acquittées.
+     */
+    public static void testReprise() throws Exception {
+        System.out.println("=== Reprise d'un transfert interrompu ===");
+        Path fichier = fichierAleatoire(1024 * 1024);
+        byte[] contenu = Files.readAllBytes(fichier);
+        Path autre = fichierAleatoire(contenu.length + 256 * 1024, GRAINE + 1);
+        byte[] autreContenu = Files.readAllBytes(autre);
 
-}
+        ParametresConnexion propose = new ParametresConnexion(ParametresConnexion.MODULO_ETENDU, true)
+                .avecTailleTrame(1024);
+        ParametresConnexion accepte = propose.avecReprise(fichier).accepte(ParametresConnexion.maximaux());
+        if (!accepte.isReprise() || accepte.getTailleSource() != contenu.length) echoue("reprise non retenue");
+        if (propose.avecReprise(fichier).accepte(ParametresConnexion.defaut()).isReprise()) {
+            echoue("reprise retenue avec un pair qui ne la supporte pas");
+        }
+        ParametresConnexion decode = ParametresConnexion.fromBytes(accepte.avecPointReprise(1L << 33).toBytes());
+        if (decode.getReprise() != 1L << 33 || decode.getTailleSource() != contenu.length
+                || decode.getDateSource() != accepte.getDateSource()) {
+            echoue("point de reprise mal encodé");
+        }
 
-    
\ No newline at end of file
+        Path sortie = fichierTemporaire(new byte[0]);
+        Path point = PuitsFichier.fichierReprise(sortie);
+        point.toFile().deleteOnExit();
+        LienEmule.Conditions conditions = new LienEmule.Conditions().debit(10_000_000).delai(5);
+
+        Path[] envois = {fichier, fichier, autre};
+        long[] acquittes = new long[envois.length];
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int connexion = 0; connexion < envois.length; connexion++) {
+                LienEmule lien = new LienEmule(conditions, GRAINE);
+                Receiver receiver = new Receiver(lien.getExtremiteB(), ParametresConnexion.maximaux(),
+                        new PuitsFichier(sortie, PuitsFichier.TRAMES_PAR_LOT, false, true));
+                Thread recepteur = new Thread(() -> {
+                    try {
+                        receiver.start();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                recepteur.start();
+                Sender sender = new Sender(lien.getExtremiteA(), propose.avecReprise(envois[connexion]));
+                if (connexion == 0) {
+                    //Coupure franche du lien au milieu du transfert : ni trame de fin, ni dernier ACK
+                    Thread coupe = new Thread(() -> {
+                        try {
+                            Thread.sleep(300);
+                            lien.getExtremiteA().close();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    });
+                    coupe.start();
+                    try {
+                        sender.createFrame(envois[connexion].toString());
+                    } catch (IOException e) {
+                        sender.abandonne();
+                    }
+                    coupe.join();
+                } else {
+                    sender.createFrame(envois[connexion].toString());
+                }
+                recepteur.join();
+                acquittes[connexion] = sender.getOctetsAcquittes();
+                if (connexion == 1) {
+                    if (!Arrays.equals(contenu, Files.readAllBytes(sortie))) echoue("reprise : fichier reçu");
+                    else if (PuitsFichier.checksum(sortie) != PuitsFichier.checksum(fichier)) echoue("reprise : CRC-32");
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        long reprise = contenu.length - acquittes[1];
+        System.out.println("coupure après " + acquittes[0] + " octets acquittés, reprise à l'octet " + reprise
+                + " sur " + contenu.length);
+        if (reprise <= 0 || reprise >= contenu.length) echoue("reprise : coupure hors du transfert");
+        else if (reprise < acquittes[0]) echoue("reprise : des données acquittées sont renvoyées");
+        else if (reprise - acquittes[0] > (long) propose.getTailleFenetre() * propose.getTailleTrame()) {
+            echoue("reprise : plus d'une fenêtre envoyée sans acquittement");
+        }
+        else System.out.println("OK : reprise d'un transfert interrompu");
+
+        if (acquittes[2] != autreContenu.length || !Arrays.equals(autreContenu, Files.readAllBytes(sortie))) {
+            echoue("reprise : autre fichier complété avec le début du premier");
+        } else {
+            System.out.println("OK : autre fichier envoyé en entier malgré le point de reprise du premier");
+        }
+
+        //Coupure par réinitialisation du lien (comme un RST TCP) : la lecture de Receiver échoue au lieu de voir
+        //la fin du flux. La session doit quand même être fermée : les données reçues sont écrites et couvertes
+        //par le point de reprise, et les métriques de Receiver sont retirées de JMX
+        Path sortieRompue = fichierTemporaire(new byte[0]);
+        Path pointRompu = PuitsFichier.fichierReprise(sortieRompue);
+        pointRompu.toFile().deleteOnExit();
+        MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        ObjectName receivers = new ObjectName("hdlc:type=Session,role=Receiver,*");
+        int exposees = jmx.queryNames(receivers, null).size();
+        IOException[] erreur = {null};
+        long acquitte;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            LienEmule lien = new LienEmule(conditions, GRAINE);
+            Receiver receiver = new Receiver(lien.getExtremiteB(), ParametresConnexion.maximaux(),
+                    new PuitsFichier(sortieRompue, PuitsFichier.TRAMES_PAR_LOT, false, true));
+            Thread recepteur = new Thread(() -> {
+                try {
+                    receiver.start();
+                } catch (IOException e) {
+                    erreur[0] = e;
+                }
+            });
+            recepteur.start();
+            Sender sender = new Sender(lien.getExtremiteA(), propose.avecReprise(fichier));
+            Thread coupe = new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                    lien.reinitialise();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            coupe.start();
+            try {
+                sender.createFrame(fichier.toString());
+            } catch (IOException e) {
+                sender.abandonne();
+            }
+            coupe.join();
+            recepteur.join();
+            acquitte = sender.getOctetsAcquittes();
+        } finally {
+            System.setOut(console);
+        }
+        long pointEnregistre = ByteBuffer.wrap(Files.readAllBytes(pointRompu)).getLong(0);
+        if (erreur[0] == null) echoue("réinitialisation : Receiver n'a pas vu l'erreur du lien");
+        else if (pointEnregistre < acquitte || pointEnregistre != Files.size(sortieRompue)) {
+            echoue("réinitialisation : données reçues non écrites ou non couvertes par le point de reprise ("
+                    + pointEnregistre + " enregistrés, " + Files.size(sortieRompue) + " écrits, " + acquitte + " acquittés)");
+        }
+        else if (jmx.queryNames(receivers, null).size() != exposees) {
+            echoue("réinitialisation : métriques de Receiver toujours exposées en JMX");
+        }
+        else System.out.println("OK : session fermée et point de reprise enregistré après une réinitialisation du lien");
+
+        //Le point de reprise enregistré est ce qu'il reste après un arrêt brutal du récepteur :
+        //en modulo 8 (fenêtre de 7 trames), il doit suivre les données acquittées à moins d'une fenêtre près
+        ParametresConnexion modulo8 = new ParametresConnexion(ParametresConnexion.MODULO_NORMAL).avecTailleTrame(1024);
+        long retard = retardPointReprise(fichier, modulo8, conditions);
+        long fenetre = (long) modulo8.getTailleFenetre() * modulo8.getTailleTrame();
+        System.out.println("point de reprise en retard d'au plus " + retard + " octets sur les acquittements"
+                + " (fenêtre de " + fenetre + " octets)");
+        if (retard > fenetre) echoue("reprise : point de reprise en retard de plus d'une fenêtre");
+        else System.out.println("OK : point de reprise à moins d'une fenêtre des acquittements");
+    }
+
+    /**
+     * Transfère un fichier vers un PuitsFichier avec reprise et relève, pendant tout le transfert,
+     * l'écart entre les octets acquittés à Sender et le point de reprise enregistré sur le disque.
+     * Les acquittements sont lus avant le point de reprise, qui ne peut qu'avoir avancé entre les deux.
+     * @param fichier le fichier envoyé
+     * @param parametres les paramètres proposés par Sender
+     * @param conditions les conditions du lien
+     * @return le plus grand retard observé du point de reprise, en octets
+     */
+    private static long retardPointReprise(Path fichier, ParametresConnexion parametres,
+                                           LienEmule.Conditions conditions) throws Exception {
+        Path sortie = fichierTemporaire(new byte[0]);
+        Path point = PuitsFichier.fichierReprise(sortie);
+        point.toFile().deleteOnExit();
+        LienEmule lien = new LienEmule(conditions, GRAINE);
+        Receiver receiver = new Receiver(lien.getExtremiteB(), ParametresConnexion.maximaux(),
+                new PuitsFichier(sortie, PuitsFichier.TRAMES_PAR_LOT, false, true));
+        Thread recepteur = new Thread(() -> {
+            try {
+                receiver.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            recepteur.start();
+            Sender sender = new Sender(lien.getExtremiteA(), parametres.avecReprise(fichier));
+            long[] retard = {0};
+            Thread releve = new Thread(() -> {
+                ByteBuffer enregistre = ByteBuffer.allocate(Long.BYTES);
+                try (FileChannel canal = FileChannel.open(point, StandardOpenOption.READ)) {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        long acquittes = sender.getOctetsAcquittes();
+                        enregistre.clear();
+                        if (canal.read(enregistre, 0) == Long.BYTES) {
+                            retard[0] = Math.max(retard[0], acquittes - enregistre.getLong(0));
+                        }
+                        Thread.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    //Fin du transfert
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            releve.start();
+            sender.createFrame(fichier.toString());
+            recepteur.join();
+            releve.interrupt();
+            releve.join();
+            return retard[0];
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Note l'échec d'un test
+     * @param nom le nom du cas échoué
+     */
+    private static void echoue(String nom) {
+        echecs++;
+        System.out.println("ÉCHEC : " + nom);
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Traceur enregistre les événements des trames (envoi, réception, ACK, REJ, réémission, CRC incorrect...)
+ * sans ralentir les threads qui les produisent : chaque événement est une entrée de taille fixe
+ * écrite dans un anneau préalloué, sans verrou ni allocation, et un thread de fond recopie l'anneau
+ * dans un fichier de trace binaire. Si l'anneau est plein, l'événement est perdu et compté,
+ * plutôt que de bloquer l'envoi.
+ * La trace est activée en donnant le fichier dans la propriété système hdlc.trace
+ * (java -Dhdlc.trace=trace.bin ...). Sans elle, ACTIF est une constante fausse et chaque appel
+ * à evenement se réduit à un test que le JIT élimine.
+ * Utilisation pour relire une trace : java Traceur trace.bin
+ */
+final class Traceur {
+
+    /** Les événements tracés */
+    enum Evenement {
+        ENVOI,          //trame écrite sur la connexion
+        RECEPTION,      //trame complète reçue
+        ACK,            //acquittement reçu par Sender
+        REJ,            //rejet (Go-Back-N) reçu par Sender
+        SREJ,           //rejet sélectif reçu par Sender
+        REEMISSION,     //trame réémise par Sender
+        EXPIRATION,     //délai de retransmission dépassé
+        CRC_INVALIDE,   //trame reçue avec un CRC incorrect
+        HORS_SEQUENCE,  //trame reçue avec un autre numéro que celui attendu (aux : numéro attendu)
+        CORRECTION      //trame erronée corrigée par sa parité Reed-Solomon (aux : nombre de bytes corrigés)
+    }
+
+    /** Vrai si la trace est activée (propriété système hdlc.trace) */
+    static final boolean ACTIF = System.getProperty("hdlc.trace") != null;
+
+    /** Début du fichier de trace */
+    private static final long MAGIQUE = 0x48444c4354524331L; //"HDLCTRC1"
+
+    /** Taille d'un événement dans le fichier : instant, session, événement, type, num, aux, taille */
+    private static final int TAILLE_EVENEMENT = 8 + 4 + 4 + 4;
+
+    /** Nombre de longs par événement dans l'anneau */
+    private static final int LONGS_PAR_EVENEMENT = 3;
+
+    /** Le traceur de la JVM, ou null si la trace est désactivée */
+    private static final Traceur INSTANCE = ACTIF ? new Traceur(System.getProperty("hdlc.trace"),
+            Integer.getInteger("hdlc.trace.capacite", 1 << 16)) : null;
+
+    /** Numéro de la prochaine session tracée */
+    private static final AtomicInteger prochaineSession = new AtomicInteger();
+
+    /** Champs des événements, LONGS_PAR_EVENEMENT longs par case de l'anneau */
+    private final long[] anneau;
+
+    /** Numéro de séquence + 1 de l'événement publié dans chaque case */
+    private final AtomicLongArray publies;
+
+    /** Nombre de cases de l'anneau (puissance de 2) - 1 */
+    private final int masque;
+
+    /** Numéro de séquence du prochain événement à réserver par un producteur */
+    private final AtomicLong tete = new AtomicLong();
+
+    /** Numéro de séquence du prochain événement à écrire dans le fichier */
+    private volatile long queue = 0;
+
+    /** Nombre d'événements perdus car l'anneau était plein */
+    private final LongAdder perdus = new LongAdder();
+
+    /** Instant de référence des événements (System.nanoTime au démarrage) */
+    private final long origine = System.nanoTime();
+
+    /** Thread qui écrit l'anneau dans le fichier */
+    private final Thread ecrivain;
+
+    /** Vrai quand la JVM s'arrête : l'écrivain vide l'anneau et ferme le fichier */
+    private volatile boolean arret = false;
+
+    /**
+     * Constructeur de Traceur.
+     * @param fichier le fichier de trace
+     * @param capacite le nombre d'événements de l'anneau, arrondi à une puissance de 2
+     */
+    private Traceur(String fichier, int capacite) {
+        int cases = Integer.highestOneBit(Math.max(2, capacite - 1) << 1);
+        this.anneau = new long[cases * LONGS_PAR_EVENEMENT];
+        this.publies = new AtomicLongArray(cases);
+        this.masque = cases - 1;
+        this.ecrivain = new Thread(() -> ecrit(fichier), "Traceur");
+        this.ecrivain.setDaemon(true);
+        this.ecrivain.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            arret = true;
+            LockSupport.unpark(ecrivain);
+            try {
+                ecrivain.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    /**
+     * Attribue un numéro à une session, pour distinguer ses événements dans la trace et dans JMX
+     * @return le numéro de la session
+     */
+    static int nouvelleSession() {
+        return prochaineSession.getAndIncrement();
+    }
+
+    /**
+     * Trace un événement. Ne bloque pas et n'alloue pas ; ne fait rien si la trace est désactivée.
+     * @param evenement l'événement
+     * @param session le numéro de la session
+     * @param type le type de la trame
+     * @param num le numéro de la trame
+     * @param taille la taille des données de la trame
+     */
+    static void evenement(Evenement evenement, int session, TrameType type, byte num, int taille) {
+        if (ACTIF) INSTANCE.publie(evenement, session, type, num, (byte) 0, taille);
+    }
+
+    /**
+     * Trace un événement avec une valeur supplémentaire (par exemple le numéro attendu).
+     * @param evenement l'événement
+     * @param session le numéro de la session
+     * @param type le type de la trame
+     * @param num le numéro de la trame
+     * @param aux la valeur supplémentaire
+     * @param taille la taille des données de la trame
+     */
+    static void evenement(Evenement evenement, int session, TrameType type, byte num, byte aux, int taille) {
+        if (ACTIF) INSTANCE.publie(evenement, session, type, num, aux, taille);
+    }
+
+    /**
+     * Réserve une case de l'anneau, y écrit l'événement et le publie pour l'écrivain.
+     * La réservation se fait par compare-and-set : aucun producteur n'attend un autre.
+     */
+    private void publie(Evenement evenement, int session, TrameType type, byte num, byte aux, int taille) {
+        long sequence;
+        do {
+            sequence = tete.get();
+            if (sequence - queue > masque) { //Anneau plein : on perd l'événement plutôt que d'attendre
+                perdus.increment();
+                return;
+            }
+        } while (!tete.compareAndSet(sequence, sequence + 1));
+
+        int indice = (int) (sequence & masque);
+        int base = indice * LONGS_PAR_EVENEMENT;
+        anneau[base] = System.nanoTime() - origine;
+        anneau[base + 1] = ((long) session << 32) | (taille & 0xFFFFFFFFL);
+        anneau[base + 2] = (evenement.ordinal() << 24) | ((type.getCode() & 0xFF) << 16)
+                | ((num & 0xFF) << 8) | (aux & 0xFF);
+        publies.lazySet(indice, sequence + 1); //Publication après l'écriture des champs
+    }
+
+    /**
+     * Boucle de l'écrivain : recopie les événements publiés dans le fichier jusqu'à l'arrêt de la JVM.
+     * @param fichier le fichier de trace
+     */
+    private void ecrit(String fichier) {
+        ByteBuffer tampon = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel canal = FileChannel.open(Paths.get(fichier), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            tampon.putLong(MAGIQUE);
+            while (true) {
+                boolean arreter = arret; //Lu avant de vider : rien n'est publié après l'arrêt
+                long suivant = queue;
+                int indice;
+                while (publies.get(indice = (int) (suivant & masque)) == suivant + 1) {
+                    if (tampon.remaining() < TAILLE_EVENEMENT) vide(canal, tampon);
+                    int base = indice * LONGS_PAR_EVENEMENT;
+                    tampon.putLong(anneau[base]);
+                    tampon.putLong(anneau[base + 1]);
+                    tampon.putInt((int) anneau[base + 2]);
+                    suivant++;
+                    queue = suivant; //Libère la case pour les producteurs
+                }
+                vide(canal, tampon);
+                if (arreter) break;
+                LockSupport.parkNanos(1_000_000L);
+            }
+            if (perdus.sum() > 0) {
+                System.err.println("Traceur : " + perdus.sum() + " événements perdus (anneau plein)");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Écrit le contenu du tampon dans le fichier
+     */
+    private static void vide(FileChannel canal, ByteBuffer tampon) throws IOException {
+        tampon.flip();
+        while (tampon.hasRemaining()) {
+            canal.write(tampon);
+        }
+        tampon.clear();
+    }
+
+    /**
+     * Relit un fichier de trace et affiche ses événements, un par ligne.
+     * @param args le fichier de trace
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Utilisation : java Traceur <fichier de trace>");
+            return;
+        }
+        Evenement[] evenements = Evenement.values();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            if (in.readLong() != MAGIQUE) {
+                System.out.println(args[0] + " n'est pas un fichier de trace");
+                return;
+            }
+            long nombre = 0;
+            while (true) {
+                long instant;
+                try {
+                    instant = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long sessionTaille = in.readLong();
+                int champs = in.readInt();
+                int evenement = champs >>> 24;
+                TrameType type = TrameType.fromCode((byte) (champs >>> 16));
+                System.out.printf("%14.6f ms  session %-4d %-13s %s%-3d %6d octets%s%n",
+                        instant / 1e6, (int) (sessionTaille >>> 32),
+                        evenement < evenements.length ? evenements[evenement] : "?" + evenement,
+                        type == null ? "?" : type, (byte) (champs >>> 8), (int) sessionTaille,
+                        evenement == Evenement.HORS_SEQUENCE.ordinal() ? "  (attendue : " + (byte) champs + ")" : "");
+                nombre++;
+            }
+            System.out.println(nombre + " événements");
+        }
+    }
+}
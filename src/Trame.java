@@ -1,6 +1,5 @@
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * TrameType représente les types de trames, chacun avec un code byte 
@@ -11,6 +10,7 @@ enum TrameType {
     C((byte) 'C'),   //demande de connexion 
     A((byte) 'A'),   //accusé de réception (RR)
     R((byte) 'R'),   //rejet de la trame Num et de toutes celles envoyées après 
+    S((byte) 'S'),   //rejet sélectif (SREJ) : seule la trame Num est à réémettre
     F((byte) 'F'),   //fin de la communication
     P((byte) 'P');   //trame avec P bit, équivalente à P bit.
 
@@ -19,6 +19,17 @@ enum TrameType {
      */
     private final byte code;
 
+    /**
+     * Type correspondant à chaque code byte (null si aucun), pour trouver le type en temps constant
+     */
+    private static final TrameType[] PAR_CODE = new TrameType[256];
+
+    static {
+        for (TrameType type : values()) {
+            PAR_CODE[type.code & 0xFF] = type;
+        }
+    }
+
     /**
      * Constructeur de  TrameType.
      * @param code le code byte associé au type de la trame
@@ -43,12 +54,7 @@ enum TrameType {
      *         ou null si aucun correspondance
      */
     public static TrameType fromCode(byte code) {
-        for (TrameType type : TrameType.values()) {
-            if (type.code == code) {
-                return type;
-            }
-        }
-        return null;
+        return PAR_CODE[code & 0xFF];
     }
 }
 
@@ -57,14 +63,14 @@ enum TrameType {
  */
 class Trame {
     /**
-     * Le polynôme générateur CRC-CCITT (x16 + x12 + x5 + 1)
+     * Le flag indiquant le début et la fin de la trame (01111110)
      */
-    private static final short CRC_CCIT = 0x1021;
+    static final byte FLAG = 126;
 
     /**
-     * Le flag indiquant le début et la fin de la trame (01111110)
+     * Nombre minimal de bytes entre les deux flags (type + num + CRC-16, sans données)
      */
-    private static final byte FLAG = 126;
+    static final int TAILLE_MIN_CONTENU = 4;
 
     /**
      * Le numéro de la trame
@@ -77,184 +83,228 @@ class Trame {
     private final byte[] donne;
 
     /**
-     * Le checksum calculé en utilisant CRC
+     * Le checksum calculé en utilisant CRC, ou celui lu dans la trame reçue
+     */
+    private final int crc;
+
+    /**
+     * Le nombre de bytes du checksum (voir Fcs)
      */
-    private final short crc;
+    private final int tailleFcs;
 
     /**
      * Le type de la trame, avec enum TrameType
      */
     private final TrameType type;
 
+    /**
+     * Trames sans données (A, R, S, F) pour chaque numéro, créées une seule fois et partagées :
+     * une trame est immuable, et les acquittements n'ont donc pas besoin d'être alloués à chaque envoi.
+     */
+    private static final Trame[][] CONTROLES = new Trame[TrameType.values().length][];
+
+    static {
+        for (TrameType type : new TrameType[] {TrameType.A, TrameType.R, TrameType.S, TrameType.F}) {
+            Trame[] trames = new Trame[ParametresConnexion.MODULO_ETENDU];
+            for (int num = 0; num < trames.length; num++) {
+                trames[num] = new Trame(type, (byte) num, new byte[0]);
+            }
+            CONTROLES[type.ordinal()] = trames;
+        }
+    }
+
     /**
      * Constructeur de Trame.
      * Initialise une nouvelle trame avec le type, le numéro, les données
-     * et calcule le CRC.
+     * et calcule le CRC (CRC-16/CCITT).
      * @param type  le type de la trame.
      * @param num   le numéro de la trame.
      * @param donne les données de la trame.
      */
     Trame(TrameType type, byte num, byte[] donne) {
+        this(type, num, donne, new Fcs(Fcs.CRC16));
+    }
+
+    /**
+     * Constructeur de Trame avec la séquence de contrôle négociée pour la connexion.
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne les données de la trame.
+     * @param fcs   le calculateur du FCS de la trame.
+     */
+    Trame(TrameType type, byte num, byte[] donne, Fcs fcs) {
         this.type = type;
         this.num = num;
         this.donne = donne;
-        this.crc = calculerCRC();
+        this.tailleFcs = fcs.taille();
+        this.crc = calculerCRC(fcs, type, num, donne, 0, donne.length);
     }
 
     /**
-     * Calcule le CRC pour la trame actuelle en utilisant le protocole CRC-CCITT.
-     * Le checksum est calculé sur les champs Type, Num et Données.
-     * @return le CRC calculé sous forme de short.
-     */
-    public final short calculerCRC() {
-        //on prépare de quoi accueuillir le type, le numero et les données
-        byte[] donne_checksum = new byte[donne.length + 2]; 
-        donne_checksum[0] = type.getCode(); //on recupere le type
-        donne_checksum[1] = num; //on recupere le numero de la trame
-        System.arraycopy(donne, 0, donne_checksum, 2, donne.length);
-        
-        
-        int checksum = 0x0000; // on initialise a 0x16
-
-        //On itère chaque byte des données utilisé pour calculer le checksum
-        for (byte b : donne_checksum) {
-            //On XOR checksum avec le byte b auquel on a rajouté 8 zéros pour aligner les bits forts
-            checksum ^= (b << 8); 
-
-            //on itère chaque bit du byte b
-            for (int i = 0; i < 8; i++) {
-                //On check si le bit fort de checksum est 1
-                //Si 1 : On decale le checksum de 1 bit vers la gauche puis on XOR avec le polynome CRC-CCIT
-                //Si 0 : On decale le checksum de 1 bit vers la gauche
-                if ((checksum & 0x8000) != 0)
-                    checksum = (checksum << 1) ^ CRC_CCIT;
-                else
-                    checksum <<= 1;
-            }
-        }
-        //checksum & 0xFFFF nous donne les 16 bits faibles correspondants au checksum
-        //(short) pour convertir en short
-        return (short) (checksum & 0xFFFF);
+     * Constructeur d'une trame reçue : le CRC est celui lu dans la trame
+     * et non recalculé, pour que Receiver puisse le vérifier (utilisé aussi par TrameVue).
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne les données de la trame.
+     * @param crc   le CRC lu dans la trame.
+     * @param tailleFcs le nombre de bytes du CRC.
+     */
+    Trame(TrameType type, byte num, byte[] donne, int crc, int tailleFcs) {
+        this.type = type;
+        this.num = num;
+        this.donne = donne;
+        this.crc = crc;
+        this.tailleFcs = tailleFcs;
     }
 
     /**
-     * Convertit la trame actuelle en un tableau de bytes, prêt à être transmis.
-     * @return la trame sous forme de tableau de bytes.
+     * Calcule le CRC pour la trame actuelle, avec le FCS de la trame (CRC-CCITT ou CRC-32C).
+     * Le checksum est calculé sur les champs Type, Num et Données, directement
+     * sur les champs de la trame (sans copie dans un tableau intermédiaire).
+     * @return le CRC calculé, sur les tailleFcs bytes faibles.
      */
-    public byte[] trame_to_tab() {
-        byte[] donne_stuffed = bitstuffing(donne);
-        byte[] trame = new byte[6 + donne_stuffed.length];
-
-        trame[0] = FLAG; //ajoute le flag de début
-        trame[1] = type.getCode(); 
-        trame[2] = num; 
-
-        System.arraycopy(donne_stuffed, 0, trame, 3, donne_stuffed.length);
-
-        trame[3 + donne.length] = (byte) ((crc >> 8) & 0xFF); //les 8 bits de poid fort du crc
-        trame[4 + donne.length] = (byte) (crc & 0xFF); //les 8 bits de poid faible du crc
-
-        trame[trame.length - 1] = FLAG; //ajoute le flag de fin
+    public final int calculerCRC() {
+        return calculerCRC(new Fcs(tailleFcs), type, num, donne, 0, donne.length);
+    }
 
-        return trame;
+    /**
+     * Calcule le CRC des champs Type, Num et Données d'une trame avec un calculateur réutilisable.
+     * @param checksum le calculateur, remis à zéro avant le calcul
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne le tableau contenant les données.
+     * @param off   l'indice du premier byte des données.
+     * @param len   le nombre de bytes de données.
+     * @return le CRC calculé, sur checksum.taille() bytes faibles.
+     */
+    static int calculerCRC(Fcs checksum, TrameType type, byte num, byte[] donne, int off, int len) {
+        checksum.reset();
+        checksum.update(type.getCode()); //on commence par le type
+        checksum.update(num); //puis le numero de la trame
+        checksum.update(donne, off, len); //puis les données
+        return checksum.getValue();
     }
 
     /**
-     * Initialise une trame à partir d'un tableau de byte
-     * @param trameBytes le tableau de bytes représentant une trame.
-     * @return une instance de Trame si le format est valide, sinon null.
+     * Retourne la trame sans données du type et du numéro demandés, sans l'allouer
+     * @param type le type de la trame : A, R, S ou F.
+     * @param num  le numéro de la trame.
+     * @return la trame partagée correspondante.
      */
-    public static Trame donne_to_Trame(byte[] trameBytes) {
-        //Si les flags ne sont pas au début et à la fin on retourne null
-        if (trameBytes[0] != FLAG || trameBytes[trameBytes.length - 1] != FLAG) return null;
+    static Trame controle(TrameType type, byte num) {
+        return CONTROLES[type.ordinal()][num];
+    }
 
-        TrameType type = TrameType.fromCode(trameBytes[1]);
-        if (type == null) return null; //Si le type n'existe pas on retourne null
+    /**
+     * Taille du FCS d'une trame : le FCS négocié pour les trames I, le CRC-16 pour les autres
+     * @param type le type de la trame.
+     * @param tailleFcsI le nombre de bytes du FCS des trames I de la connexion.
+     * @return le nombre de bytes du FCS de la trame.
+     */
+    static int tailleFcs(TrameType type, int tailleFcsI) {
+        return type == TrameType.I ? tailleFcsI : Fcs.CRC16;
+    }
 
-        byte num = trameBytes[2];
-        //On destuffe les données sans le crc et le flag
-        byte[] donne_destuffed = bitdestuffing(Arrays.copyOfRange(trameBytes, 3, trameBytes.length - 3));
+    /**
+     * Taille maximale d'une trame encodée, flags compris, quel que soit son FCS
+     * @param tailleDonnees le nombre de bytes de données
+     * @return le nombre maximal de bytes écrits par encode
+     */
+    static int tailleMaxEncodee(int tailleDonnees) {
+        return 2 + BitStuffing.tailleMaxStuffee(tailleDonnees + TAILLE_MIN_CONTENU - Fcs.CRC16 + Fcs.TAILLE_MAX);
+    }
 
+    /**
+     * Convertit la trame actuelle en un tableau de bytes, prêt à être transmis.
+     * Le bit stuffing est appliqué à tous les champs sauf les flags (Type, Num, Données et CRC),
+     * ce qui garantit que le flag n'apparaît qu'aux extrémités de la trame.
+     * @return la trame sous forme de tableau de bytes.
+     */
+    public byte[] trame_to_tab() {
+        byte[] tampon = new byte[tailleMaxEncodee(donne.length)];
+        int taille = encode(ByteBuffer.wrap(tampon), new BitStuffing());
+        return tampon.length == taille ? tampon : Arrays.copyOf(tampon, taille);
+    }
 
-        return new Trame(type, num, donne_destuffed);
+    /**
+     * Encode la trame dans un ByteBuffer fourni par l'appelant, à partir de sa position, sans allouer.
+     * @param dst le ByteBuffer de sortie (éventuellement direct), avec au moins tailleMaxEncodee bytes restants
+     * @param encodeur l'encodeur de bit stuffing, réutilisé d'une trame à l'autre
+     * @return le nombre de bytes écrits, flags compris
+     */
+    int encode(ByteBuffer dst, BitStuffing encodeur) {
+        return encode(dst, encodeur, type, num, donne, 0, donne.length, crc, tailleFcs);
     }
 
     /**
-     * Si il y a 5 bits a 1 d'affilés on insere après un bit a 0 du bit sutffing
-     * @param donne le tableau de bytes sur lequel appliqué le bit stuffing
-     * @return les données avec le bit stuffing d'appliquer
-     */
-    private static byte[] bitstuffing(byte[] donne){
-        List<Byte> donne_stuffed = new ArrayList<>();
-        int compteur1 = 0;
-
-        for (byte b : donne) { //Itere bytes
-            for (int i = 7; i >= 0; i--) { //Itere bits 
-                if ((b & (1 << i)) != 0) { //Si le bit est a 1
-                    compteur1++;
-                    donne_stuffed.add((byte) 1);
-                    if (compteur1 == 5) { //Si 5 bits a 1 d'affilé
-                        donne_stuffed.add((byte) 0); //Insere 0
-                        compteur1 = 0;
-                    }
-                } else {
-                    compteur1 = 0;
-                    donne_stuffed.add((byte) 0);
-                }
-            }
+     * Encode une trame dans un ByteBuffer à partir de ses champs, sans créer d'objet Trame.
+     * Le bit stuffing est appliqué à tous les champs sauf les flags (Type, Num, Données et CRC).
+     * @param dst le ByteBuffer de sortie (éventuellement direct), avec au moins tailleMaxEncodee bytes restants
+     * @param encodeur l'encodeur de bit stuffing, réutilisé d'une trame à l'autre
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne le tableau contenant les données.
+     * @param off   l'indice du premier byte des données.
+     * @param len   le nombre de bytes de données.
+     * @param crc   le CRC de la trame.
+     * @param tailleFcs le nombre de bytes du CRC.
+     * @return le nombre de bytes écrits, flags compris
+     */
+    static int encode(ByteBuffer dst, BitStuffing encodeur, TrameType type, byte num,
+                      byte[] donne, int off, int len, int crc, int tailleFcs) {
+        dst.put(FLAG); //ajoute le flag de début
+
+        //Le bit stuffing est écrit directement dans la trame, champ par champ
+        encodeur.commence(dst);
+        encodeur.stuff(type.getCode());
+        encodeur.stuff(num);
+        encodeur.stuff(donne, off, len);
+        for (int i = tailleFcs - 1; i >= 0; i--) {
+            encodeur.stuff((byte) (crc >>> (8 * i))); //le crc, octets de poids fort en premier
         }
-        return convertBitListToByteArray(donne_stuffed);
+        int tailleStuffee = encodeur.termine();
+
+        dst.put(FLAG); //ajoute le flag de fin
+        return 2 + tailleStuffee;
     }
 
     /**
-     * Si il y a 5 bits a 1 d'affilés on enleve le 0 du bit stuffing
-     * @param donne le tableau de bytes sur lequel enlevé le bit stuffing
-     * @return les données sans le bit stuffing
-     */
-    private static byte[] bitdestuffing(byte[] donne){
-        List<Byte> donne_destuffed = new ArrayList<>();
-        int compteur1 = 0;
-
-        for (byte b : donne) { //Itere bytes
-            for (int i = 7; i >= 0; i--) { //Itere bits 
-                if ((b & (1 << i)) != 0) { //Si le bit est a 1
-                    compteur1++;
-                    donne_destuffed.add((byte) 1);
-                    if (compteur1 == 5) { //Si 5 bits a 1 d'affilé
-                        i--; //On skip le 0 du bit stuffing
-                        compteur1 = 0;
-                    }
-                } else {
-                    compteur1 = 0;
-                    donne_destuffed.add((byte) 0);
-                }
-            }
-        }
-        return convertBitListToByteArray(donne_destuffed);
+     * Initialise une trame à partir d'un tableau de byte, avec le CRC-16
+     * @param trameBytes le tableau de bytes représentant une trame.
+     * @return une instance de Trame si le format est valide, sinon null.
+     */
+    public static Trame donne_to_Trame(byte[] trameBytes) {
+        return donne_to_Trame(trameBytes, 0, trameBytes.length, Fcs.CRC16);
     }
 
     /**
-     * Si il y a 5 bits a 1 d'affilés on enleve le 0 du bit stuffing
-     * @param bitList une liste de byte ou chaque byte est considéré comme un bit
-     * @return la liste convertit en byte Array
+     * Initialise une trame à partir d'une portion d'un tableau de byte, flags compris.
+     * Le CRC de la trame retournée est celui lu dans les bytes : il n'est pas vérifié ici.
+     * @param tab le tableau contenant la trame.
+     * @param off l'indice du flag de début.
+     * @param len le nombre de bytes de la trame, flags compris.
+     * @param tailleFcsI le nombre de bytes du FCS des trames I (les autres trames ont le CRC-16).
+     * @return une instance de Trame si le format est valide, sinon null.
      */
-    private static byte[] convertBitListToByteArray(List<Byte> bitList) {
-        //On arrondit au supérieur pour le nombre de bytes
-        byte[] byteArray = new byte[(int) Math.ceil((double) bitList.size() / 8)]; 
-        int byteIndex = 0, bitIndex = 7;
-    
-        for (byte bit : bitList) { //Itere chaque bit (stocker dans byte ici)
-            if (bit == 1) {
-                byteArray[byteIndex] |= (1 << bitIndex); //On ajuste le bit correspondant
-            }
-            bitIndex--;
-            if (bitIndex < 0) { 
-                bitIndex = 7;
-                byteIndex++; //On avance au prochain byte
-            }
-        }
-    
-        return byteArray;
+    public static Trame donne_to_Trame(byte[] tab, int off, int len, int tailleFcsI) {
+        //Si les flags ne sont pas au début et à la fin on retourne null
+        if (len < 2 + TAILLE_MIN_CONTENU || tab[off] != FLAG || tab[off + len - 1] != FLAG) return null;
+
+        //On destuffe tout ce qui est entre les flags
+        byte[] contenu = new byte[len - 2];
+        int taille = BitStuffing.destuff(tab, off + 1, len - 2, contenu, 0);
+        if (taille < TAILLE_MIN_CONTENU) return null;
+
+        TrameType type = TrameType.fromCode(contenu[0]);
+        if (type == null) return null; //Si le type n'existe pas on retourne null
+        int tailleFcs = tailleFcs(type, tailleFcsI);
+        if (taille < 2 + tailleFcs) return null;
+
+        byte num = contenu[1];
+        byte[] donne = Arrays.copyOfRange(contenu, 2, taille - tailleFcs);
+        int crc = Fcs.lit(contenu, taille - tailleFcs, tailleFcs);
+
+        return new Trame(type, num, donne, crc, tailleFcs);
     }
 
     /**
@@ -271,10 +321,19 @@ class Trame {
      *
      * @return le CRC de la trame.
      */
-    public short getCrc() {
+    public int getCrc() {
         return crc;
     }
 
+    /**
+     * Accesseur de tailleFcs
+     *
+     * @return le nombre de bytes du CRC de la trame.
+     */
+    public int getTailleFcs() {
+        return tailleFcs;
+    }
+
     /**
      * Accesseur de type
      *
@@ -295,10 +354,24 @@ class Trame {
 
     @Override
     public String toString() {
-        return "Type      : " + getType() +
-               "\nNuméro    : " + getNum() +
-               "\nDonnées   : " + new String(getDonne()) +
-               "\nCRC       : " + getCrc() +
+        return texte(type, num, donne, 0, donne.length, crc);
+    }
+
+    /**
+     * Représentation textuelle d'une trame à partir de ses champs
+     * @param type  le type de la trame.
+     * @param num   le numéro de la trame.
+     * @param donne le tableau contenant les données.
+     * @param off   l'indice du premier byte des données.
+     * @param len   le nombre de bytes de données.
+     * @param crc   le CRC de la trame.
+     * @return la trame sous forme de texte
+     */
+    static String texte(TrameType type, byte num, byte[] donne, int off, int len, int crc) {
+        return "Type      : " + type +
+               "\nNuméro    : " + num +
+               "\nDonnées   : " + new String(donne, off, len) +
+               "\nCRC       : " + crc +
                "\n-----------------------------------" + "\n";
     }
 }
@@ -0,0 +1,148 @@
+/**
+ * TrameVue est une vue réutilisable (flyweight) sur une trame déjà destuffée :
+ * le type, le numéro, les données et le CRC sont lus directement dans le tampon de réception,
+ * sans copie ni allocation. La même vue est repositionnée sur chaque trame reçue ;
+ * elle n'est valide que jusqu'à la lecture suivante sur le Deframeur qui l'a remplie.
+ * Pour conserver une trame (tampon de réordonnancement), on la copie avec versTrame.
+ * La vue lit d'abord la trame avec le CRC-16 ; une trame I d'une connexion qui a négocié un autre FCS
+ * est relue avec ce FCS (voir fcs).
+ */
+final class TrameVue {
+
+    /** Tableau contenant la trame destuffée (Type, Num, Données, CRC) */
+    private byte[] contenu;
+
+    /** Indice du champ Type dans contenu */
+    private int off;
+
+    /** Nombre de bytes de la trame destuffée, sans les flags */
+    private int taille;
+
+    /** Type de la trame */
+    private TrameType type;
+
+    /** Calculateur de CRC-16 réutilisé pour vérifier chaque trame */
+    private final Fcs crc16 = new Fcs(Fcs.CRC16);
+
+    /** Calculateur du FCS de la trame vue : crc16, ou celui donné à fcs */
+    private Fcs checksum = crc16;
+
+    /**
+     * Positionne la vue sur une trame destuffée
+     * @param contenu le tableau contenant la trame, sans les flags
+     * @param off l'indice du champ Type
+     * @param taille le nombre de bytes de la trame (Type, Num, Données et CRC)
+     * @return false si le format n'est pas valide (trop courte ou type inconnu)
+     */
+    boolean positionne(byte[] contenu, int off, int taille) {
+        if (taille < Trame.TAILLE_MIN_CONTENU) return false;
+        TrameType type = TrameType.fromCode(contenu[off]);
+        if (type == null) return false; //Si le type n'existe pas la trame n'est pas valide
+        this.contenu = contenu;
+        this.off = off;
+        this.taille = taille;
+        this.type = type;
+        this.checksum = crc16;
+        return true;
+    }
+
+    /**
+     * Relit la trame avec la séquence de contrôle négociée pour les trames I de la connexion
+     * @param fcs le calculateur du FCS des trames I, utilisé par crcValide jusqu'au prochain positionnement
+     * @return false si la trame est trop courte pour ce FCS
+     */
+    boolean fcs(Fcs fcs) {
+        if (type != TrameType.I) return true; //Les autres trames gardent le CRC-16
+        if (taille < 2 + fcs.taille()) return false;
+        this.checksum = fcs;
+        return true;
+    }
+
+    /**
+     * Accesseur de type
+     *
+     * @return le type de la trame.
+     */
+    TrameType getType() {
+        return type;
+    }
+
+    /**
+     * Accesseur de num
+     *
+     * @return le numéro de la trame.
+     */
+    byte getNum() {
+        return contenu[off + 1];
+    }
+
+    /**
+     * Accesseur du crc lu dans la trame
+     *
+     * @return le CRC de la trame.
+     */
+    int getCrc() {
+        return Fcs.lit(contenu, off + taille - checksum.taille(), checksum.taille());
+    }
+
+    /**
+     * Accesseur du tableau contenant les données, à lire de debutDonnees sur tailleDonnees bytes
+     *
+     * @return le tableau de réception contenant les données de la trame.
+     */
+    byte[] tableau() {
+        return contenu;
+    }
+
+    /**
+     * Indice du premier byte des données dans tableau()
+     *
+     * @return l'indice du premier byte des données.
+     */
+    int debutDonnees() {
+        return off + 2;
+    }
+
+    /**
+     * Nombre de bytes du champ Données
+     *
+     * @return la taille des données de la trame.
+     */
+    int tailleDonnees() {
+        return taille - 2 - checksum.taille();
+    }
+
+    /**
+     * Vérifie le CRC lu dans la trame. Type, Num et Données sont contigus dans le tampon :
+     * le CRC est calculé en un seul passage, sans copie.
+     * @return true si le CRC est correct
+     */
+    boolean crcValide() {
+        checksum.reset();
+        checksum.update(contenu, off, taille - checksum.taille());
+        return checksum.getValue() == getCrc();
+    }
+
+    /**
+     * Copie les données de la trame dans un nouveau tableau
+     * @return les données de la trame
+     */
+    byte[] copieDonnees() {
+        byte[] donne = new byte[tailleDonnees()];
+        System.arraycopy(contenu, debutDonnees(), donne, 0, donne.length);
+        return donne;
+    }
+
+    /**
+     * Copie la trame vue dans une Trame, avec le CRC lu et non recalculé
+     * @return une trame indépendante du tampon de réception
+     */
+    Trame versTrame() {
+        return new Trame(type, getNum(), copieDonnees(), getCrc(), checksum.taille());
+    }
+
+    @Override
+    public String toString() {
+        return Trame.texte(type, getNum(), contenu, debutDonnees(), tailleDonnees(), getCrc());
+    }
+}